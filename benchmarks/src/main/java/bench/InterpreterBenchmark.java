@@ -0,0 +1,230 @@
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Headless runs of a parsed program through World.RoboGamePrinter, from
+ * creating the world to the program finishing (or reaching a step limit), and
+ * the per-action Robot.updatePending with many barrels in the world.
+ *
+ * tick is everything a robot does in a tick but run its program, and
+ * updateWorld is a whole update of a World whose robots are idle, events
+ * and all. Neither should allocate: with -prof gc, their gc.alloc.rate.norm
+ * should be 0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+	static final MethodHandle NEW_WORLD = Targets.constructor("World$RoboGamePrinter");
+	static final MethodHandle GET_ROBOT = Targets.method("World", "getRobot", int.class);
+	static final MethodHandle GET_FUEL = Targets.method("World", "getAvailableFuel");
+	static final MethodHandle NEW_CELL = Targets.constructor("Cell", int.class, int.class);
+	static final MethodHandle SET_PROGRAM = Targets.method("Robot", "setProgram", Targets.type("RobotProgramNode"));
+	static final MethodHandle NEW_CONTEXT = Targets.constructor("ExecutionContext", Targets.type("RobotProgramNode"),
+			Targets.type("RobotControl"));
+	static final MethodHandle SET_STEP_LIMIT = Targets.method("ExecutionContext", "setStepLimit", long.class);
+	static final MethodHandle RUN = Targets.method("ExecutionContext", "run");
+	static final Class<?> INTERRUPTED = Targets.type("RobotInterruptedException");
+
+	/**
+	 * Some programs never finish (s1_simple spins on its sensors once the
+	 * nearest barrel is beside it), so every run stops after this many
+	 * statements.
+	 */
+	static final long STEP_LIMIT = 10000;
+	static final MethodHandle UPDATE_PENDING = Targets.method("Robot", "updatePending");
+	static final MethodHandle GET_UPDATE = Targets.method("Robot", "getUpdate");
+	static final MethodHandle SET_UPDATE = Targets.method("Robot", "setUpdate", int[].class);
+	static final MethodHandle SET_TRACE = Targets.method("Robot", "setTrace", Consumer.class);
+	static final MethodHandle RESOLVE = Targets.method("Robot", "resolve");
+	static final MethodHandle OPPONENT_LR = Targets.method("Robot", "getOpponentLR");
+	static final MethodHandle OPPONENT_FB = Targets.method("Robot", "getOpponentFB");
+	static final MethodHandle BARREL_LR = Targets.method("Robot", "getClosestBarrelLR");
+	static final MethodHandle BARREL_FB = Targets.method("Robot", "getClosestBarrelFB");
+	static final MethodHandle NUM_BARRELS = Targets.method("Robot", "numBarrels");
+	static final MethodHandle NEW_PLAIN_WORLD = Targets.constructor("World");
+	static final MethodHandle UPDATE_WORLD = Targets.method("World", "updateWorld");
+	static final MethodHandle RESET_WORLD = Targets.method("World", "reset");
+
+	@State(Scope.Benchmark)
+	public static class Program {
+		@Param({ "s0_full.prog", "s1_simple.prog", "s1_full.prog" })
+		public String file;
+
+		@Param({ "2", "20" })
+		public int barrels;
+
+		Object program;
+
+		@Setup
+		public void setup() throws Throwable {
+			Quiet.stdout();
+			File data = new File(Quiet.dataDir("robo.data", "robo_data/data"), file);
+			program = (Object) ParserBenchmark.PARSE_FILE.invokeExact(data);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class CrowdedWorld {
+		@Param({ "1", "10", "50", "144" })
+		public int barrels;
+
+		Object robot;
+
+		@Setup
+		public void setup() throws Throwable {
+			Quiet.stdout();
+			Object world = (Object) NEW_WORLD.invokeExact();
+			addBarrels(world, barrels);
+			robot = (Object) GET_ROBOT.invokeExact(world, 1);
+		}
+	}
+
+	/**
+	 * Robot 1 facing south at (5, 5), off the barrels, taking fuel from robot
+	 * 2 right in front of it.
+	 */
+	@State(Scope.Benchmark)
+	public static class Siphon {
+		@Param({ "1", "10", "50" })
+		public int barrels;
+
+		Object robot, other;
+		int[] update, otherUpdate;
+
+		@Setup
+		public void setup() throws Throwable {
+			Quiet.stdout();
+			Object world = (Object) NEW_WORLD.invokeExact();
+			addBarrels(world, barrels);
+			((Set<?>) (Set<?>) GET_FUEL.invokeExact(world)).remove((Object) NEW_CELL.invokeExact(5, 5));
+			robot = (Object) GET_ROBOT.invokeExact(world, 1);
+			other = (Object) GET_ROBOT.invokeExact(world, 2);
+			SET_TRACE.invokeExact(robot, (Consumer<String>) state -> {
+			});
+			update = state(robot, 5, 5, 2, 50, 5);
+			otherUpdate = state(other, 5, 6, 0, 80, 0);
+		}
+
+		/**
+		 * @return the robot's update, at (x, y) facing dir (an ordinal of
+		 *         Robot.DIRECTION) with the given fuel, having chosen action
+		 */
+		private static int[] state(Object robot, int x, int y, int dir, int fuel, int action) throws Throwable {
+			int[] u = (int[]) GET_UPDATE.invokeExact(robot);
+			u[index("X")] = u[index("TARGET_X")] = x;
+			u[index("Y")] = u[index("TARGET_Y")] = y;
+			u[index("DIR")] = u[index("TARGET_DIR")] = dir;
+			u[index("FUEL")] = u[index("TARGET_FUEL")] = fuel;
+			u[index("SHIELD")] = 0;
+			u[index("ACTION")] = action;
+			return u;
+		}
+
+		private static int index(String field) throws ReflectiveOperationException {
+			Field f = Targets.type("MatchLog").getDeclaredField(field);
+			f.setAccessible(true);
+			return f.getInt(null);
+		}
+	}
+
+	/**
+	 * A World as a headless match plays it, with its event listeners, but
+	 * whose robots never choose an action. Barrels build up until the board
+	 * is full.
+	 */
+	@State(Scope.Benchmark)
+	public static class Match {
+		Object world;
+
+		@Setup
+		public void setup() throws Throwable {
+			Quiet.stdout();
+			world = (Object) NEW_PLAIN_WORLD.invokeExact();
+		}
+
+		@TearDown
+		public void tearDown() throws Throwable {
+			RESET_WORLD.invokeExact(world);
+		}
+	}
+
+	/**
+	 * Adds n barrels at distinct random (but repeatable) cells.
+	 */
+	@SuppressWarnings("unchecked")
+	static void addBarrels(Object world, int n) throws Throwable {
+		Set<Object> fuel = (Set<Object>) (Set<?>) GET_FUEL.invokeExact(world);
+		Random rand = new Random(n);
+		while (fuel.size() < n) {
+			fuel.add((Object) NEW_CELL.invokeExact(rand.nextInt(12), rand.nextInt(12)));
+		}
+	}
+
+	@Benchmark
+	public Object runProgram(Program state) throws Throwable {
+		Object world = (Object) NEW_WORLD.invokeExact();
+		addBarrels(world, state.barrels);
+		Object robot = (Object) GET_ROBOT.invokeExact(world, 1);
+		SET_PROGRAM.invokeExact(robot, state.program);
+		Object ctx = (Object) NEW_CONTEXT.invokeExact(state.program, robot);
+		SET_STEP_LIMIT.invokeExact(ctx, STEP_LIMIT);
+		try {
+			RUN.invokeExact(ctx);
+		} catch (RuntimeException e) {
+			if (!INTERRUPTED.isInstance(e)) {
+				throw e;
+			}
+		}
+		return robot;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object updatePending(CrowdedWorld state) throws Throwable {
+		UPDATE_PENDING.invokeExact(state.robot);
+		return state.robot;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int tick(Siphon state) throws Throwable {
+		SET_UPDATE.invokeExact(state.robot, state.update);
+		SET_UPDATE.invokeExact(state.other, state.otherUpdate);
+		RESOLVE.invokeExact(state.robot);
+		UPDATE_PENDING.invokeExact(state.robot);
+		return (int) OPPONENT_LR.invokeExact(state.robot) + (int) OPPONENT_FB.invokeExact(state.robot)
+				+ (int) BARREL_LR.invokeExact(state.robot) + (int) BARREL_FB.invokeExact(state.robot)
+				+ (int) NUM_BARRELS.invokeExact(state.robot);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public Object updateWorld(Match state) throws Throwable {
+		UPDATE_WORLD.invokeExact(state.world);
+		return state.world;
+	}
+}
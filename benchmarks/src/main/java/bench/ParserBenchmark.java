@@ -0,0 +1,102 @@
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parser.parseFile over the programs in robo_data/data, and over generated
+ * stage 1 programs of increasing size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+	static final MethodHandle PARSE_FILE = Targets.method("Parser", "parseFile", File.class);
+	static final MethodHandle GENERATOR = Targets.constructor("ProgramGenerator", long.class);
+	static final MethodHandle CONFIGURE = Targets.method("ProgramGenerator", "configure", String[].class);
+	static final MethodHandle PROGRAM = Targets.method("ProgramGenerator", "program");
+
+	@State(Scope.Benchmark)
+	public static class DataFile {
+		@Param({ "s0_simple.prog", "s0_full.prog", "s1_simple.prog", "s1_full.prog" })
+		public String file;
+
+		File data;
+
+		@Setup
+		public void setup() {
+			Quiet.stdout();
+			data = new File(Quiet.dataDir("robo.data", "robo_data/data"), file);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class AllFiles {
+		File[] all;
+
+		@Setup
+		public void setup() {
+			Quiet.stdout();
+			all = Quiet.dataDir("robo.data", "robo_data/data").listFiles((d, name) -> name.endsWith(".prog"));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Generated {
+		/** Maximum statements per block of the generated program. */
+		@Param({ "4", "16", "64" })
+		public int size;
+
+		File file;
+
+		@Setup
+		public void setup() throws Throwable {
+			Quiet.stdout();
+			Object gen = GENERATOR.invokeExact(42L);
+			int ignored = (int) CONFIGURE.invokeExact(gen, new String[] { "-stage", "1", "-depth", "2", "-size", "" + size });
+			file = File.createTempFile("generated", ".prog");
+			file.deleteOnExit();
+			Files.write(file.toPath(), ((String) PROGRAM.invokeExact(gen)).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Benchmark
+	public Object parseFile(DataFile state) throws Throwable {
+		return (Object) PARSE_FILE.invokeExact(state.data);
+	}
+
+	/** Every .prog file in the data directory, including the invalid ones. */
+	@Benchmark
+	public int parseAllFiles(AllFiles state) throws Throwable {
+		int parsed = 0;
+		for (File f : state.all) {
+			if ((Object) PARSE_FILE.invokeExact(f) != null) {
+				parsed++;
+			}
+		}
+		return parsed;
+	}
+
+	@Benchmark
+	public Object parseGenerated(Generated state) throws Throwable {
+		return (Object) PARSE_FILE.invokeExact(state.file);
+	}
+}
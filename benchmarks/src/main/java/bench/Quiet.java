@@ -0,0 +1,40 @@
+package bench;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Setup shared by the benchmarks.
+ */
+final class Quiet {
+
+	private Quiet() {
+	}
+
+	/**
+	 * The parser and robots print as they go; the benchmarks measure the work,
+	 * not the console, so their output is discarded.
+	 */
+	static void stdout() {
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			Targets.type("Robot").getField("debugDisplay").setBoolean(null, false);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The directory named by a system property, or the given path below the
+	 * repository root, from either the root or robo_code/code.
+	 */
+	static File dataDir(String property, String path) {
+		String dir = System.getProperty(property);
+		if (dir != null) {
+			return new File(dir);
+		}
+		File fromRoot = new File(path);
+		return fromRoot.isDirectory() ? fromRoot : new File("../..", path);
+	}
+}
@@ -0,0 +1,69 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * The code under test is in the default package, which can't be imported
+ * from a named package (and JMH doesn't allow benchmarks in the default
+ * package). Benchmarks reach it through method handles, looked up once in
+ * setup, whose types use Object for the default-package classes.
+ */
+final class Targets {
+
+	private Targets() {
+	}
+
+	static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A handle on a (possibly package-private) method, with every
+	 * default-package type in its signature erased to Object. Instance
+	 * methods take the receiver as their first argument.
+	 */
+	static MethodHandle method(String cls, String name, Class<?>... params) {
+		try {
+			Method m = type(cls).getDeclaredMethod(name, params);
+			m.setAccessible(true);
+			return erase(MethodHandles.lookup().unreflect(m));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static MethodHandle constructor(String cls, Class<?>... params) {
+		try {
+			Constructor<?> c = type(cls).getDeclaredConstructor(params);
+			c.setAccessible(true);
+			return erase(MethodHandles.lookup().unreflectConstructor(c));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle erase(MethodHandle mh) {
+		MethodType type = mh.type();
+		for (int i = 0; i < type.parameterCount(); i++) {
+			if (isDefaultPackage(type.parameterType(i))) {
+				type = type.changeParameterType(i, Object.class);
+			}
+		}
+		if (isDefaultPackage(type.returnType())) {
+			type = type.changeReturnType(Object.class);
+		}
+		return mh.asType(type);
+	}
+
+	private static boolean isDefaultPackage(Class<?> c) {
+		return !c.isPrimitive() && !c.isArray() && c.getPackageName().isEmpty();
+	}
+}
@@ -0,0 +1,94 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * KMP search, Huffman coding and Lempel-Ziv compression over random text
+ * of increasing length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmark {
+
+	static final MethodHandle SEARCH = Targets.method("KMP", "search", String.class, String.class);
+	static final MethodHandle CONSTRUCT_TREE = Targets.method("HuffmanCoding", "constructTree", String.class);
+	static final MethodHandle ENCODE = Targets.method("HuffmanCoding", "encode", String.class);
+	static final MethodHandle DECODE = Targets.method("HuffmanCoding", "decode", String.class);
+	static final MethodHandle COMPRESS = Targets.method("LempelZivCompress", "compress", String.class);
+	static final MethodHandle DECOMPRESS = Targets.method("LempelZivDecompress", "decompress", String.class);
+
+	@Param({ "1000", "100000", "1000000" })
+	public int length;
+
+	private String text, pattern, encoded, compressed;
+
+	@Setup
+	public void setup() throws Throwable {
+		// words from a small vocabulary, so there is repetition to compress
+		String[] words = { "repetition", "is", "the", "key", "to", "memorisation", "a", "robot", "fuel", "barrel" };
+		Random rand = new Random(length);
+		StringBuilder sb = new StringBuilder(length + 16);
+		while (sb.length() < length) {
+			sb.append(words[rand.nextInt(words.length)]).append(rand.nextInt(8) == 0 ? '\n' : ' ');
+		}
+		sb.setLength(length);
+		text = sb.toString();
+		// only matches at the very end, so the search reads the whole text
+		pattern = "zz" + text.substring(length - 30, length - 2);
+		text = text.substring(0, length - 30) + pattern;
+
+		// initialises the tree that encode and decode use
+		Map<?, ?> tree = (Map<?, ?>) CONSTRUCT_TREE.invokeExact(text);
+		encoded = (String) ENCODE.invokeExact(text);
+		compressed = (String) COMPRESS.invokeExact(text);
+	}
+
+	@Benchmark
+	public int kmpSearch() throws Throwable {
+		return (int) SEARCH.invokeExact(text, pattern);
+	}
+
+	@Benchmark
+	public Object huffmanConstructTree() throws Throwable {
+		return (Map<?, ?>) CONSTRUCT_TREE.invokeExact(text);
+	}
+
+	@Benchmark
+	public String huffmanEncode() throws Throwable {
+		return (String) ENCODE.invokeExact(text);
+	}
+
+	@Benchmark
+	public String huffmanDecode() throws Throwable {
+		return (String) DECODE.invokeExact(encoded);
+	}
+
+	@Benchmark
+	public String lempelZivCompress() throws Throwable {
+		return (String) COMPRESS.invokeExact(text);
+	}
+
+	@Benchmark
+	public String lempelZivDecompress() throws Throwable {
+		return (String) DECOMPRESS.invokeExact(compressed);
+	}
+}
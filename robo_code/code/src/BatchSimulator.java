@@ -0,0 +1,1110 @@
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Plays many independent matches at once, keeping the state of every robot
+ * and board in arrays of primitives rather than in Robot and World objects,
+ * and advancing all of the matches a tick at a time.
+ *
+ * Programs are run a statement at a time with ExecutionContext.step, through
+ * one Cursor that is pointed at whichever robot is choosing its action. The
+ * rules are those of Robot.processFuel and World.updateWorld, except that the
+ * robots of a match always choose in turn, robot 1 then robot 2, where the
+ * threads of a World race. Barrels appear as they would in a World seeded
+ * with World.setSeed. When barrels are equally close, the closest is the
+ * first along the rows of the board, rather than whichever a World's set
+ * gives first.
+ *
+ * Stretches in which both robots can only wait are skipped in one go (see
+ * fastForward), which leaves every match exactly as playing each tick would.
+ *
+ * Usage: BatchSimulator [-matches N] [-ticks T] [-threads P] [-seed S] prog1
+ * prog2, or BatchSimulator -parity N [-seed S] to check the rules against
+ * Robot's on N random positions.
+ */
+public class BatchSimulator {
+
+	/** Direction values, as the ordinals of Robot's directions. */
+	static final int NORTH = 0, WEST = 1, SOUTH = 2, EAST = 3;
+	/** The most statements a program may run in a tick without acting. */
+	static final int STATEMENTS_PER_TICK = 10000;
+	/** The chance of a barrel appearing in a tick, as in World.addFuel. */
+	static final double SPAWN_CHANCE = 0.2;
+	/**
+	 * Identifies these rules in stored results (see MatchStore). Change it
+	 * with any change that could make a match play out differently.
+	 */
+	static final int ENGINE_VERSION = 1;
+
+	private static final int WORDS = 3; // longs per board of 144 cells
+	private static final int UNKNOWN = -2;
+	/** Matches played together by run. */
+	private static final int CHUNK = 256;
+	private static final int LAST = World.SIZE - 1;
+	private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL, MASK = (1L << 48) - 1;
+	private static final Consumer<String> QUIET = state -> {
+	};
+
+	private final int matches;
+
+	// robot i (1 or 2) of match m is at 2 * m + i - 1 of these
+	private final int[] x, y, dir, fuel, targetX, targetY, targetDir, targetFuel, action;
+	/** Where the opponent was, relative to the robot, at the last update. */
+	private final int[] oppLR, oppFB;
+	/** The cell of the closest barrel the robot sees, -1 for none, or UNKNOWN. */
+	private final int[] closest;
+	private final boolean[] shield, finished, dead;
+	private final ExecutionContext[] programs;
+
+	// match m's board is at WORDS * m of these, with cell (x, y) at bit 12y + x
+	private final long[] board;
+	/** The board as it was at the last update, which is what the robots see. */
+	private final long[] sensed;
+	/** The state of each match's java.util.Random. */
+	private final long[] seeds;
+	private final int[] ticks;
+	private final boolean[] over;
+
+	private final Cursor cursor = new Cursor();
+	private long actions;
+	private int statementsPerTick = STATEMENTS_PER_TICK;
+	private boolean fastForward = true;
+	private long skipped;
+
+	BatchSimulator(int matches) {
+		this.matches = matches;
+		int robots = 2 * matches;
+		x = new int[robots];
+		y = new int[robots];
+		dir = new int[robots];
+		fuel = new int[robots];
+		targetX = new int[robots];
+		targetY = new int[robots];
+		targetDir = new int[robots];
+		targetFuel = new int[robots];
+		action = new int[robots];
+		oppLR = new int[robots];
+		oppFB = new int[robots];
+		closest = new int[robots];
+		shield = new boolean[robots];
+		finished = new boolean[robots];
+		dead = new boolean[robots];
+		programs = new ExecutionContext[robots];
+		board = new long[WORDS * matches];
+		sensed = new long[WORDS * matches];
+		seeds = new long[matches];
+		ticks = new int[matches];
+		over = new boolean[matches];
+		for (int m = 0; m < matches; m++) {
+			setRobot(m, 1, 0, 0, SOUTH, 100, false);
+			setRobot(m, 2, LAST, LAST, NORTH, 100, false);
+		}
+	}
+
+	/**
+	 * Gives every match the same two programs, and starts each match as
+	 * World.start does, match m with the seed seed + m.
+	 */
+	void start(RobotProgramNode prog1, RobotProgramNode prog2, long seed) {
+		for (int m = 0; m < matches; m++) {
+			programs[2 * m] = new ExecutionContext(prog1, cursor);
+			programs[2 * m + 1] = new ExecutionContext(prog2, cursor);
+			setSeed(m, seed + m);
+			addFuel(m, true);
+			addFuel(m, true);
+		}
+	}
+
+	/**
+	 * Advances every match that isn't over by one tick.
+	 *
+	 * @return the number of matches not yet over
+	 */
+	int tick() {
+		int running = 0;
+		for (int m = 0; m < matches; m++) {
+			if (!over[m]) {
+				play(m);
+				if (!over[m]) {
+					running++;
+				}
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * Advances the matches from first up to (not including) last by a tick,
+	 * or by more where the robots are idle, but no match past its tick in
+	 * until.
+	 *
+	 * @return the number of those matches not yet over or at their limit
+	 */
+	private int tick(int first, int last, int[] until) {
+		int running = 0;
+		for (int m = first; m < last; m++) {
+			if (!over[m] && ticks[m] < until[m]) {
+				if (fastForward) {
+					fastForward(m, until[m] - ticks[m]);
+				}
+				if (ticks[m] < until[m]) {
+					play(m);
+				}
+				if (!over[m] && ticks[m] < until[m]) {
+					running++;
+				}
+			}
+		}
+		return running;
+	}
+
+	private void play(int m) {
+		choose(2 * m);
+		choose(2 * m + 1);
+		update(m);
+	}
+
+	/**
+	 * Plays every match until it is over or maxTicks more ticks have passed.
+	 * The matches don't affect each other, so this plays a chunk of them at a
+	 * time, small enough that their state stays in the processor's caches.
+	 *
+	 * @return the most ticks any match took
+	 */
+	long run(long maxTicks) {
+		int[] until = new int[matches];
+		for (int m = 0; m < matches; m++) {
+			until[m] = (int) Math.min(Integer.MAX_VALUE, ticks[m] + maxTicks);
+		}
+		long most = 0;
+		for (int first = 0; first < matches; first += CHUNK) {
+			int last = Math.min(matches, first + CHUNK);
+			int[] start = Arrays.copyOfRange(ticks, first, last);
+			while (tick(first, last, until) > 0) {
+			}
+			for (int m = first; m < last; m++) {
+				most = Math.max(most, ticks[m] - start[m - first]);
+			}
+		}
+		return most;
+	}
+
+	/**
+	 * Skips the ticks, up to limit of them, in which both robots of a match
+	 * will certainly do nothing but wait: each has either finished or is
+	 * repeating a loop of nothing but waits, whose condition will hold, and
+	 * neither runs out of fuel. Neither robot moves in such ticks, so all
+	 * that changes is their fuel, which falls steadily, and the barrels that
+	 * appear. They can be skipped in one go, except that the random numbers
+	 * that decide where barrels appear have to be drawn in turn.
+	 *
+	 * The skipping stops before the tick in which a robot runs out of fuel or
+	 * a loop's condition would fail, or, if a loop's condition looks at the
+	 * barrels, before the tick in which a barrel appears. That tick is then
+	 * played as usual.
+	 */
+	private void fastForward(int m, int limit) {
+		int r1 = 2 * m, r2 = r1 + 1;
+		int k = Math.min(limit, idleTicks(r1));
+		if (k > 0) {
+			k = Math.min(k, idleTicks(r2));
+		}
+		if (k <= 0) {
+			return;
+		}
+		if (seesBarrels(r1) || seesBarrels(r2)) {
+			for (int t = 0; t < k; t++) {
+				long seed = seeds[m];
+				if (nextDouble(m) < SPAWN_CHANCE) {
+					seeds[m] = seed;
+					k = t;
+				}
+			}
+			if (k == 0) {
+				return;
+			}
+		} else {
+			for (int t = 0; t < k; t++) {
+				addFuel(m, false);
+			}
+			System.arraycopy(board, WORDS * m, sensed, WORDS * m, WORDS);
+			closest[r1] = closest[r2] = UNKNOWN;
+		}
+		for (int r = r1; r <= r2; r++) {
+			int cost = waitCost(r);
+			fuel[r] -= k * cost;
+			if (finished[r]) {
+				targetFuel[r] = fuel[r] - cost;
+			} else {
+				targetFuel[r] = fuel[r];
+				// as if the waits had been run, the loop going round as it must
+				ExecutionContext.Frame frame = programs[r].currentFrame();
+				frame.pc = (frame.pc - 1 + k) % frame.body.length + 1;
+				actions += k;
+			}
+		}
+		ticks[m] += k;
+		skipped += k;
+	}
+
+	/**
+	 * @return the number of ticks from now in which the robot will certainly
+	 *         just wait (and stay alive) while it sees the same barrels, or 0
+	 *         if it might do anything else
+	 */
+	private int idleTicks(int r) {
+		if (!finished[r] && waitLoop(r) == null) {
+			return 0;
+		}
+		int cost = waitCost(r);
+		long alive = (fuel[r] - 1) / cost;
+		if (finished[r]) {
+			return (int) alive;
+		}
+		// the waits left in this time round, then whole times round the loop
+		ExecutionContext.Frame frame = programs[r].currentFrame();
+		int n = frame.body.length, before = n - frame.pc;
+		long rounds = passes(r, frame.loop.condnode, fuel[r] - before * cost, n * cost);
+		return (int) Math.min(alive, before + rounds * n);
+	}
+
+	/**
+	 * @return the loop the robot is in the middle of, if it is a loop of
+	 *         nothing but waits whose condition compares a sensor with a
+	 *         number, or else null
+	 */
+	private whileNode waitLoop(int r) {
+		if (programs[r] == null || action[r] != 0) {
+			return null;
+		}
+		ExecutionContext.Frame frame = programs[r].currentFrame();
+		if (frame == null || frame.loop == null || sensor(frame.loop.condnode) == null) {
+			return null;
+		}
+		for (RobotProgramNode n : frame.body) {
+			if (!(n instanceof waitNode)) {
+				return null;
+			}
+		}
+		return frame.loop;
+	}
+
+	/**
+	 * @return whether a robot that is waiting will notice a barrel appearing
+	 */
+	private boolean seesBarrels(int r) {
+		if (finished[r]) {
+			return false;
+		}
+		String sensor = sensor(waitLoop(r).condnode);
+		return sensor.equals("numBarrels") || sensor.equals("barrelLR") || sensor.equals("barrelFB");
+	}
+
+	/**
+	 * @return how many times in a row a loop's condition will hold, first
+	 *         with the robot's fuel at fuel and then less drop each time,
+	 *         while nothing else the robot senses changes
+	 */
+	private long passes(int r, RobotConditionNode cond, int fuel, int drop) {
+		if (!sensor(cond).equals("fuelLeft")) {
+			cursor.robot = r;
+			return cond.evaluate(programs[r]) ? Integer.MAX_VALUE : 0;
+		}
+		if (cond instanceof Parser.gtNode) {
+			int num = ((Parser.gtNode) cond).num;
+			return (fuel > num) ? ((long) fuel - num + drop - 1) / drop : 0;
+		} else if (cond instanceof Parser.ltNode) {
+			return (fuel < ((Parser.ltNode) cond).num) ? Integer.MAX_VALUE : 0;
+		}
+		return (fuel == ((Parser.eqNode) cond).num) ? 1 : 0;
+	}
+
+	/**
+	 * @return the sensor a comparison looks at, or null if the condition
+	 *         isn't a comparison
+	 */
+	private static String sensor(RobotConditionNode cond) {
+		if (cond instanceof Parser.gtNode) {
+			return ((Parser.gtNode) cond).sensor;
+		} else if (cond instanceof Parser.ltNode) {
+			return ((Parser.ltNode) cond).sensor;
+		} else if (cond instanceof Parser.eqNode) {
+			return ((Parser.eqNode) cond).sensor;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the fuel a robot uses in a tick in which it waits
+	 */
+	private int waitCost(int r) {
+		return Robot.FUEL_IDLE + (shield[r] ? Robot.FUEL_SHIELD : 0);
+	}
+
+	/**
+	 * Sets whether run skips stretches in which the robots can only wait. The
+	 * matches come out the same either way.
+	 */
+	void setFastForward(boolean on) {
+		fastForward = on;
+	}
+
+	/**
+	 * @return the number of ticks skipped by fast forwarding so far
+	 */
+	long getSkippedTicks() {
+		return skipped;
+	}
+
+	/**
+	 * Runs a robot's program until it chooses an action, finishes, or runs
+	 * out of statements for this tick (when it does nothing, as a robot that
+	 * is slow to choose does in a World).
+	 */
+	private void choose(int r) {
+		if (finished[r] || programs[r] == null) {
+			return;
+		}
+		ExecutionContext program = programs[r];
+		cursor.robot = r;
+		program.setStepLimit(statementsPerTick);
+		while (action[r] == 0 && program.step()) {
+		}
+		if (action[r] == 0 && program.isFinished()) {
+			finish(r);
+		}
+	}
+
+	/**
+	 * Carries out an action as the Robot methods do, when the robot chooses
+	 * it.
+	 */
+	void act(int r, int act) {
+		actions++;
+		action[r] = act;
+		switch (act) {
+		case Robot.ACTION_MOVE:
+			int tx = targetX[r], ty = targetY[r];
+			switch (dir[r]) {
+			case NORTH:
+				ty--;
+				break;
+			case WEST:
+				tx--;
+				break;
+			case SOUTH:
+				ty++;
+				break;
+			default:
+				tx++;
+			}
+			tx = Math.min(LAST, Math.max(0, tx));
+			ty = Math.min(LAST, Math.max(0, ty));
+			int o = r ^ 1;
+			if (targetX[o] == tx && targetY[o] == ty) {
+				// not allowed to move
+				tx = x[r];
+				ty = y[r];
+			}
+			targetX[r] = tx;
+			targetY[r] = ty;
+			break;
+		case Robot.ACTION_TURN_LEFT:
+			targetDir[r] = (dir[r] + 1) & 3;
+			break;
+		case Robot.ACTION_TURN_RIGHT:
+			targetDir[r] = (dir[r] + 3) & 3;
+			break;
+		case Robot.ACTION_TURN_AROUND:
+			targetDir[r] = (dir[r] + 2) & 3;
+			break;
+		}
+		processFuel(r);
+	}
+
+	/**
+	 * Works out the robot's fuel after its action, as Robot.processFuel does.
+	 */
+	private void processFuel(int r) {
+		int t = fuel[r];
+		switch (action[r]) {
+		case Robot.ACTION_MOVE:
+			t -= Robot.FUEL_MOVE;
+			break;
+		case Robot.ACTION_TURN_LEFT:
+		case Robot.ACTION_TURN_RIGHT:
+		case Robot.ACTION_TURN_AROUND:
+			t -= Robot.FUEL_TURN;
+			break;
+		case Robot.ACTION_TAKE_FUEL:
+			if (takeBarrel(r >> 1, x[r], y[r])) {
+				targetFuel[r] = 100;
+				return;
+			}
+			// try to siphon fuel
+			int o = r ^ 1;
+			if (!shield[o] && relativeX(r, x[o], y[o]) == 0 && relativeY(r, x[o], y[o]) == 1) {
+				int take = Math.min(25, targetFuel[o] / 2);
+				take = Math.min(targetFuel[o], take);
+				targetFuel[r] = Math.min(100, t + take);
+				targetFuel[o] -= take;
+				return;
+			}
+			t -= Robot.FUEL_IDLE;
+			break;
+		case Robot.ACTION_WAIT:
+			t -= Robot.FUEL_IDLE;
+			break;
+		}
+		if (shield[r]) {
+			t -= Robot.FUEL_SHIELD;
+		}
+		targetFuel[r] = t;
+	}
+
+	/**
+	 * Carries out the chosen actions, as World.updateWorld does.
+	 */
+	void update(int m) {
+		ticks[m]++;
+		addFuel(m, false);
+		for (int r = 2 * m; r < 2 * m + 2; r++) {
+			commit(r);
+			if (finished[r]) {
+				action[r] = Robot.ACTION_WAIT;
+				processFuel(r);
+			}
+			action[r] = 0;
+			// the second robot sees where the first now is, but not the reverse
+			int o = r ^ 1;
+			oppLR[r] = relativeX(r, x[o], y[o]);
+			oppFB[r] = relativeY(r, x[o], y[o]);
+			closest[r] = UNKNOWN;
+		}
+		System.arraycopy(board, WORDS * m, sensed, WORDS * m, WORDS);
+		over[m] = dead[2 * m] || dead[2 * m + 1];
+	}
+
+	/**
+	 * A robot's program has finished: from now on it waits, and its fuel
+	 * is worked out at each update, as Robot.setFinished arranges.
+	 */
+	private void finish(int r) {
+		finished[r] = true;
+		commit(r);
+		action[r] = Robot.ACTION_WAIT;
+		processFuel(r);
+		action[r] = 0;
+	}
+
+	private void commit(int r) {
+		x[r] = targetX[r];
+		y[r] = targetY[r];
+		dir[r] = targetDir[r];
+		fuel[r] = targetFuel[r];
+		if (fuel[r] <= 0) {
+			dead[r] = true;
+		}
+	}
+
+	/**
+	 * Adds a barrel at random, as World.addFuel does.
+	 */
+	private void addFuel(int m, boolean definitely) {
+		if (definitely || nextDouble(m) < SPAWN_CHANCE) {
+			int bx = nextInt(m, World.SIZE);
+			int by = nextInt(m, World.SIZE);
+			addBarrel(m, bx, by);
+		}
+	}
+
+	void addBarrel(int m, int bx, int by) {
+		int cell = by * World.SIZE + bx;
+		board[WORDS * m + (cell >>> 6)] |= 1L << cell;
+	}
+
+	private boolean takeBarrel(int m, int bx, int by) {
+		int cell = by * World.SIZE + bx;
+		int word = WORDS * m + (cell >>> 6);
+		long bit = 1L << cell;
+		if ((board[word] & bit) == 0) {
+			return false;
+		}
+		board[word] &= ~bit;
+		return true;
+	}
+
+	/**
+	 * @return the cell of the closest barrel the robot can see, or -1
+	 */
+	private int closestBarrel(int r) {
+		if (closest[r] != UNKNOWN) {
+			return closest[r];
+		}
+		int best = -1, bestDistance = Integer.MAX_VALUE;
+		int base = WORDS * (r >> 1);
+		for (int w = 0; w < WORDS; w++) {
+			long bits = sensed[base + w];
+			while (bits != 0) {
+				int cell = w * 64 + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+				int d = Math.abs(cell % World.SIZE - x[r]) + Math.abs(cell / World.SIZE - y[r]);
+				if (d < bestDistance) {
+					best = cell;
+					bestDistance = d;
+				}
+			}
+		}
+		closest[r] = best;
+		return best;
+	}
+
+	/**
+	 * @return the left-right position of (px, py) relative to the robot, as
+	 *         Robot.relativeLR works it out
+	 */
+	private int relativeX(int r, int px, int py) {
+		switch (dir[r]) {
+		case NORTH:
+			return px - x[r];
+		case SOUTH:
+			return x[r] - px;
+		case WEST:
+			return y[r] - py;
+		default:
+			return py - y[r];
+		}
+	}
+
+	/**
+	 * @return the front-back position of (px, py) relative to the robot
+	 */
+	private int relativeY(int r, int px, int py) {
+		switch (dir[r]) {
+		case NORTH:
+			return y[r] - py;
+		case SOUTH:
+			return py - y[r];
+		case WEST:
+			return x[r] - px;
+		default:
+			return px - x[r];
+		}
+	}
+
+	// java.util.Random's generator, one per match
+
+	private void setSeed(int m, long seed) {
+		seeds[m] = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	private int next(int m, int bits) {
+		long seed = (seeds[m] * MULTIPLIER + ADDEND) & MASK;
+		seeds[m] = seed;
+		return (int) (seed >>> (48 - bits));
+	}
+
+	private double nextDouble(int m) {
+		return (((long) next(m, 26) << 27) + next(m, 27)) * 0x1.0p-53;
+	}
+
+	private int nextInt(int m, int bound) {
+		int r = next(m, 31);
+		for (int u = r; u - (r = u % bound) + bound - 1 < 0; u = next(m, 31)) {
+		}
+		return r;
+	}
+
+	/**
+	 * Puts robot i of match m in the given state, with no action chosen.
+	 */
+	void setRobot(int m, int i, int rx, int ry, int rdir, int rfuel, boolean rshield) {
+		int r = 2 * m + i - 1;
+		x[r] = targetX[r] = rx;
+		y[r] = targetY[r] = ry;
+		dir[r] = targetDir[r] = rdir;
+		fuel[r] = targetFuel[r] = rfuel;
+		shield[r] = rshield;
+		oppLR[r] = oppFB[r] = Robot.INFINITY;
+		closest[r] = UNKNOWN;
+		dead[r] = rfuel <= 0;
+	}
+
+	int getX(int m, int i) {
+		return x[2 * m + i - 1];
+	}
+
+	int getY(int m, int i) {
+		return y[2 * m + i - 1];
+	}
+
+	int getDir(int m, int i) {
+		return dir[2 * m + i - 1];
+	}
+
+	int getFuel(int m, int i) {
+		return fuel[2 * m + i - 1];
+	}
+
+	boolean isDead(int m, int i) {
+		return dead[2 * m + i - 1];
+	}
+
+	boolean hasBarrel(int m, int bx, int by) {
+		int cell = by * World.SIZE + bx;
+		return (board[WORDS * m + (cell >>> 6)] & (1L << cell)) != 0;
+	}
+
+	int getTicks(int m) {
+		return ticks[m];
+	}
+
+	/**
+	 * @return the robot that didn't run out of fuel, or the one with more
+	 *         fuel, or 0 for a draw
+	 */
+	int getWinner(int m) {
+		boolean dead1 = dead[2 * m], dead2 = dead[2 * m + 1];
+		if (dead1 != dead2) {
+			return dead1 ? 2 : 1;
+		}
+		int fuel1 = fuel[2 * m], fuel2 = fuel[2 * m + 1];
+		return (fuel1 > fuel2) ? 1 : (fuel2 > fuel1) ? 2 : 0;
+	}
+
+	/**
+	 * Sets the most statements a program may run in a tick without acting.
+	 * As nothing a program senses changes within a tick, a program that
+	 * hasn't acted after running each of its statements a few times never
+	 * will, so small programs can be given far fewer than the default.
+	 */
+	void setStatementsPerTick(int statements) {
+		statementsPerTick = statements;
+	}
+
+	/**
+	 * @return the number of actions carried out so far
+	 */
+	long getActions() {
+		return actions;
+	}
+
+	/**
+	 * The robot whose program is running, as the program sees it.
+	 */
+	private class Cursor implements RobotControl {
+		int robot;
+
+		@Override
+		public void move() {
+			act(robot, Robot.ACTION_MOVE);
+		}
+
+		@Override
+		public void turnLeft() {
+			act(robot, Robot.ACTION_TURN_LEFT);
+		}
+
+		@Override
+		public void turnRight() {
+			act(robot, Robot.ACTION_TURN_RIGHT);
+		}
+
+		@Override
+		public void turnAround() {
+			act(robot, Robot.ACTION_TURN_AROUND);
+		}
+
+		@Override
+		public void takeFuel() {
+			act(robot, Robot.ACTION_TAKE_FUEL);
+		}
+
+		@Override
+		public void idleWait() {
+			act(robot, Robot.ACTION_WAIT);
+		}
+
+		@Override
+		public void setShield(boolean on) {
+			shield[robot] = on;
+		}
+
+		@Override
+		public int getFuel() {
+			return fuel[robot];
+		}
+
+		@Override
+		public int getOpponentLR() {
+			return oppLR[robot];
+		}
+
+		@Override
+		public int getOpponentFB() {
+			return oppFB[robot];
+		}
+
+		@Override
+		public int numBarrels() {
+			int base = WORDS * (robot >> 1);
+			return Long.bitCount(sensed[base]) + Long.bitCount(sensed[base + 1]) + Long.bitCount(sensed[base + 2]);
+		}
+
+		@Override
+		public int getClosestBarrelLR() {
+			int cell = closestBarrel(robot);
+			return (cell < 0) ? Robot.INFINITY : relativeX(robot, cell % World.SIZE, cell / World.SIZE);
+		}
+
+		@Override
+		public int getClosestBarrelFB() {
+			int cell = closestBarrel(robot);
+			return (cell < 0) ? Robot.INFINITY : relativeY(robot, cell % World.SIZE, cell / World.SIZE);
+		}
+
+		@Override
+		public int getDistanceToWall() {
+			switch (dir[robot]) {
+			case NORTH:
+				return y[robot];
+			case SOUTH:
+				return LAST - y[robot];
+			case WEST:
+				return x[robot];
+			default:
+				return LAST - x[robot];
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int matches = 10000, threads = Runtime.getRuntime().availableProcessors();
+		long maxTicks = 1000, seed = 1, parity = 0;
+		boolean fastForward = true, check = false;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-matches":
+				matches = Integer.parseInt(args[i + 1]);
+				break;
+			case "-ticks":
+				maxTicks = Long.parseLong(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-parity":
+				parity = Long.parseLong(args[i + 1]);
+				break;
+			case "-fastForward":
+				fastForward = Boolean.parseBoolean(args[i + 1]);
+				break;
+			case "-check":
+				check = Boolean.parseBoolean(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (parity > 0) {
+			long failures = checkParity(parity, seed);
+			System.out.println(parity + " positions, " + failures + " differences from Robot");
+			System.exit(failures == 0 ? 0 : 1);
+		}
+		if (i + 2 != args.length) {
+			System.err.println("Usage: BatchSimulator [-matches N] [-ticks T] [-threads P] [-seed S] "
+					+ "[-fastForward true|false] [-check true] prog1 prog2");
+			System.err.println("       BatchSimulator -parity N [-seed S]");
+			System.exit(2);
+		}
+		RobotProgramNode prog1 = Parser.loadFile(new File(args[i]));
+		RobotProgramNode prog2 = Parser.loadFile(new File(args[i + 1]));
+		if (prog1 == null || prog2 == null) {
+			System.exit(1);
+		}
+		if (check) {
+			long failures = checkFastForward(prog1, prog2, matches, maxTicks, seed);
+			System.out.println(matches + " matches, " + failures + " differ when fast forwarded");
+			System.exit(failures == 0 ? 0 : 1);
+		}
+
+		// each thread plays its share of the matches in its own simulator
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		BatchSimulator[] sims = new BatchSimulator[threads];
+		Future<?>[] done = new Future<?>[threads];
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int share = matches / threads + ((t < matches % threads) ? 1 : 0);
+			BatchSimulator sim = new BatchSimulator(share);
+			sim.setFastForward(fastForward);
+			sim.start(prog1, prog2, seed + (long) t * (matches / threads + 1));
+			sims[t] = sim;
+			final long ticks = maxTicks;
+			done[t] = pool.submit(() -> sim.run(ticks));
+		}
+		long actions = 0, ticks = 0, skipped = 0;
+		int[] wins = new int[3];
+		for (int t = 0; t < threads; t++) {
+			done[t].get();
+			actions += sims[t].getActions();
+			skipped += sims[t].getSkippedTicks();
+			for (int m = 0; m < sims[t].matches; m++) {
+				ticks += sims[t].getTicks(m);
+				wins[sims[t].getWinner(m)]++;
+			}
+		}
+		pool.shutdown();
+		pool.awaitTermination(1, TimeUnit.SECONDS);
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d matches on %d threads in %.2fs: %d ticks, %d actions, %.0f actions/s (%.0f per thread)%n",
+				matches, threads, secs, ticks, actions, actions / secs, actions / secs / threads);
+		System.out.printf("robot 1 won %d, robot 2 won %d, %d draws%n", wins[1], wins[2], wins[0]);
+		System.out.printf("%d ticks (%.1f%%) fast forwarded%n", skipped, 100.0 * skipped / Math.max(1, ticks));
+	}
+
+	/**
+	 * Plays the same matches with and without fast forwarding, one match at a
+	 * time, and compares the two after every skip and every tick played, so
+	 * that every state the fast forwarded match passes through is checked.
+	 *
+	 * @return the number of matches that differed at some point
+	 */
+	static long checkFastForward(RobotProgramNode prog1, RobotProgramNode prog2, int matches, long maxTicks,
+			long seed) {
+		BatchSimulator fast = new BatchSimulator(matches), slow = new BatchSimulator(matches);
+		fast.start(prog1, prog2, seed);
+		slow.start(prog1, prog2, seed);
+		int limit = (int) Math.min(Integer.MAX_VALUE, maxTicks);
+		long failures = 0;
+		for (int m = 0; m < matches; m++) {
+			String difference = null;
+			while (difference == null && !fast.over[m] && fast.ticks[m] < limit) {
+				fast.fastForward(m, limit - fast.ticks[m]);
+				while (!slow.over[m] && slow.ticks[m] < fast.ticks[m]) {
+					slow.play(m);
+				}
+				difference = difference(fast, slow, m);
+				if (difference == null && !fast.over[m] && fast.ticks[m] < limit) {
+					fast.play(m);
+					slow.play(m);
+					difference = difference(fast, slow, m);
+				}
+			}
+			if (difference != null) {
+				failures++;
+				if (failures <= 10) {
+					System.out.println("match " + m + " at tick " + slow.ticks[m] + ": " + difference);
+				}
+			}
+		}
+		long ticks = 0;
+		for (int m = 0; m < matches; m++) {
+			ticks += fast.ticks[m];
+		}
+		System.out.printf("%d of %d ticks fast forwarded%n", fast.getSkippedTicks(), ticks);
+		return failures;
+	}
+
+	/**
+	 * @return how match m differs between two simulators, or null if it
+	 *         doesn't
+	 */
+	private static String difference(BatchSimulator a, BatchSimulator b, int m) {
+		if (a.getTicks(m) != b.getTicks(m)) {
+			return "ticks " + a.getTicks(m) + " and " + b.getTicks(m);
+		}
+		for (int i = 1; i <= 2; i++) {
+			int r = 2 * m + i - 1;
+			if (a.x[r] != b.x[r] || a.y[r] != b.y[r] || a.dir[r] != b.dir[r] || a.fuel[r] != b.fuel[r]
+					|| a.targetFuel[r] != b.targetFuel[r] || a.shield[r] != b.shield[r] || a.dead[r] != b.dead[r]) {
+				return "robot " + i + " has fuel " + a.fuel[r] + " at (" + a.x[r] + ", " + a.y[r] + ") and fuel "
+						+ b.fuel[r] + " at (" + b.x[r] + ", " + b.y[r] + ")";
+			}
+			ExecutionContext.Frame fa = a.programs[r].currentFrame(), fb = b.programs[r].currentFrame();
+			if ((fa == null) != (fb == null) || (fa != null && (fa.body != fb.body || fa.pc != fb.pc))) {
+				return "robot " + i + "'s program is at a different statement";
+			}
+		}
+		for (int w = WORDS * m; w < WORDS * m + WORDS; w++) {
+			if (a.board[w] != b.board[w] || a.sensed[w] != b.sensed[w]) {
+				return "the barrels differ";
+			}
+		}
+		if (a.seeds[m] != b.seeds[m]) {
+			return "the random numbers differ";
+		}
+		return null;
+	}
+
+	/**
+	 * Puts a World's robots and a simulator's in the same random positions,
+	 * has each pair carry out the same actions, and compares the outcomes.
+	 * Robot 1 chooses first in the World too, as the simulator assumes.
+	 *
+	 * @return the number of positions where the outcomes differ
+	 */
+	static long checkParity(long count, long seed) throws InterruptedException {
+		Random rand = new Random(seed);
+		long failures = 0;
+		for (long n = 0; n < count; n++) {
+			BatchSimulator sim = new BatchSimulator(1);
+			World world = new World();
+			world.setSeed(seed + n);
+			sim.setSeed(0, seed + n);
+
+			int[][] states = new int[3][];
+			for (int i = 1; i <= 2; i++) {
+				int[] s = states[i] = new int[MatchLog.UPDATE_SIZE];
+				s[MatchLog.X] = rand.nextInt(World.SIZE);
+				s[MatchLog.Y] = rand.nextInt(World.SIZE);
+				s[MatchLog.DIR] = rand.nextInt(4);
+				s[MatchLog.FUEL] = 1 + rand.nextInt(100);
+				s[MatchLog.SHIELD] = (rand.nextInt(4) == 0) ? 1 : 0;
+			}
+			if (rand.nextBoolean()) {
+				// face to face, or one behind the other, to try siphoning
+				int[] front = relativeCell(states[1], 0, 1);
+				states[2][MatchLog.X] = front[0];
+				states[2][MatchLog.Y] = front[1];
+			} else if (states[1][MatchLog.X] == states[2][MatchLog.X]
+					&& states[1][MatchLog.Y] == states[2][MatchLog.Y]) {
+				states[2][MatchLog.X] = (states[2][MatchLog.X] + 1) % World.SIZE;
+			}
+			for (int i = 1; i <= 2; i++) {
+				int[] s = states[i];
+				s[MatchLog.TARGET_X] = s[MatchLog.X];
+				s[MatchLog.TARGET_Y] = s[MatchLog.Y];
+				s[MatchLog.TARGET_DIR] = s[MatchLog.DIR];
+				s[MatchLog.TARGET_FUEL] = s[MatchLog.FUEL];
+				world.getRobot(i).setUpdate(s);
+				world.getRobot(i).setTrace(QUIET);
+				sim.setRobot(0, i, s[MatchLog.X], s[MatchLog.Y], s[MatchLog.DIR], s[MatchLog.FUEL],
+						s[MatchLog.SHIELD] != 0);
+			}
+			int barrels = rand.nextInt(4);
+			for (int b = 0; b < barrels; b++) {
+				// often under a robot, to try taking it
+				int[] s = states[1 + rand.nextInt(2)];
+				int bx = rand.nextBoolean() ? s[MatchLog.X] : rand.nextInt(World.SIZE);
+				int by = rand.nextBoolean() ? s[MatchLog.Y] : rand.nextInt(World.SIZE);
+				world.getAvailableFuel().add(new Cell(bx, by));
+				sim.addBarrel(0, bx, by);
+			}
+
+			int[] acts = { 0, 1 + rand.nextInt(6), 1 + rand.nextInt(6) };
+			Thread[] threads = new Thread[3];
+			for (int i = 1; i <= 2; i++) {
+				Robot robot = world.getRobot(i);
+				int act = acts[i];
+				threads[i] = new Thread(() -> perform(robot, act));
+				threads[i].start();
+				// wait for it to block until the update, so robot 1 chooses first
+				while (threads[i].getState() != Thread.State.WAITING) {
+					Thread.onSpinWait();
+				}
+				sim.act(i - 1, act);
+			}
+			world.updateWorld();
+			sim.update(0);
+			for (int i = 1; i <= 2; i++) {
+				threads[i].join();
+			}
+
+			String difference = null;
+			for (int i = 1; i <= 2 && difference == null; i++) {
+				int[] u = world.getRobot(i).getUpdate();
+				if (u[MatchLog.X] != sim.getX(0, i) || u[MatchLog.Y] != sim.getY(0, i)
+						|| u[MatchLog.DIR] != sim.getDir(0, i) || u[MatchLog.FUEL] != sim.getFuel(0, i)
+						|| world.getRobot(i).isDead() != sim.isDead(0, i)) {
+					difference = "robot " + i + ": Robot has x=" + u[MatchLog.X] + " y=" + u[MatchLog.Y] + " dir="
+							+ u[MatchLog.DIR] + " fuel=" + u[MatchLog.FUEL] + ", simulator has x=" + sim.getX(0, i)
+							+ " y=" + sim.getY(0, i) + " dir=" + sim.getDir(0, i) + " fuel=" + sim.getFuel(0, i);
+				}
+			}
+			Set<Cell> simBarrels = new HashSet<Cell>();
+			for (int by = 0; by < World.SIZE; by++) {
+				for (int bx = 0; bx < World.SIZE; bx++) {
+					if (sim.hasBarrel(0, bx, by)) {
+						simBarrels.add(new Cell(bx, by));
+					}
+				}
+			}
+			if (difference == null && !simBarrels.equals(new HashSet<Cell>(world.getAvailableFuel()))) {
+				difference = "barrels: Robot has " + world.getAvailableFuel() + ", simulator has " + simBarrels;
+			}
+			if (difference != null) {
+				failures++;
+				if (failures <= 10) {
+					System.out.println("position " + n + ", actions " + WorldMetrics.ACTION_NAMES[acts[1]] + " and "
+							+ WorldMetrics.ACTION_NAMES[acts[2]] + ": " + difference);
+				}
+			}
+			world.reset();
+		}
+		return failures;
+	}
+
+	/**
+	 * @return the cell at (lr, fb) relative to a robot's state, kept on the
+	 *         board
+	 */
+	private static int[] relativeCell(int[] s, int lr, int fb) {
+		int cx = s[MatchLog.X], cy = s[MatchLog.Y];
+		switch (s[MatchLog.DIR]) {
+		case NORTH:
+			cx += lr;
+			cy -= fb;
+			break;
+		case SOUTH:
+			cx -= lr;
+			cy += fb;
+			break;
+		case WEST:
+			cx -= fb;
+			cy -= lr;
+			break;
+		default:
+			cx += fb;
+			cy += lr;
+		}
+		if (cx < 0 || cx > LAST || cy < 0 || cy > LAST) {
+			// off the board: put it behind instead
+			return relativeCell(s, -lr, -fb);
+		}
+		return new int[] { cx, cy };
+	}
+
+	private static void perform(Robot robot, int act) {
+		switch (act) {
+		case Robot.ACTION_MOVE:
+			robot.move();
+			break;
+		case Robot.ACTION_TURN_LEFT:
+			robot.turnLeft();
+			break;
+		case Robot.ACTION_TURN_RIGHT:
+			robot.turnRight();
+			break;
+		case Robot.ACTION_TURN_AROUND:
+			robot.turnAround();
+			break;
+		case Robot.ACTION_TAKE_FUEL:
+			robot.takeFuel();
+			break;
+		default:
+			robot.idleWait();
+		}
+	}
+}
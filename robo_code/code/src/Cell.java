@@ -0,0 +1,59 @@
+/**
+ * A cell of the world, or a position relative to a robot. This is what the
+ * simulation uses in place of java.awt.Point, so that it needs nothing outside
+ * java.base.
+ *
+ * Cells hash as Points do, so that sets of them iterate in the same order as
+ * sets of Points did: which barrel a robot sees as closest, of two as close,
+ * depends on that order.
+ */
+final class Cell {
+	final int x, y;
+
+	/** The cells of the board, at SIZE * y + x. */
+	private static final Cell[] BOARD = new Cell[World.SIZE * World.SIZE];
+
+	static {
+		for (int i = 0; i < BOARD.length; i++) {
+			BOARD[i] = new Cell(i % World.SIZE, i / World.SIZE);
+		}
+	}
+
+	Cell(int x, int y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	 * @return the cell (x, y): a shared one if it is on the board, to look a
+	 *         barrel up without making a new cell each time, or else a new one
+	 */
+	static Cell at(int x, int y) {
+		if (x >= 0 && x < World.SIZE && y >= 0 && y < World.SIZE) {
+			return BOARD[World.SIZE * y + x];
+		}
+		return new Cell(x, y);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Cell)) {
+			return false;
+		}
+		Cell c = (Cell) o;
+		return x == c.x && y == c.y;
+	}
+
+	@Override
+	public int hashCode() {
+		// Point2D.hashCode
+		long bits = Double.doubleToLongBits(x);
+		bits ^= Double.doubleToLongBits(y) * 31;
+		return (((int) bits) ^ ((int) (bits >> 32)));
+	}
+
+	@Override
+	public String toString() {
+		return "(" + x + ", " + y + ")";
+	}
+}
@@ -0,0 +1,357 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes compiled robot programs, so a program can be loaded
+ * without tokenizing its source. All numbers are big-endian. The layout is:
+ *
+ * <pre>
+ * header:   magic "RBPG", u16 version, u16 flags (0),
+ *           u32 constant count, u32 node count, u32 root node index
+ * constants: for each, u16 byte length then UTF-8 bytes (sensor names)
+ * nodes:    for each, u8 tag then its operands:
+ *           actions                no operands
+ *           GT, LT, EQ             u32 sensor constant, s32 number
+ *           BLOCK, PROGRAM         u32 count, count x u32 node
+ *           WHILE                  u32 condition, u32 block
+ *           IF                     u32 condition, u32 block, u32 else block or NONE
+ *           LOOP                   u32 block
+ * </pre>
+ *
+ * Nodes are written children first, so every node index refers to an
+ * earlier node, and a shared (frozen) subtree is only written once.
+ */
+class CompiledProgram {
+
+	static final String EXTENSION = ".robc";
+	static final int MAGIC = 0x52425047; // "RBPG"
+	static final int VERSION = 1;
+	static final int NONE = -1;
+
+	private static final int HEADER_SIZE = 20;
+
+	static final byte TURN_L = 1, TURN_R = 2, MOVE = 3, TAKE_FUEL = 4, WAIT = 5, SHIELD_ON = 6, SHIELD_OFF = 7,
+			TURN_AROUND = 8, GT = 16, LT = 17, EQ = 18, BLOCK = 32, PROGRAM = 33, WHILE = 34, IF = 35, LOOP = 36;
+
+	/**
+	 * @return whether the file starts with the compiled program magic number
+	 */
+	static boolean isCompiled(File file) {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return in.length() >= HEADER_SIZE && in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Writing
+	// -------
+
+	/**
+	 * Writes a (preferably frozen) program to a file in the compiled format.
+	 */
+	static void write(RobotProgramNode prog, File file) throws IOException {
+		Map<Object, Integer> index = new IdentityHashMap<Object, Integer>();
+		List<Object> order = new ArrayList<Object>();
+		List<String> constants = new ArrayList<String>();
+		Map<String, Integer> constantIndex = new HashMap<String, Integer>();
+
+		// number the nodes children first, with an explicit stack so any depth
+		// of program can be written
+		ArrayDeque<RobotProgramNode> stack = new ArrayDeque<RobotProgramNode>();
+		stack.push(prog);
+		while (!stack.isEmpty()) {
+			RobotProgramNode node = stack.peek();
+			if (index.containsKey(node)) {
+				stack.pop();
+				continue;
+			}
+			boolean ready = true;
+			for (RobotProgramNode child : ProgramFreezer.children(node)) {
+				if (!index.containsKey(child)) {
+					stack.push(child);
+					ready = false;
+				}
+			}
+			if (!ready) {
+				continue;
+			}
+			stack.pop();
+			RobotConditionNode cond = condition(node);
+			if (cond != null && !index.containsKey(cond)) {
+				String sensor = sensor(cond);
+				if (!constantIndex.containsKey(sensor)) {
+					constantIndex.put(sensor, constants.size());
+					constants.add(sensor);
+				}
+				index.put(cond, order.size());
+				order.add(cond);
+			}
+			index.put(node, order.size());
+			order.add(node);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(0);
+			out.writeInt(constants.size());
+			out.writeInt(order.size());
+			out.writeInt(index.get(prog));
+			for (String constant : constants) {
+				byte[] bytes = constant.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+			for (Object node : order) {
+				writeNode(node, out, index, constantIndex);
+			}
+		}
+	}
+
+	private static void writeNode(Object node, DataOutputStream out, Map<Object, Integer> index,
+			Map<String, Integer> constantIndex) throws IOException {
+		if (node instanceof RobotConditionNode) {
+			RobotConditionNode cond = (RobotConditionNode) node;
+			out.writeByte(cond instanceof Parser.gtNode ? GT : cond instanceof Parser.ltNode ? LT : EQ);
+			out.writeInt(constantIndex.get(sensor(cond)));
+			out.writeInt(number(cond));
+		} else if (node instanceof BlockNode || node instanceof ProgramNode) {
+			RobotProgramNode[] nodes = (node instanceof BlockNode) ? ((BlockNode) node).nodes : ((ProgramNode) node).nodes;
+			out.writeByte(node instanceof BlockNode ? BLOCK : PROGRAM);
+			out.writeInt(nodes.length);
+			for (RobotProgramNode n : nodes) {
+				out.writeInt(index.get(n));
+			}
+		} else if (node instanceof whileNode) {
+			whileNode n = (whileNode) node;
+			out.writeByte(WHILE);
+			out.writeInt(index.get(n.condnode));
+			out.writeInt(index.get(n.blocknode));
+		} else if (node instanceof ifNode) {
+			ifNode n = (ifNode) node;
+			out.writeByte(IF);
+			out.writeInt(index.get(n.condnode));
+			out.writeInt(index.get(n.ifblock));
+			out.writeInt(n.elseblock == null ? NONE : index.get(n.elseblock));
+		} else if (node instanceof LoopNode) {
+			out.writeByte(LOOP);
+			out.writeInt(index.get(((LoopNode) node).block));
+		} else {
+			out.writeByte(actionTag((RobotProgramNode) node));
+		}
+	}
+
+	private static byte actionTag(RobotProgramNode node) throws IOException {
+		if (node instanceof TurnLNode)
+			return TURN_L;
+		if (node instanceof TurnRNode)
+			return TURN_R;
+		if (node instanceof moveNode)
+			return MOVE;
+		if (node instanceof takeFuelNode)
+			return TAKE_FUEL;
+		if (node instanceof waitNode)
+			return WAIT;
+		if (node instanceof shieldOnNode)
+			return SHIELD_ON;
+		if (node instanceof shieldOffNode)
+			return SHIELD_OFF;
+		if (node instanceof turnAroundNode)
+			return TURN_AROUND;
+		throw new IOException("Can't compile node " + node);
+	}
+
+	private static RobotConditionNode condition(RobotProgramNode node) {
+		if (node instanceof whileNode)
+			return ((whileNode) node).condnode;
+		if (node instanceof ifNode)
+			return ((ifNode) node).condnode;
+		return null;
+	}
+
+	private static String sensor(RobotConditionNode cond) {
+		if (cond instanceof Parser.gtNode)
+			return ((Parser.gtNode) cond).sensor;
+		if (cond instanceof Parser.ltNode)
+			return ((Parser.ltNode) cond).sensor;
+		return ((Parser.eqNode) cond).sensor;
+	}
+
+	private static int number(RobotConditionNode cond) {
+		if (cond instanceof Parser.gtNode)
+			return ((Parser.gtNode) cond).num;
+		if (cond instanceof Parser.ltNode)
+			return ((Parser.ltNode) cond).num;
+		return ((Parser.eqNode) cond).num;
+	}
+
+	// Loading
+	// -------
+
+	/**
+	 * Memory-maps a compiled program and builds its executable form.
+	 * Reports the problem and returns null if the file can't be loaded, as
+	 * Parser.parseFile does.
+	 */
+	static RobotProgramNode load(File file) {
+		try (FileChannel channel = FileChannel.open(file.toPath())) {
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return read(buf);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Can't load compiled program '" + file + "': " + e.getMessage());
+		}
+		return null;
+	}
+
+	static RobotProgramNode read(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+			throw new IOException("not a compiled robot program");
+		}
+		int version = buf.getShort();
+		if (version != VERSION) {
+			throw new IOException("unsupported version " + version);
+		}
+		buf.getShort(); // flags
+		String[] constants = new String[buf.getInt()];
+		Object[] nodes = new Object[buf.getInt()];
+		int root = buf.getInt();
+
+		for (int i = 0; i < constants.length; i++) {
+			byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+			buf.get(bytes);
+			constants[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+		}
+
+		for (int i = 0; i < nodes.length; i++) {
+			byte tag = buf.get();
+			switch (tag) {
+			case GT:
+				nodes[i] = new Parser.gtNode(constants[buf.getInt()], buf.getInt());
+				break;
+			case LT:
+				nodes[i] = new Parser.ltNode(constants[buf.getInt()], buf.getInt());
+				break;
+			case EQ:
+				nodes[i] = new Parser.eqNode(constants[buf.getInt()], buf.getInt());
+				break;
+			case BLOCK:
+			case PROGRAM:
+				RobotProgramNode[] body = new RobotProgramNode[buf.getInt()];
+				for (int j = 0; j < body.length; j++) {
+					body[j] = (RobotProgramNode) ref(nodes, buf.getInt(), i);
+				}
+				nodes[i] = (tag == BLOCK) ? new BlockNode(body) : new ProgramNode(body);
+				break;
+			case WHILE:
+				RobotConditionNode wcond = (RobotConditionNode) ref(nodes, buf.getInt(), i);
+				nodes[i] = new whileNode((BlockNode) ref(nodes, buf.getInt(), i), wcond);
+				break;
+			case IF:
+				RobotConditionNode icond = (RobotConditionNode) ref(nodes, buf.getInt(), i);
+				BlockNode ifblock = (BlockNode) ref(nodes, buf.getInt(), i);
+				int elseIndex = buf.getInt();
+				BlockNode elseblock = (elseIndex == NONE) ? null : (BlockNode) ref(nodes, elseIndex, i);
+				nodes[i] = new ifNode(ifblock, icond, elseblock);
+				break;
+			case LOOP:
+				nodes[i] = new LoopNode((BlockNode) ref(nodes, buf.getInt(), i));
+				break;
+			default:
+				nodes[i] = ProgramFreezer.shared(action(tag));
+			}
+		}
+		return (RobotProgramNode) ref(nodes, root, nodes.length);
+	}
+
+	/**
+	 * @return node n, which must have been read before node i
+	 */
+	private static Object ref(Object[] nodes, int n, int i) throws IOException {
+		if (n < 0 || n >= i) {
+			throw new IOException("bad node reference " + n + " in node " + i);
+		}
+		return nodes[n];
+	}
+
+	private static RobotProgramNode action(byte tag) throws IOException {
+		switch (tag) {
+		case TURN_L:
+			return new TurnLNode();
+		case TURN_R:
+			return new TurnRNode();
+		case MOVE:
+			return new moveNode();
+		case TAKE_FUEL:
+			return new takeFuelNode();
+		case WAIT:
+			return new waitNode();
+		case SHIELD_ON:
+			return new shieldOnNode();
+		case SHIELD_OFF:
+			return new shieldOffNode();
+		case TURN_AROUND:
+			return new turnAroundNode();
+		}
+		throw new IOException("unknown node tag " + tag);
+	}
+
+	/**
+	 * Compiles each .prog file given into a .robc file alongside it. With
+	 * -bench, also compares the time to load each compiled program with the
+	 * time to parse its source.
+	 *
+	 * Usage: CompiledProgram [-bench] file.prog...
+	 */
+	public static void main(String[] args) throws IOException {
+		boolean bench = false;
+		for (String arg : args) {
+			if (arg.equals("-bench")) {
+				bench = true;
+				continue;
+			}
+			File source = new File(arg);
+			RobotProgramNode prog = Parser.parseFile(source);
+			if (prog == null) {
+				continue;
+			}
+			String name = source.getPath().replaceFirst("\\.prog$", "") + EXTENSION;
+			File compiled = new File(name);
+			write(prog, compiled);
+			System.out.println("Compiled '" + source + "' to '" + compiled + "' (" + compiled.length() + " bytes)");
+
+			if (bench) {
+				int reps = 20000;
+				long parse = 0, load = 0;
+				for (int round = 0; round < 2; round++) { // first round is warm up
+					long start = System.nanoTime();
+					for (int i = 0; i < reps; i++) {
+						Parser.parseFile(source);
+					}
+					long mid = System.nanoTime();
+					for (int i = 0; i < reps; i++) {
+						load(compiled);
+					}
+					parse = mid - start;
+					load = System.nanoTime() - mid;
+				}
+				System.out.printf("  parse %.1fus, load %.1fus (%.1fx)%n", parse / 1000.0 / reps, load / 1000.0 / reps,
+						(double) parse / load);
+			}
+		}
+	}
+}
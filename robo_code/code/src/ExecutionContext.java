@@ -0,0 +1,202 @@
+import java.util.ArrayDeque;
+
+/**
+ * The state of one run of a program by one robot: the robot being driven, and
+ * a frame (with its program counter) for each block currently executing.
+ *
+ * The program nodes themselves hold no execution state, so a single parsed
+ * program can be run by any number of contexts at the same time. Nested
+ * blocks are executed by pushing frames onto an explicit stack rather than by
+ * recursion, so deeply nested programs use heap rather than thread stack.
+ */
+class ExecutionContext {
+
+	/**
+	 * A block being executed and the index of the next statement to run. If
+	 * the block is the body of a while, the loop is re-tested when the block
+	 * finishes.
+	 */
+	static class Frame {
+		final RobotProgramNode[] body;
+		final whileNode loop;
+		int pc;
+
+		Frame(RobotProgramNode[] body, whileNode loop) {
+			this.body = body;
+			this.loop = loop;
+		}
+	}
+
+	private final RobotProgramNode program;
+	private final RobotControl robot;
+	private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+	private long stepsLeft = Long.MAX_VALUE;
+	/** The statements the program may run in a tick without acting, or 0 for no limit. */
+	private int statementsPerTick;
+	private int statementsLeft;
+	private Runnable outOfStatements;
+	/** Whether step has been called. */
+	private boolean started;
+
+	ExecutionContext(RobotProgramNode program, RobotControl robot) {
+		this.program = program;
+		this.robot = robot;
+	}
+
+	/**
+	 * Runs the program to completion (or until the robot is cancelled).
+	 */
+	void run() {
+		frames.clear();
+		execute(program);
+	}
+
+	/**
+	 * Executes a node, and everything nested in it, to completion.
+	 */
+	void execute(RobotProgramNode node) {
+		int base = frames.size();
+		try {
+			schedule(node);
+			while (frames.size() > base) {
+				Frame frame = frames.peek();
+				if (frame.pc < frame.body.length) {
+					schedule(frame.body[frame.pc++]);
+				} else if (frame.loop != null && frame.loop.condnode.evaluate(this)) {
+					frame.pc = 0;
+				} else {
+					frames.pop();
+				}
+			}
+		} finally {
+			while (frames.size() > base) {
+				frames.pop();
+			}
+		}
+	}
+
+	/**
+	 * Runs the program as far as its next action (or other simple statement),
+	 * and no further, or until it reaches the step limit. This lets a driver
+	 * that carries out actions itself, rather than blocking in them, run many
+	 * programs in turn on one thread.
+	 *
+	 * @return whether a statement was executed: false once the program has
+	 *         finished (see isFinished) or reached the step limit
+	 */
+	boolean step() {
+		if (!started) {
+			if (stepsLeft <= 0) {
+				return false;
+			}
+			started = true;
+			frames.clear();
+			if (schedule(program)) {
+				return true;
+			}
+		}
+		while (!frames.isEmpty() && stepsLeft > 0) {
+			Frame frame = frames.peek();
+			if (frame.pc < frame.body.length) {
+				if (schedule(frame.body[frame.pc++])) {
+					return true;
+				}
+			} else if (frame.loop != null && frame.loop.condnode.evaluate(this)) {
+				frame.pc = 0;
+			} else {
+				frames.pop();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return whether step has run the program to its end
+	 */
+	boolean isFinished() {
+		return started && frames.isEmpty();
+	}
+
+	/**
+	 * Executes an action straight away, or pushes the frame of the block that
+	 * a compound statement selects.
+	 *
+	 * @return whether the node was executed straight away
+	 */
+	private boolean schedule(RobotProgramNode node) {
+		if (--stepsLeft < 0) {
+			throw new RobotInterruptedException();
+		}
+		if (statementsPerTick > 0 && statementsLeft-- == 0) {
+			outOfStatements.run();
+			startTick();
+			statementsLeft--;
+		}
+		if (node instanceof BlockNode) {
+			enter(((BlockNode) node).nodes, null);
+		} else if (node instanceof ifNode) {
+			ifNode n = (ifNode) node;
+			if (n.condnode.evaluate(this)) {
+				enter(n.ifblock.nodes, null);
+			} else if (n.elseblock != null) {
+				enter(n.elseblock.nodes, null);
+			}
+		} else if (node instanceof whileNode) {
+			whileNode n = (whileNode) node;
+			if (n.condnode.evaluate(this)) {
+				enter(n.blocknode.nodes, n);
+			}
+		} else if (node instanceof LoopNode) {
+			enter(((LoopNode) node).block.nodes, null);
+		} else if (node instanceof ProgramNode) {
+			enter(((ProgramNode) node).nodes, null);
+		} else {
+			node.execute(this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stops the program, by throwing RobotInterruptedException as cancelling
+	 * the robot does, once it has executed the given number of statements.
+	 */
+	void setStepLimit(long steps) {
+		stepsLeft = steps;
+	}
+
+	/**
+	 * Lets the program run at most the given number of statements in a tick
+	 * without acting, as BatchSimulator does. At the next, it runs
+	 * outOfStatements, which should wait for the tick to pass. The robot
+	 * calls startTick each time a tick passes with an action.
+	 */
+	void setStatementsPerTick(int statements, Runnable outOfStatements) {
+		this.statementsPerTick = statements;
+		this.outOfStatements = outOfStatements;
+		startTick();
+	}
+
+	/**
+	 * Gives the program its full allowance of statements for a new tick.
+	 */
+	void startTick() {
+		statementsLeft = statementsPerTick;
+	}
+
+	RobotControl getRobot() {
+		return robot;
+	}
+
+	private void enter(RobotProgramNode[] body, whileNode loop) {
+		frames.push(new Frame(body, loop));
+	}
+
+	/**
+	 * @return the frame of the innermost executing block, or null if the
+	 *         program is not running
+	 */
+	Frame currentFrame() {
+		return frames.peek();
+	}
+}
@@ -0,0 +1,282 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.UIManager;
+
+/**
+ * Plays back a recorded match (see MatchLog) without a window, and writes it
+ * out as numbered PNG files or an animated GIF, drawn as WorldComponent draws
+ * it. With -record, it first records a match between two programs, in a
+ * pipelined world, to the given log.
+ *
+ * Each update of the match is drawn as a number of frames, moving the robots
+ * part of the way each frame. Updates are drawn (and, for PNG, encoded) by a
+ * pool of threads while the log is read. Only a few updates per thread are
+ * held at once, so memory doesn't grow with the length of the match.
+ *
+ * Usage: FrameExporter (-png DIR | -gif FILE) [-frames F] [-fps R]
+ * [-ticks N] [-threads T] (LOG | -record LOG [-seed S] prog1 prog2)
+ */
+public class FrameExporter {
+
+	/** Updates waiting to be drawn or written, per drawing thread. */
+	private static final int QUEUED_PER_THREAD = 2;
+
+	private final int width = World.SIZE * WorldComponent.GRID_SIZE;
+	private final int height = World.SIZE * WorldComponent.GRID_SIZE;
+	private final int framesPerTick;
+	private final File pngDir;
+	private final GifWriter gif;
+
+	private int ticks, frames;
+
+	FrameExporter(int framesPerTick, File pngDir, GifWriter gif) {
+		this.framesPerTick = framesPerTick;
+		this.pngDir = pngDir;
+		this.gif = gif;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		System.setProperty("java.awt.headless", "true");
+		File png = null, gifFile = null, record = null;
+		int frames = 4, fps = 30, threads = Runtime.getRuntime().availableProcessors();
+		long maxTicks = Long.MAX_VALUE, seed = 1;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-png":
+				png = new File(args[i + 1]);
+				break;
+			case "-gif":
+				gifFile = new File(args[i + 1]);
+				break;
+			case "-frames":
+				frames = Integer.parseInt(args[i + 1]);
+				break;
+			case "-fps":
+				fps = Integer.parseInt(args[i + 1]);
+				break;
+			case "-ticks":
+				maxTicks = Long.parseLong(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "-record":
+				record = new File(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (i + ((record != null) ? 2 : 1) != args.length || (png == null) == (gifFile == null)) {
+			System.err.println("Usage: FrameExporter (-png DIR | -gif FILE) [-frames F] [-fps R] [-ticks N]"
+					+ " [-threads T] (LOG | -record LOG [-seed S] prog1 prog2)");
+			System.exit(2);
+		}
+		if (png != null && !png.isDirectory() && !png.mkdirs()) {
+			throw new IOException("Can't create " + png);
+		}
+		File log = record;
+		if (record != null) {
+			RobotProgramNode prog1 = Parser.loadFile(new File(args[i]));
+			RobotProgramNode prog2 = Parser.loadFile(new File(args[i + 1]));
+			if (prog1 == null || prog2 == null) {
+				System.exit(1);
+			}
+			MatchLog.record(World.headless(prog1, prog2, seed), record, MatchLog.DEFAULT_INTERVAL, maxTicks);
+		} else {
+			log = new File(args[i]);
+		}
+
+		// an empty world, which the log moves the robots and barrels of
+		World world = new World();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		try (GifWriter gif = (gifFile != null) ? new GifWriter(gifFile, Math.round(100f / fps)) : null) {
+			FrameExporter exporter = new FrameExporter(frames, png, gif);
+			exporter.export(MatchLog.Reader.open(log), world, maxTicks, pool, threads * QUEUED_PER_THREAD);
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%d updates, %d frames on %d threads in %.1fs: %.0f frames/s%n", exporter.ticks,
+					exporter.frames, threads, secs, exporter.frames / secs);
+		} finally {
+			pool.shutdownNow();
+			world.reset();
+		}
+	}
+
+	/**
+	 * Plays back a match log in the world, up to maxTicks updates, writing
+	 * frames as it goes.
+	 */
+	void export(MatchLog.Reader reader, World world, long maxTicks, ExecutorService pool, int maxQueued)
+			throws IOException, InterruptedException, ExecutionException {
+		ArrayDeque<Future<BufferedImage[]>> queued = new ArrayDeque<Future<BufferedImage[]>>();
+		Color background = UIManager.getColor("Panel.background");
+		if (background == null) {
+			background = Color.LIGHT_GRAY;
+		}
+		Set<Cell> fuel = null;
+		BufferedImage backgroundImage = null;
+
+		for (ticks = 0; ticks < maxTicks && reader.next(world); ticks++) {
+			// draw this update as the robots move from where they are to their targets
+			Set<Cell> current = new HashSet<Cell>(world.getAvailableFuel());
+			if (!current.equals(fuel)) {
+				fuel = current;
+				backgroundImage = WorldComponent.drawBackground(fuel, width, height, background, null);
+			}
+			Robot[] robots = { world.getRobot(1).snapshot(), world.getRobot(2).snapshot() };
+			queued.add(pool.submit(new Tick(ticks, backgroundImage, robots)));
+			while (queued.size() >= maxQueued) {
+				write(queued.remove().get());
+			}
+		}
+		while (!queued.isEmpty()) {
+			write(queued.remove().get());
+		}
+	}
+
+	private void write(BufferedImage[] images) throws IOException {
+		frames += framesPerTick;
+		if (gif != null) {
+			for (BufferedImage image : images) {
+				gif.write(image);
+			}
+		}
+	}
+
+	/**
+	 * Draws the frames of one update. PNG frames are written here too, as
+	 * they can be written in any order; GIF frames are returned to be written
+	 * in order.
+	 */
+	private class Tick implements Callable<BufferedImage[]> {
+		private final int tick;
+		private final BufferedImage background;
+		private final Robot[] robots;
+
+		Tick(int tick, BufferedImage background, Robot[] robots) {
+			this.tick = tick;
+			this.background = background;
+			this.robots = robots;
+		}
+
+		@Override
+		public BufferedImage[] call() throws IOException {
+			BufferedImage[] images = new BufferedImage[framesPerTick];
+			for (int f = 0; f < framesPerTick; f++) {
+				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g2d = image.createGraphics();
+				g2d.drawImage(background, 0, 0, null);
+				WorldComponent.drawRobots(g2d, (double) f / framesPerTick, robots);
+				g2d.dispose();
+
+				if (pngDir != null) {
+					String name = String.format("frame%06d.png", tick * framesPerTick + f);
+					ImageIO.write(image, "png", new File(pngDir, name));
+				} else {
+					images[f] = GifWriter.indexed(image);
+				}
+			}
+			return images;
+		}
+	}
+
+	/**
+	 * Writes frames to a looping animated GIF.
+	 */
+	static class GifWriter implements Closeable {
+		private final ImageOutputStream out;
+		private final ImageWriter writer;
+		private final int delay;
+		private boolean first = true;
+
+		/**
+		 * @param delay
+		 *            the time each frame is shown, in hundredths of a second
+		 */
+		GifWriter(File file, int delay) throws IOException {
+			file.delete();
+			out = ImageIO.createImageOutputStream(file);
+			Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("gif");
+			writer = writers.next();
+			writer.setOutput(out);
+			writer.prepareWriteSequence(null);
+			this.delay = Math.max(1, delay);
+		}
+
+		/**
+		 * Converts a frame to the 256 colour palette the GIF is written in. This
+		 * is the slow part of writing a GIF frame, so it can be done in
+		 * parallel, before write.
+		 */
+		static BufferedImage indexed(BufferedImage image) {
+			BufferedImage indexed = new BufferedImage(image.getWidth(), image.getHeight(),
+					BufferedImage.TYPE_BYTE_INDEXED);
+			Graphics2D g2d = indexed.createGraphics();
+			g2d.drawImage(image, 0, 0, null);
+			g2d.dispose();
+			return indexed;
+		}
+
+		void write(BufferedImage image) throws IOException {
+			IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+					null);
+			String format = metadata.getNativeMetadataFormatName();
+			IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+			IIOMetadataNode control = new IIOMetadataNode("GraphicControlExtension");
+			control.setAttribute("disposalMethod", "none");
+			control.setAttribute("userInputFlag", "FALSE");
+			control.setAttribute("transparentColorFlag", "FALSE");
+			control.setAttribute("delayTime", Integer.toString(delay));
+			control.setAttribute("transparentColorIndex", "0");
+			root.appendChild(control);
+
+			if (first) {
+				// loop forever
+				IIOMetadataNode extensions = new IIOMetadataNode("ApplicationExtensions");
+				IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+				loop.setAttribute("applicationID", "NETSCAPE");
+				loop.setAttribute("authenticationCode", "2.0");
+				loop.setUserObject(new byte[] { 1, 0, 0 });
+				extensions.appendChild(loop);
+				root.appendChild(extensions);
+				first = false;
+			}
+			metadata.setFromTree(format, root);
+			writer.writeToSequence(new IIOImage(image, null, metadata), null);
+		}
+
+		@Override
+		public void close() throws IOException {
+			writer.endWriteSequence();
+			writer.dispose();
+			out.close();
+		}
+	}
+}
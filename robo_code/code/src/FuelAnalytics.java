@@ -0,0 +1,437 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How programs spend and gain fuel, over as many headless matches as you like,
+ * kept as histograms so that it takes the same memory however many matches
+ * are played. For each program: how much fuel its robot had when it took
+ * each kind of action, how much fuel it siphoned each time and how many
+ * times a match, how much fuel its shield cost it in a match, and how long a
+ * barrel had been there when it took it.
+ *
+ * Fuel and ticks are bounded, so the histograms have a bucket for each unit
+ * of fuel and each tick (see LinearHistogram), up to MAX_TICK_BUCKETS ticks.
+ *
+ * The numbers come from the matches' events (see WorldEvents), through a
+ * listener on each world, and nothing is kept of a match once it is over but
+ * what it added to the histograms. A match that timed out was cut short, so
+ * adds nothing. Workers each add to their own FuelAnalytics, in plain arrays,
+ * and add that to the Total when they are done, without taking a lock (see
+ * LinearHistogram.Shared).
+ *
+ * main plays a round robin between a pool of programs, like Tournament but in
+ * pipelined Worlds (a BatchSimulator has no events), and writes the totals as
+ * CSV, one row for each program and histogram that isn't empty:
+ *
+ * <pre>
+ * program,histogram,count,mean,p50,p90,p99,max
+ * </pre>
+ *
+ * and, with -buckets, every bucket that isn't empty, one a row:
+ *
+ * <pre>
+ * program,histogram,from,to,count
+ * </pre>
+ *
+ * Usage: FuelAnalytics [-out FILE] [-buckets FILE] [-seeds K] [-seed S]
+ * [-ticks T] [-timeout MS] [-threads N] prog...
+ */
+public class FuelAnalytics {
+
+	/** The most ticks a histogram of ticks tells apart; longer goes in its last bucket. */
+	static final int MAX_TICK_BUCKETS = 10000;
+	/** A robot never has more fuel than this, nor siphons more than SIPHON_MAX. */
+	private static final int FUEL_MAX = 100, SIPHON_MAX = 25;
+
+	/** The histograms of one program. */
+	static class Program {
+		/** The robot's fuel when it took each action, indexed by Robot.ACTION_*. */
+		final LinearHistogram[] fuelAtAction = new LinearHistogram[WorldMetrics.ACTION_NAMES.length];
+		/** The fuel each siphon took. */
+		final LinearHistogram siphoned = new LinearHistogram(SIPHON_MAX + 1, 1);
+		final LinearHistogram siphonsPerMatch;
+		/** The fuel the shield cost, in each match. */
+		final LinearHistogram shieldFuelPerMatch;
+		/**
+		 * The updates from a barrel appearing to the robot taking it: 1 if it
+		 * took it in the first update it could.
+		 */
+		final LinearHistogram pickupTicks;
+		final LinearHistogram ticksPerMatch;
+
+		/**
+		 * @param tickBuckets the number of buckets for ticks, one more than
+		 *                    the longest match
+		 */
+		Program(int tickBuckets) {
+			for (int a = 0; a < fuelAtAction.length; a++) {
+				fuelAtAction[a] = new LinearHistogram(FUEL_MAX + 1, 1);
+			}
+			siphonsPerMatch = new LinearHistogram(tickBuckets, 1);
+			shieldFuelPerMatch = new LinearHistogram((tickBuckets - 1) * Robot.FUEL_SHIELD + 1, 1);
+			pickupTicks = new LinearHistogram(tickBuckets, 1);
+			ticksPerMatch = new LinearHistogram(tickBuckets, 1);
+		}
+
+		/**
+		 * @return the histograms by name, in the order they are written
+		 */
+		Map<String, LinearHistogram> histograms() {
+			Map<String, LinearHistogram> named = new LinkedHashMap<String, LinearHistogram>();
+			for (int a = 0; a < fuelAtAction.length; a++) {
+				named.put("fuelAt." + WorldMetrics.ACTION_NAMES[a], fuelAtAction[a]);
+			}
+			named.put("siphoned", siphoned);
+			named.put("siphonsPerMatch", siphonsPerMatch);
+			named.put("shieldFuelPerMatch", shieldFuelPerMatch);
+			named.put("pickupTicks", pickupTicks);
+			named.put("ticksPerMatch", ticksPerMatch);
+			return named;
+		}
+	}
+
+	/**
+	 * The histograms of every program, from every worker's FuelAnalytics.
+	 * Workers add theirs at the same time, without taking locks.
+	 */
+	static class Total {
+		/** Each program's histograms by name, never changed once added. */
+		private final Map<String, Map<String, LinearHistogram.Shared>> programs = new ConcurrentHashMap<String, Map<String, LinearHistogram.Shared>>();
+		private final LongAdder dropped = new LongAdder();
+
+		/**
+		 * Adds everything a worker's FuelAnalytics has gathered. Every
+		 * FuelAnalytics added must have been made for as many ticks.
+		 */
+		void add(FuelAnalytics local) {
+			for (Map.Entry<String, Program> p : local.programs.entrySet()) {
+				Map<String, LinearHistogram> theirs = p.getValue().histograms();
+				Map<String, LinearHistogram.Shared> shared = programs.computeIfAbsent(p.getKey(), n -> {
+					Map<String, LinearHistogram.Shared> named = new LinkedHashMap<String, LinearHistogram.Shared>();
+					for (Map.Entry<String, LinearHistogram> e : theirs.entrySet()) {
+						named.put(e.getKey(), new LinearHistogram.Shared(e.getValue()));
+					}
+					return named;
+				});
+				for (Map.Entry<String, LinearHistogram.Shared> e : shared.entrySet()) {
+					e.getValue().add(theirs.get(e.getKey()));
+				}
+			}
+			dropped.add(local.dropped);
+		}
+
+		/**
+		 * @return the number of matches dropped because they timed out
+		 */
+		long dropped() {
+			return dropped.sum();
+		}
+
+		private Map<String, Map<String, LinearHistogram.Shared>> sorted() {
+			return new TreeMap<String, Map<String, LinearHistogram.Shared>>(programs);
+		}
+
+		/**
+		 * Writes a row for each program and histogram that isn't empty, under
+		 * a header.
+		 */
+		void writeCsv(PrintStream out) {
+			out.println("program,histogram,count,mean,p50,p90,p99,max");
+			for (Map.Entry<String, Map<String, LinearHistogram.Shared>> p : sorted().entrySet()) {
+				for (Map.Entry<String, LinearHistogram.Shared> e : p.getValue().entrySet()) {
+					LinearHistogram h = e.getValue().snapshot();
+					if (h.count() == 0) {
+						continue;
+					}
+					out.println(csv(p.getKey()) + ',' + e.getKey() + ',' + h.count()
+							+ String.format(Locale.ROOT, ",%.2f", h.mean()) + ',' + h.percentile(0.5) + ','
+							+ h.percentile(0.9) + ',' + h.percentile(0.99) + ',' + h.max());
+				}
+			}
+		}
+
+		/**
+		 * Writes a row for each bucket that isn't empty, of each program and
+		 * histogram, under a header. A last bucket holds everything larger,
+		 * up to the histogram's max.
+		 */
+		void writeBucketsCsv(PrintStream out) {
+			out.println("program,histogram,from,to,count");
+			for (Map.Entry<String, Map<String, LinearHistogram.Shared>> p : sorted().entrySet()) {
+				for (Map.Entry<String, LinearHistogram.Shared> e : p.getValue().entrySet()) {
+					LinearHistogram h = e.getValue().snapshot();
+					long[] counts = h.buckets();
+					for (int b = 0; b < counts.length; b++) {
+						if (counts[b] != 0) {
+							out.println(csv(p.getKey()) + ',' + e.getKey() + ',' + h.lowest(b) + ','
+									+ Math.min(h.highest(b), h.max()) + ',' + counts[b]);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private final Map<String, Program> programs = new HashMap<String, Program>();
+	private final int tickBuckets;
+	/** The matches that timed out, and so added nothing. */
+	private long dropped;
+
+	/**
+	 * @param maxTicks the most updates a match is played for
+	 */
+	FuelAnalytics(long maxTicks) {
+		tickBuckets = (int) Math.min(maxTicks, MAX_TICK_BUCKETS) + 1;
+	}
+
+	/**
+	 * @return the histograms of the named program
+	 */
+	Program program(String name) {
+		return programs.computeIfAbsent(name, n -> new Program(tickBuckets));
+	}
+
+	/**
+	 * Starts gathering the match the world is to play between the named
+	 * programs. Call before starting the world, and finish the match once it
+	 * is over.
+	 */
+	Match watch(World world, String program1, String program2) {
+		Match match = new Match(this, world, program(program1), program(program2));
+		world.getEvents().subscribe(match);
+		return match;
+	}
+
+	/**
+	 * What is kept of a match while it is played, on its world's listener
+	 * thread: a few numbers for each robot, when each barrel appeared, and
+	 * what each robot's events are to add to the histograms, held until the
+	 * match is known not to have timed out.
+	 */
+	static class Match implements WorldEvents.Listener {
+		private static final long UNSEEN = Long.MIN_VALUE;
+		/**
+		 * The kinds of value held for a robot, after the fuel at each action
+		 * (kinds 0 to 7, by Robot.ACTION_*).
+		 */
+		private static final int SIPHONED = 8, PICKUP = 9;
+
+		private final FuelAnalytics analytics;
+		private final World world;
+		private final Program[] programs;
+		/** The update each barrel appeared in time for, by cell. */
+		private final long[] spawned = new long[World.SIZE * World.SIZE];
+		private final int[] fuel = new int[3];
+		private final int[] siphons = new int[3];
+		private final int[] shieldFuel = new int[3];
+		/** Each robot's values, as kind << 32 | value, and how many there are. */
+		private final long[][] values = new long[3][64];
+		private final int[] held = new int[3];
+		private long ticks;
+
+		Match(FuelAnalytics analytics, World world, Program program1, Program program2) {
+			this.analytics = analytics;
+			this.world = world;
+			this.programs = new Program[] { null, program1, program2 };
+			Arrays.fill(spawned, UNSEEN);
+		}
+
+		@Override
+		public void onEvent(WorldEvents.Event event, boolean endOfBatch) {
+			int r = event.robot;
+			switch (event.type) {
+			case UPDATE:
+				fuel[r] = event.update[MatchLog.FUEL];
+				shieldFuel[r] += event.update[MatchLog.SHIELD_FUEL];
+				break;
+			case ACTION:
+				hold(r, event.action, fuel[r]);
+				break;
+			case SIPHON:
+				hold(r, SIPHONED, event.fuel);
+				siphons[r]++;
+				break;
+			case BARREL_SPAWNED:
+				spawned[event.y * World.SIZE + event.x] = event.tick + 1;
+				break;
+			case FUEL_TAKEN:
+				long since = spawned[event.y * World.SIZE + event.x];
+				if (since != UNSEEN) {
+					hold(r, PICKUP, (int) (event.tick - since + 1));
+				}
+				break;
+			case TICK:
+				ticks = event.tick + 1;
+				break;
+			default:
+			}
+		}
+
+		private void hold(int r, int kind, int value) {
+			if (held[r] == values[r].length) {
+				values[r] = Arrays.copyOf(values[r], 2 * held[r]);
+			}
+			values[r][held[r]++] = (long) kind << 32 | (value & 0xffffffffL);
+		}
+
+		/**
+		 * Stops listening, once every event of the match has been seen, and
+		 * records the match in the histograms, unless it timed out.
+		 */
+		void finish() {
+			world.getEvents().unsubscribe(this);
+			if (world.isTimedOut()) {
+				analytics.dropped++;
+				return;
+			}
+			for (int r = 1; r <= 2; r++) {
+				Program p = programs[r];
+				for (int i = 0; i < held[r]; i++) {
+					int kind = (int) (values[r][i] >>> 32), value = (int) values[r][i];
+					if (kind == SIPHONED) {
+						p.siphoned.record(value);
+					} else if (kind == PICKUP) {
+						p.pickupTicks.record(value);
+					} else {
+						p.fuelAtAction[kind].record(value);
+					}
+				}
+				p.siphonsPerMatch.record(siphons[r]);
+				p.shieldFuelPerMatch.record(shieldFuel[r]);
+				p.ticksPerMatch.record(ticks);
+			}
+		}
+	}
+
+	private static String csv(String field) {
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+			return field;
+		}
+		return '"' + field.replace("\"", "\"\"") + '"';
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 10, threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1, maxTicks = 1000, timeout = 10000;
+		File outFile = null, bucketsFile = null;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-out":
+				outFile = new File(args[i + 1]);
+				break;
+			case "-buckets":
+				bucketsFile = new File(args[i + 1]);
+				break;
+			case "-seeds":
+				seeds = Integer.parseInt(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-ticks":
+				maxTicks = Long.parseLong(args[i + 1]);
+				break;
+			case "-timeout":
+				timeout = Long.parseLong(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (args.length - i < 2) {
+			System.err.println(
+					"Usage: FuelAnalytics [-out FILE] [-buckets FILE] [-seeds K] [-seed S] [-ticks T] [-timeout MS] [-threads N] prog...");
+			System.exit(2);
+		}
+		Tournament.Entry[] entries = new Tournament.Entry[args.length - i];
+		for (int e = 0; e < entries.length; e++) {
+			File file = new File(args[i + e]);
+			RobotProgramNode prog = Parser.loadFile(file);
+			if (prog == null) {
+				System.exit(1);
+			}
+			entries[e] = new Tournament.Entry(file.getName(), prog);
+		}
+
+		long start = System.nanoTime();
+		final Total total = new Total();
+		final int matches = seeds;
+		final long first = seed, ticks = maxTicks, millis = timeout;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> pairings = new ArrayList<Future<?>>();
+			for (Tournament.Entry one : entries) {
+				for (Tournament.Entry two : entries) {
+					if (one != two) {
+						pairings.add(pool.submit(new Callable<Void>() {
+							@Override
+							public Void call() throws InterruptedException {
+								FuelAnalytics local = new FuelAnalytics(ticks);
+								for (int m = 0; m < matches; m++) {
+									local.play(one, two, first + m, ticks, millis);
+								}
+								total.add(local);
+								return null;
+							}
+						}));
+					}
+				}
+			}
+			for (Future<?> f : pairings) {
+				f.get();
+			}
+		} finally {
+			pool.shutdown();
+		}
+		System.err.printf("%d matches in %.2fs, %d timed out and dropped%n",
+				(long) entries.length * (entries.length - 1) * seeds, (System.nanoTime() - start) / 1e9,
+				total.dropped());
+		if (outFile == null) {
+			total.writeCsv(System.out);
+		} else {
+			try (PrintStream csv = new PrintStream(new FileOutputStream(outFile), false, "UTF-8")) {
+				total.writeCsv(csv);
+			}
+		}
+		if (bucketsFile != null) {
+			try (PrintStream csv = new PrintStream(new FileOutputStream(bucketsFile), false, "UTF-8")) {
+				total.writeBucketsCsv(csv);
+			}
+		}
+	}
+
+	/**
+	 * Plays one match in a new headless world (see World.headless), adding
+	 * it to these histograms.
+	 */
+	void play(Tournament.Entry one, Tournament.Entry two, long seed, long maxTicks, long timeout)
+			throws InterruptedException {
+		World world = World.headless(one.program, two.program, seed);
+		Match match = watch(world, one.name, two.name);
+		try {
+			world.play(maxTicks, timeout);
+			match.finish();
+		} finally {
+			world.reset();
+		}
+	}
+}
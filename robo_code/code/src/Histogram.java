@@ -0,0 +1,93 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values (such as durations in nanoseconds) with
+ * a bucket for each power of two. Recording only increments striped counters,
+ * so many threads can record at once without contending.
+ */
+class Histogram {
+
+	static final int BUCKETS = 64;
+
+	private final LongAdder[] counts = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Bucket 0 holds 0 (and anything negative), bucket b holds values from
+	 * 2^(b-1) to 2^b - 1.
+	 */
+	static int bucket(long value) {
+		return (value <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	void record(long value) {
+		counts[Math.min(bucket(value), BUCKETS - 1)].increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	long count() {
+		long n = 0;
+		for (LongAdder c : counts) {
+			n += c.sum();
+		}
+		return n;
+	}
+
+	long sum() {
+		return sum.sum();
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	double mean() {
+		long n = count();
+		return (n == 0) ? 0 : (double) sum() / n;
+	}
+
+	/**
+	 * @return the bucket counts, up to the last non-empty bucket
+	 */
+	long[] buckets() {
+		long[] b = new long[BUCKETS];
+		int last = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			b[i] = counts[i].sum();
+			if (b[i] != 0) {
+				last = i + 1;
+			}
+		}
+		return Arrays.copyOf(b, last);
+	}
+
+	/**
+	 * @return an upper bound on the value below which the given fraction
+	 *         (0 to 1) of the recorded values fall
+	 */
+	long percentile(double fraction) {
+		long[] b = buckets();
+		long total = 0;
+		for (long c : b) {
+			total += c;
+		}
+		long seen = 0;
+		for (int i = 0; i < b.length; i++) {
+			seen += b[i];
+			if (seen >= fraction * total && seen > 0) {
+				return (i == 0) ? 0 : (i >= 63) ? max() : Math.min((1L << i) - 1, max());
+			}
+		}
+		return 0;
+	}
+}
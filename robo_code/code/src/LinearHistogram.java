@@ -0,0 +1,139 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of values with a known bound (such as fuel, or ticks), with
+ * buckets of a fixed width from 0 up. It is kept by one thread, in a plain
+ * array; threads that each keep their own add them into a Shared one.
+ */
+class LinearHistogram {
+
+	private final int width;
+	private final long[] counts;
+	private long sum, max;
+
+	/**
+	 * Bucket b holds values from b * width to (b + 1) * width - 1, except
+	 * that the first also holds anything negative and the last anything
+	 * larger.
+	 */
+	LinearHistogram(int buckets, int width) {
+		this.width = width;
+		counts = new long[buckets];
+	}
+
+	void record(long value) {
+		counts[(int) Math.min(Math.max(0, value) / width, counts.length - 1)]++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	long count() {
+		long n = 0;
+		for (long c : counts) {
+			n += c;
+		}
+		return n;
+	}
+
+	long sum() {
+		return sum;
+	}
+
+	long max() {
+		return max;
+	}
+
+	double mean() {
+		long n = count();
+		return (n == 0) ? 0 : (double) sum / n;
+	}
+
+	/**
+	 * @return the bucket counts, up to the last non-empty bucket
+	 */
+	long[] buckets() {
+		int last = counts.length;
+		while (last > 0 && counts[last - 1] == 0) {
+			last--;
+		}
+		return Arrays.copyOf(counts, last);
+	}
+
+	/**
+	 * @return the smallest value bucket b holds, but for anything negative
+	 */
+	long lowest(int b) {
+		return (long) b * width;
+	}
+
+	/**
+	 * @return the largest value bucket b holds
+	 */
+	long highest(int b) {
+		return (b == counts.length - 1) ? Long.MAX_VALUE : (long) (b + 1) * width - 1;
+	}
+
+	/**
+	 * @return an upper bound on the value below which the given fraction
+	 *         (0 to 1) of the recorded values fall
+	 */
+	long percentile(double fraction) {
+		long total = count();
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= fraction * total && seen > 0) {
+				return Math.min(highest(i), max);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * A histogram that many threads add their own LinearHistograms to at
+	 * once, without taking locks.
+	 */
+	static class Shared {
+		private final int width;
+		private final AtomicLongArray counts;
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Makes an empty histogram with the same buckets as the given one.
+		 */
+		Shared(LinearHistogram like) {
+			width = like.width;
+			counts = new AtomicLongArray(like.counts.length);
+		}
+
+		void add(LinearHistogram other) {
+			if (other.width != width || other.counts.length != counts.length()) {
+				throw new IllegalArgumentException("the histograms' buckets differ");
+			}
+			for (int i = 0; i < other.counts.length; i++) {
+				if (other.counts[i] != 0) {
+					counts.addAndGet(i, other.counts[i]);
+				}
+			}
+			sum.add(other.sum);
+			max.accumulate(other.max);
+		}
+
+		/**
+		 * @return a copy of what has been added so far, to read
+		 */
+		LinearHistogram snapshot() {
+			LinearHistogram h = new LinearHistogram(counts.length(), width);
+			for (int i = 0; i < h.counts.length; i++) {
+				h.counts[i] = counts.get(i);
+			}
+			h.sum = sum.sum();
+			h.max = max.get();
+			return h;
+		}
+	}
+}
@@ -0,0 +1,570 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reads and writes match logs: a record of every update of a two robot
+ * match, compact enough to keep, that can be played back without the
+ * programs. Numbers are varints (7 bits a byte, low bits first), zigzag
+ * encoded where they may be negative; fixed size numbers are big-endian. The
+ * layout is:
+ *
+ * <pre>
+ * header:   magic "RBML", u8 version, varint keyframe interval
+ * records:  u8 tag then its operands:
+ *           KEYFRAME  varint tick, for each robot: varint x, varint y, u8 dir,
+ *                     zigzag fuel, u8 shield; varint barrel count, barrel cells
+ *           TICK      varint count and cells of barrels added, the same for
+ *                     barrels removed, then for each robot: u8 flags, then
+ *                       if RESYNC  varint x, varint y, u8 dir, zigzag fuel
+ *                       if MOVED   zigzag dx, zigzag dy
+ *                       if TURNED  u8 target dir
+ *                       if FUELLED zigzag fuel change
+ *           END
+ * index:    varint count, for each keyframe: varint tick, varint offset
+ * trailer:  u32 index offset, u32 ticks, magic
+ * </pre>
+ *
+ * A TICK is one update: the barrels during it, and what each robot does,
+ * relative to where the last update left it. The low three bits of the flags
+ * are the robot's action, and the next bit is its shield. A barrel's cell is
+ * y * World.SIZE + x. A KEYFRAME comes before every interval'th TICK, and
+ * holds everything needed to play from there; the index lists them, so
+ * playback can start at any update.
+ */
+class MatchLog {
+
+	static final String EXTENSION = ".robl";
+	static final int MAGIC = 0x52424D4C; // "RBML"
+	static final int VERSION = 1;
+	static final int DEFAULT_INTERVAL = 64;
+
+	static final byte KEYFRAME = 1, TICK = 2, END = 3;
+
+	/**
+	 * Indexes of a robot's update, as given by Robot.getUpdate. SHIELD_FUEL is
+	 * what the shield costs the robot in the update, and isn't logged.
+	 */
+	static final int X = 0, Y = 1, DIR = 2, FUEL = 3, SHIELD = 4, ACTION = 5, TARGET_X = 6, TARGET_Y = 7,
+			TARGET_DIR = 8, TARGET_FUEL = 9, SHIELD_FUEL = 10, UPDATE_SIZE = 11;
+
+	/** Names of the directions, in the order of Robot's DIRECTION. */
+	static final String[] DIRECTIONS = { "NORTH", "WEST", "SOUTH", "EAST" };
+
+	private static final int SHIELD_BIT = 0x08, MOVED = 0x10, TURNED = 0x20, FUELLED = 0x40, RESYNC = 0x80;
+	private static final int TRAILER_SIZE = 12;
+
+	// Writing
+	// -------
+
+	/**
+	 * Records a match as it is played, from the world's events (see
+	 * World.setRecorder). Writing happens on the listener's thread, not the
+	 * world's.
+	 */
+	static class Writer implements Closeable, WorldEvents.Listener {
+		private final DataOutputStream out;
+		private final int interval;
+		private final List<int[]> index = new ArrayList<int[]>();
+		/** The barrels in the world, as the events tell it. */
+		private final Set<Cell> world = new HashSet<Cell>();
+		/** The robots at the start of the update being published. */
+		private final int[][] updates = new int[3][];
+		private boolean failed;
+		/** The barrels as of the last update written. */
+		private Set<Cell> barrels = new HashSet<Cell>();
+		/** Where each robot was left by the last update: x, y, dir, fuel. */
+		private final int[][] last = new int[3][4];
+		private int ticks;
+
+		Writer(File file, int interval) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			this.interval = Math.max(1, interval);
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			writeVarint(this.interval);
+		}
+
+		@Override
+		public void onEvent(WorldEvents.Event event, boolean endOfBatch) {
+			switch (event.type) {
+			case UPDATE:
+				if (updates[event.robot] == null) {
+					updates[event.robot] = new int[UPDATE_SIZE];
+				}
+				System.arraycopy(event.update, 0, updates[event.robot], 0, UPDATE_SIZE);
+				break;
+			case FUEL_TAKEN:
+				world.remove(Cell.at(event.x, event.y));
+				break;
+			case BARREL_SPAWNED:
+				world.add(Cell.at(event.x, event.y));
+				break;
+			case TICK:
+				if (!failed && updates[1] != null && updates[2] != null) {
+					try {
+						record(new HashSet<Cell>(world));
+					} catch (IOException e) {
+						e.printStackTrace();
+						failed = true;
+					}
+				}
+				break;
+			default:
+			}
+		}
+
+		private void record(Set<Cell> current) throws IOException {
+			if (ticks % interval == 0) {
+				index.add(new int[] { ticks, out.size() });
+				out.writeByte(KEYFRAME);
+				writeVarint(ticks);
+				for (int i = 1; i <= 2; i++) {
+					int[] u = updates[i];
+					writeVarint(u[X]);
+					writeVarint(u[Y]);
+					out.writeByte(u[DIR]);
+					writeZigzag(u[FUEL]);
+					out.writeByte(u[SHIELD]);
+					last[i] = new int[] { u[X], u[Y], u[DIR], u[FUEL] };
+				}
+				writeCells(current);
+				barrels = current;
+			}
+
+			out.writeByte(TICK);
+			Set<Cell> added = new HashSet<Cell>(current);
+			added.removeAll(barrels);
+			Set<Cell> removed = new HashSet<Cell>(barrels);
+			removed.removeAll(current);
+			writeCells(added);
+			writeCells(removed);
+			barrels = current;
+
+			for (int i = 1; i <= 2; i++) {
+				int[] u = updates[i];
+				int[] l = last[i];
+				boolean resync = u[X] != l[0] || u[Y] != l[1] || u[DIR] != l[2] || u[FUEL] != l[3];
+				boolean moved = u[TARGET_X] != u[X] || u[TARGET_Y] != u[Y];
+				boolean turned = u[TARGET_DIR] != u[DIR];
+				boolean fuelled = u[TARGET_FUEL] != u[FUEL];
+				int flags = (u[ACTION] & 0x07) | (u[SHIELD] != 0 ? SHIELD_BIT : 0) | (moved ? MOVED : 0)
+						| (turned ? TURNED : 0) | (fuelled ? FUELLED : 0) | (resync ? RESYNC : 0);
+				out.writeByte(flags);
+				if (resync) {
+					writeVarint(u[X]);
+					writeVarint(u[Y]);
+					out.writeByte(u[DIR]);
+					writeZigzag(u[FUEL]);
+				}
+				if (moved) {
+					writeZigzag(u[TARGET_X] - u[X]);
+					writeZigzag(u[TARGET_Y] - u[Y]);
+				}
+				if (turned) {
+					out.writeByte(u[TARGET_DIR]);
+				}
+				if (fuelled) {
+					writeZigzag(u[TARGET_FUEL] - u[FUEL]);
+				}
+				last[i] = new int[] { u[TARGET_X], u[TARGET_Y], u[TARGET_DIR], u[TARGET_FUEL] };
+			}
+			ticks++;
+		}
+
+		/**
+		 * @return the bytes written so far
+		 */
+		int size() {
+			return out.size();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.writeByte(END);
+			int indexOffset = out.size();
+			writeVarint(index.size());
+			for (int[] entry : index) {
+				writeVarint(entry[0]);
+				writeVarint(entry[1]);
+			}
+			out.writeInt(indexOffset);
+			out.writeInt(ticks);
+			out.writeInt(MAGIC);
+			out.close();
+		}
+
+		private void writeCells(Set<Cell> cells) throws IOException {
+			writeVarint(cells.size());
+			for (Cell p : cells) {
+				writeVarint(p.y * World.SIZE + p.x);
+			}
+		}
+
+		private void writeZigzag(int n) throws IOException {
+			writeVarint((n << 1) ^ (n >> 31));
+		}
+
+		private void writeVarint(int n) throws IOException {
+			while ((n & ~0x7F) != 0) {
+				out.writeByte((n & 0x7F) | 0x80);
+				n >>>= 7;
+			}
+			out.writeByte(n);
+		}
+	}
+
+	// Reading
+	// -------
+
+	/**
+	 * Plays back a match log, an update at a time, from the start or from any
+	 * update.
+	 */
+	static class Reader {
+		private final ByteBuffer buf;
+		private final int start;
+		private final int[] keyframeTicks, keyframeOffsets;
+		private final int ticks;
+
+		private final int[][] updates = new int[3][UPDATE_SIZE];
+		private final Set<Cell> barrels = new HashSet<Cell>();
+		private int tick = -1;
+
+		Reader(ByteBuffer buf) throws IOException {
+			this.buf = buf;
+			if (buf.remaining() < 5 || buf.getInt() != MAGIC) {
+				throw new IOException("not a match log");
+			}
+			int version = buf.get();
+			if (version != VERSION) {
+				throw new IOException("unsupported version " + version);
+			}
+			readVarint(); // keyframe interval
+			start = buf.position();
+
+			// a log that was never closed has no index, but can still be played
+			int limit = buf.limit();
+			if (limit - start >= TRAILER_SIZE && buf.getInt(limit - 4) == MAGIC) {
+				ticks = buf.getInt(limit - 8);
+				buf.position(buf.getInt(limit - 12));
+				int count = readVarint();
+				keyframeTicks = new int[count];
+				keyframeOffsets = new int[count];
+				for (int i = 0; i < count; i++) {
+					keyframeTicks[i] = readVarint();
+					keyframeOffsets[i] = readVarint();
+				}
+				buf.position(start);
+			} else {
+				ticks = -1;
+				keyframeTicks = keyframeOffsets = new int[0];
+			}
+		}
+
+		/**
+		 * Memory-maps a match log.
+		 */
+		static Reader open(File file) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath())) {
+				return new Reader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+
+		/**
+		 * @return the number of updates in the match, or -1 if the log wasn't
+		 *         closed
+		 */
+		int getTicks() {
+			return ticks;
+		}
+
+		/**
+		 * @return the update last read, or -1 before the first
+		 */
+		int getTick() {
+			return tick;
+		}
+
+		/**
+		 * @return the barrels during the update last read
+		 */
+		Set<Cell> getBarrels() {
+			return barrels;
+		}
+
+		/**
+		 * @return the given robot (1 or 2) in the update last read, indexed as
+		 *         Robot.getUpdate is
+		 */
+		int[] getUpdate(int robot) {
+			return updates[robot];
+		}
+
+		/**
+		 * Moves to just before the given update, so that next reads it. Starts
+		 * from the latest keyframe at or before it.
+		 */
+		void seek(int target) throws IOException {
+			int k = -1;
+			for (int i = 0; i < keyframeTicks.length && keyframeTicks[i] <= target; i++) {
+				k = i;
+			}
+			// carry on from the current update if that's no further back than the keyframe
+			boolean ahead = tick + 1 <= target && (k < 0 || tick + 1 >= keyframeTicks[k]);
+			if (!ahead) {
+				if (k < 0) {
+					buf.position(start);
+					tick = -1;
+				} else {
+					buf.position(keyframeOffsets[k]);
+					tick = keyframeTicks[k] - 1;
+				}
+			}
+			while (tick + 1 < target && read()) {
+			}
+		}
+
+		/**
+		 * Reads the next update and shows it in the world: sets the barrels,
+		 * and puts each robot in the middle of what it is doing. The barrels
+		 * that come and go are published as the world's events.
+		 *
+		 * @return false at the end of the match
+		 */
+		boolean next(World world) throws IOException {
+			if (!read()) {
+				return false;
+			}
+			WorldEvents events = world.getEvents();
+			WorldMetrics metrics = world.getMetrics();
+			Set<Cell> fuel = world.getAvailableFuel();
+			for (Cell p : fuel) {
+				if (!barrels.contains(p)) {
+					fuel.remove(p);
+					metrics.barrelsTaken.increment();
+					WorldEvents.Event event = events.claim(WorldEvents.Type.FUEL_TAKEN, tick);
+					event.x = p.x;
+					event.y = p.y;
+					events.publish();
+				}
+			}
+			for (Cell p : barrels) {
+				if (fuel.add(p)) {
+					metrics.barrelsSpawned.increment();
+					WorldEvents.Event event = events.claim(WorldEvents.Type.BARREL_SPAWNED, tick);
+					event.x = p.x;
+					event.y = p.y;
+					events.publish();
+				}
+			}
+			for (int i = 1; i <= 2; i++) {
+				world.getRobot(i).setUpdate(updates[i]);
+			}
+			events.claim(WorldEvents.Type.TICK, tick);
+			events.publish();
+			events.flush();
+			return true;
+		}
+
+		/**
+		 * Reads the next update.
+		 *
+		 * @return false at the end of the match
+		 */
+		boolean read() throws IOException {
+			if (!buf.hasRemaining()) {
+				return false;
+			}
+			byte tag = buf.get();
+			if (tag == KEYFRAME) {
+				tick = readVarint() - 1;
+				for (int i = 1; i <= 2; i++) {
+					int[] u = updates[i];
+					u[TARGET_X] = readVarint();
+					u[TARGET_Y] = readVarint();
+					u[TARGET_DIR] = buf.get();
+					u[TARGET_FUEL] = readZigzag();
+					u[SHIELD] = buf.get();
+				}
+				barrels.clear();
+				readCells(true);
+				tag = buf.get();
+			}
+			if (tag == END) {
+				buf.position(buf.position() - 1);
+				return false;
+			}
+			if (tag != TICK) {
+				throw new IOException("bad record " + tag + " after update " + tick);
+			}
+
+			readCells(true);
+			readCells(false);
+			for (int i = 1; i <= 2; i++) {
+				int[] u = updates[i];
+				int flags = buf.get() & 0xFF;
+				// start where the last update left off
+				u[X] = u[TARGET_X];
+				u[Y] = u[TARGET_Y];
+				u[DIR] = u[TARGET_DIR];
+				u[FUEL] = u[TARGET_FUEL];
+				if ((flags & RESYNC) != 0) {
+					u[X] = readVarint();
+					u[Y] = readVarint();
+					u[DIR] = buf.get();
+					u[FUEL] = readZigzag();
+				}
+				u[ACTION] = flags & 0x07;
+				u[SHIELD] = (flags & SHIELD_BIT) != 0 ? 1 : 0;
+				u[TARGET_X] = u[X];
+				u[TARGET_Y] = u[Y];
+				u[TARGET_DIR] = u[DIR];
+				u[TARGET_FUEL] = u[FUEL];
+				if ((flags & MOVED) != 0) {
+					u[TARGET_X] += readZigzag();
+					u[TARGET_Y] += readZigzag();
+				}
+				if ((flags & TURNED) != 0) {
+					u[TARGET_DIR] = buf.get();
+				}
+				if ((flags & FUELLED) != 0) {
+					u[TARGET_FUEL] += readZigzag();
+				}
+			}
+			tick++;
+			return true;
+		}
+
+		private void readCells(boolean add) {
+			for (int n = readVarint(); n > 0; n--) {
+				int cell = readVarint();
+				Cell p = Cell.at(cell % World.SIZE, cell / World.SIZE);
+				if (add) {
+					barrels.add(p);
+				} else {
+					barrels.remove(p);
+				}
+			}
+		}
+
+		private int readZigzag() {
+			int n = readVarint();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		private int readVarint() {
+			int n = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = buf.get();
+				n |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return n;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plays a match in a world with no one watching (see World.headless),
+	 * until a robot runs out of fuel or maxTicks updates have passed, and
+	 * records it to the given log. Resets the world afterwards.
+	 *
+	 * @return the number of updates recorded
+	 */
+	static int record(World world, File log, int interval, long maxTicks) throws IOException, InterruptedException {
+		Writer writer = new Writer(log, interval);
+		world.setRecorder(writer);
+		try {
+			world.play(maxTicks, Long.MAX_VALUE);
+		} finally {
+			world.setRecorder(null);
+			writer.close();
+			world.reset();
+		}
+		return writer.ticks;
+	}
+
+	/**
+	 * Records a match between two programs without a window, or prints the
+	 * updates of a recorded match from any point, in the form Robot.readState
+	 * prints.
+	 *
+	 * Usage: MatchLog -record FILE [-interval K] [-ticks N] [-seed S] prog1
+	 * prog2
+	 * <br>
+	 * MatchLog [-seek T] [-count N] FILE
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File record = null;
+		int interval = DEFAULT_INTERVAL, seek = 0;
+		long ticks = Long.MAX_VALUE, count = Long.MAX_VALUE, seed = 1;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-record":
+				record = new File(args[i + 1]);
+				break;
+			case "-interval":
+				interval = Integer.parseInt(args[i + 1]);
+				break;
+			case "-ticks":
+				ticks = Long.parseLong(args[i + 1]);
+				break;
+			case "-seek":
+				seek = Integer.parseInt(args[i + 1]);
+				break;
+			case "-count":
+				count = Long.parseLong(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+
+		if (record == null) {
+			Reader reader = Reader.open(new File(args[i]));
+			reader.seek(seek);
+			for (long n = 0; n < count && reader.read(); n++) {
+				StringBuilder line = new StringBuilder("tick " + reader.getTick() + ":");
+				for (int r = 1; r <= 2; r++) {
+					int[] u = reader.getUpdate(r);
+					line.append(" [x=" + u[X] + " y=" + u[Y] + " dir=" + DIRECTIONS[u[DIR]] + " fuel=" + u[FUEL]
+							+ " shield=" + (u[SHIELD] != 0) + "]");
+				}
+				line.append(" barrels=" + reader.getBarrels().size());
+				System.out.println(line);
+			}
+			return;
+		}
+
+		RobotProgramNode prog1 = Parser.loadFile(new File(args[i]));
+		RobotProgramNode prog2 = Parser.loadFile(new File(args[i + 1]));
+		if (prog1 == null || prog2 == null) {
+			System.exit(1);
+		}
+		World world = World.headless(prog1, prog2, seed);
+		// what the robots' text histories would take, without keeping them
+		LongAdder text = new LongAdder();
+		for (int r = 1; r <= 2; r++) {
+			world.getRobot(r).setTrace(state -> text.add(state.length() + 1));
+		}
+		int updates = record(world, record, interval, ticks);
+		System.out.println(updates + " updates in " + record.length() + " bytes ("
+				+ String.format("%.1f", (double) record.length() / Math.max(1, updates))
+				+ " bytes/update); the robots' text histories take " + text.sum() + " bytes");
+	}
+}
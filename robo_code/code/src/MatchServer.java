@@ -0,0 +1,485 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP service that plays matches between submitted programs and
+ * streams back the results, using only the JDK's built-in HTTP server.
+ *
+ * POST /matches with a form (application/x-www-form-urlencoded) of:
+ * program1, program2 (the programs' source), and optionally seed (default 1),
+ * count (default 1), maxTicks (default 1000) and timeout (milliseconds per
+ * match, default 10000). The programs are parsed once, then count matches are
+ * played with seeds seed, seed + 1, and so on. The response is one JSON object
+ * per line, as each match finishes:
+ *
+ * <pre>
+ * {"seed":1,"ticks":14,"winner":1,"fuel":[42,-4],"dead":[false,true],"timedOut":false,"millis":3.2}
+ * </pre>
+ *
+ * winner is the robot that didn't run out of fuel, or the one with more fuel
+ * if neither or both did, or 0 for a draw. A match that ran out of time was
+ * cut short, so it has timedOut true and a null winner, and is best dropped.
+ * A program that doesn't parse gets
+ * a 400 response with {"error": message}. GET /stats describes the load.
+ *
+ * The worlds are pipelined (see TickPipeline), so the same programs and seed
+ * always give the same result, unless the match times out. A program gets as
+ * many statements a tick to choose its action as in a BatchSimulator, and
+ * does nothing in a tick it runs out of them, so only a slow machine (or a
+ * slow robot thread) makes a match time out.
+ *
+ * Matches run on a fixed pool of workers with a bounded queue. A request only
+ * queues matches while there is room, and waits for its own results to make
+ * more; so a busy server slows its clients down rather than growing without
+ * bound.
+ *
+ * Usage: MatchServer [-port P] [-workers N] [-queue Q], or MatchServer
+ * -check N [-queue Q] to check a server with two workers on a free port,
+ * with N matches (see check).
+ */
+public class MatchServer {
+
+	static final int DEFAULT_PORT = 8261;
+
+	/** The programs check plays: one that fetches barrels, one that never acts. */
+	private static final String CHECK_PROGRAM1 = "while(gt(fuelLeft, 0)){ if(eq(numBarrels, 0)){ wait; }"
+			+ " if(gt(numBarrels, 0)){ if(eq(barrelFB, 0)){ if(eq(barrelLR, 0)){ takeFuel; } }"
+			+ " if(gt(barrelFB, 0)){ move; } } }";
+	private static final String CHECK_PROGRAM2 = "while(gt(fuelLeft, 0)){ if(eq(numBarrels, 99)){ wait; } }";
+
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final ThreadPoolExecutor pool;
+	/** One permit for each match that may be running or queued. */
+	private final Semaphore capacity;
+	private final int maxMatches;
+	private final LongAdder completed = new LongAdder();
+	private final long started = System.nanoTime();
+
+	MatchServer(int port, int workers, int queue) throws IOException {
+		// capacity bounds the queue: a worker releases its permit a moment
+		// before it takes the next match, so a fixed size queue could reject one
+		pool = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), daemon("match"));
+		maxMatches = workers + queue;
+		capacity = new Semaphore(maxMatches);
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		handlers = Executors.newFixedThreadPool(Math.max(4, workers), daemon("match-http"));
+		server.setExecutor(handlers);
+		server.createContext("/matches", exchange -> {
+			try {
+				handleMatches(exchange);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				exchange.close();
+			}
+		});
+		server.createContext("/stats", exchange -> {
+			try {
+				respond(exchange, 200, stats());
+			} finally {
+				exchange.close();
+			}
+		});
+	}
+
+	void start() {
+		server.start();
+	}
+
+	void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+		pool.shutdownNow();
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handleMatches(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals("POST")) {
+			respond(exchange, 405, "{\"error\":\"use POST\"}");
+			return;
+		}
+		Map<String, String> form = parseForm(
+				new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		final RobotProgramNode prog1, prog2;
+		final long seed, maxTicks, timeout;
+		final int count;
+		try {
+			prog1 = parse(form, "program1");
+			prog2 = parse(form, "program2");
+			seed = Long.parseLong(form.getOrDefault("seed", "1"));
+			count = Integer.parseInt(form.getOrDefault("count", "1"));
+			maxTicks = Long.parseLong(form.getOrDefault("maxTicks", "1000"));
+			timeout = Long.parseLong(form.getOrDefault("timeout", "10000"));
+		} catch (ParserFailureException | IllegalArgumentException e) {
+			respond(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+			return;
+		}
+
+		exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+		exchange.sendResponseHeaders(200, 0);
+		OutputStream out = exchange.getResponseBody();
+		CompletionService<String> results = new ExecutorCompletionService<String>(pool);
+		int submitted = 0;
+		try {
+			for (int received = 0; received < count; received++) {
+				// queue what there is room for, but always at least one match
+				while (submitted < count) {
+					if (submitted > received) {
+						if (!capacity.tryAcquire()) {
+							break;
+						}
+					} else {
+						capacity.acquire();
+					}
+					final long matchSeed = seed + submitted;
+					results.submit(new Callable<String>() {
+						@Override
+						public String call() throws InterruptedException {
+							try {
+								return play(prog1, prog2, matchSeed, maxTicks, timeout);
+							} finally {
+								capacity.release();
+							}
+						}
+					});
+					submitted++;
+				}
+				String result;
+				try {
+					result = results.take().get();
+				} catch (ExecutionException e) {
+					result = "{\"error\":" + quote(String.valueOf(e.getCause())) + "}";
+				}
+				out.write((result + "\n").getBytes(StandardCharsets.UTF_8));
+				out.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		out.close();
+	}
+
+	/**
+	 * Plays one match in a new headless world (see World.headless).
+	 *
+	 * @return the result as JSON
+	 */
+	String play(RobotProgramNode prog1, RobotProgramNode prog2, long seed, long maxTicks, long timeout)
+			throws InterruptedException {
+		long start = System.nanoTime();
+		World world = World.headless(prog1, prog2, seed);
+		try {
+			long ticks = world.play(maxTicks, timeout);
+			Robot r1 = world.getRobot(1), r2 = world.getRobot(2);
+			int fuel1 = r1.getUpdate()[MatchLog.FUEL], fuel2 = r2.getUpdate()[MatchLog.FUEL];
+			boolean dead1 = r1.isDead(), dead2 = r2.isDead();
+			boolean timedOut = world.isTimedOut();
+			String winner;
+			if (timedOut) {
+				winner = "null";
+			} else if (dead1 != dead2) {
+				winner = dead1 ? "2" : "1";
+			} else {
+				winner = (fuel1 > fuel2) ? "1" : (fuel2 > fuel1) ? "2" : "0";
+			}
+			completed.increment();
+			return String.format(Locale.ROOT,
+					"{\"seed\":%d,\"ticks\":%d,\"winner\":%s,\"fuel\":[%d,%d],\"dead\":[%b,%b],\"timedOut\":%b,\"millis\":%.1f}",
+					seed, ticks, winner, fuel1, fuel2, dead1, dead2, timedOut, (System.nanoTime() - start) / 1e6);
+		} finally {
+			world.reset();
+		}
+	}
+
+	/**
+	 * queued counts the matches taken on but not running, by their permits:
+	 * the pool's own queue can hold one more for each worker that has just
+	 * released its permit.
+	 */
+	private String stats() {
+		double minutes = (System.nanoTime() - started) / 60e9;
+		int running = pool.getActiveCount();
+		int queued = Math.max(0, maxMatches - capacity.availablePermits() - running);
+		return String.format(Locale.ROOT,
+				"{\"workers\":%d,\"running\":%d,\"queued\":%d,\"completed\":%d,\"matchesPerMinute\":%.0f}",
+				pool.getMaximumPoolSize(), running, queued, completed.sum(), completed.sum() / minutes);
+	}
+
+	private static RobotProgramNode parse(Map<String, String> form, String field) {
+		String source = form.get(field);
+		if (source == null) {
+			throw new IllegalArgumentException("missing " + field);
+		}
+		try {
+			return Parser.parse(new Scanner(source), true);
+		} catch (ParserFailureException e) {
+			throw new ParserFailureException(field + ": " + e.getMessage());
+		}
+	}
+
+	private static Map<String, String> parseForm(String body) {
+		Map<String, String> form = new HashMap<String, String>();
+		for (String pair : body.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0) {
+				form.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return form;
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	static String quote(String s) {
+		StringBuilder b = new StringBuilder("\"");
+		for (char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				b.append('\\').append(c);
+			} else if (c < 0x20) {
+				b.append(String.format("\\u%04x", (int) c));
+			} else {
+				b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+
+	/**
+	 * Starts a server on a free port, and checks it. Two clients each ask
+	 * for the same count matches at once, and must each get a line for every
+	 * seed, with the same results for the same seed, and none timed out.
+	 * While they play, /stats must never show more matches running than
+	 * there are workers, nor more running and queued than the workers and
+	 * queue hold. Then /stats must count every match, and a
+	 * program that doesn't parse must get a 400.
+	 *
+	 * @return the number of problems, each of which is printed
+	 */
+	static long check(int count, int workers, int queue) throws IOException, InterruptedException {
+		MatchServer server = new MatchServer(0, workers, queue);
+		server.start();
+		final String base = "http://localhost:" + server.getPort();
+		final String form = "program1=" + URLEncoder.encode(CHECK_PROGRAM1, StandardCharsets.UTF_8) + "&program2="
+				+ URLEncoder.encode(CHECK_PROGRAM2, StandardCharsets.UTF_8) + "&count=" + count + "&maxTicks=200";
+		long problems = 0;
+		ExecutorService clients = Executors.newFixedThreadPool(3, daemon("match-check"));
+		try {
+			AtomicBoolean playing = new AtomicBoolean(true);
+			Future<Long> stats = clients.submit(() -> {
+				long busiest = 0;
+				while (playing.get()) {
+					String json = get(base + "/stats");
+					long running = Long.parseLong(field(json, "running"));
+					long queued = Long.parseLong(field(json, "queued"));
+					if (running > workers || running + queued > workers + queue) {
+						System.out.println("Over capacity: " + json);
+						busiest = Long.MAX_VALUE;
+					} else {
+						busiest = Math.max(busiest, queued);
+					}
+					Thread.sleep(1);
+				}
+				return busiest;
+			});
+			List<Future<String[]>> requests = new ArrayList<Future<String[]>>();
+			for (int c = 0; c < 2; c++) {
+				requests.add(clients.submit(() -> post(base + "/matches", form, 200).split("\n")));
+			}
+			List<Map<Long, String>> results = new ArrayList<Map<Long, String>>();
+			for (Future<String[]> request : requests) {
+				Map<Long, String> bySeed = new HashMap<Long, String>();
+				for (String line : request.get()) {
+					long seed = Long.parseLong(field(line, "seed"));
+					if (!field(line, "timedOut").equals("false") || field(line, "winner").equals("null")) {
+						System.out.println("Timed out: " + line);
+						problems++;
+					}
+					// everything but the time taken should repeat
+					if (bySeed.put(seed, line.replaceFirst(",\"millis\":[^}]*", "")) != null) {
+						System.out.println("Seed " + seed + " twice: " + line);
+						problems++;
+					}
+				}
+				for (long seed = 1; seed <= count; seed++) {
+					if (!bySeed.containsKey(seed)) {
+						System.out.println("No result for seed " + seed);
+						problems++;
+					}
+				}
+				results.add(bySeed);
+			}
+			for (Map.Entry<Long, String> e : results.get(0).entrySet()) {
+				String other = results.get(1).get(e.getKey());
+				if (other != null && !other.equals(e.getValue())) {
+					System.out.println("Seed " + e.getKey() + " played differently: " + e.getValue() + " and " + other);
+					problems++;
+				}
+			}
+			playing.set(false);
+			long busiest = stats.get();
+			if (busiest == Long.MAX_VALUE) {
+				problems++;
+			} else {
+				System.out.println("At most " + busiest + " of " + queue + " matches queued");
+			}
+
+			String json = get(base + "/stats");
+			if (Long.parseLong(field(json, "completed")) != 2L * count) {
+				System.out.println("Expected " + 2 * count + " matches completed: " + json);
+				problems++;
+			}
+			String error = post(base + "/matches", "program1=move&program2=move;", 400);
+			if (error == null || !error.startsWith("{\"error\":\"program1: ")) {
+				System.out.println("Expected a 400 for program1: " + error);
+				problems++;
+			}
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			problems++;
+		} finally {
+			clients.shutdownNow();
+			server.stop();
+		}
+		return problems;
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (InputStream in = connection.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+		}
+	}
+
+	/**
+	 * @return the body of the response, or null if its status isn't the one
+	 *         expected
+	 */
+	private static String post(String url, String form, int status) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setDoOutput(true);
+		connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(form.getBytes(StandardCharsets.UTF_8));
+		}
+		if (connection.getResponseCode() != status) {
+			return null;
+		}
+		InputStream body = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+		StringBuilder lines = new StringBuilder();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				lines.append(line).append('\n');
+			}
+		}
+		return lines.toString().trim();
+	}
+
+	/**
+	 * @return the value of a number, boolean or null field of a flat JSON
+	 *         object, as written
+	 */
+	private static String field(String json, String name) {
+		int start = json.indexOf("\"" + name + "\":");
+		if (start < 0) {
+			throw new IllegalArgumentException("no " + name + " in " + json);
+		}
+		start += name.length() + 3;
+		int end = start;
+		while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+			end++;
+		}
+		return json.substring(start, end);
+	}
+
+	private static java.util.concurrent.ThreadFactory daemon(final String name) {
+		return r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		int workers = 2 * Runtime.getRuntime().availableProcessors();
+		int queue = -1, check = 0;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-port":
+				port = Integer.parseInt(args[i + 1]);
+				break;
+			case "-workers":
+				workers = Integer.parseInt(args[i + 1]);
+				break;
+			case "-queue":
+				queue = Integer.parseInt(args[i + 1]);
+				break;
+			case "-check":
+				check = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (check > 0) {
+			try {
+				// two workers and a small queue, so that the clients have to wait for them
+				long problems = check(check, 2, (queue < 0) ? 2 : queue);
+				System.out.println(check + " matches for each of 2 clients, " + problems + " problems");
+				System.exit(problems == 0 ? 0 : 1);
+			} catch (InterruptedException e) {
+				System.exit(1);
+			}
+		}
+
+		MatchServer server = new MatchServer(port, workers, (queue < 0) ? 4 * workers : queue);
+		server.start();
+		System.out.println("Playing matches on " + workers + " workers at http://localhost:" + server.getPort() + "/matches");
+	}
+}
@@ -0,0 +1,190 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The results of headless matches, kept in a file so that a tournament that
+ * is run again only plays the matches it has no result for. A result is
+ * keyed by the two programs (by a hash of their printed source, so that
+ * reformatting a file doesn't make it a new program), the seed, the most
+ * ticks the match could last and the version of the engine that played it
+ * (BatchSimulator.ENGINE_VERSION).
+ *
+ * The file is a log that is only appended to. All numbers are big-endian:
+ *
+ * <pre>
+ * header:  magic "RBMS", u8 version
+ * record:  s64 program 1, s64 program 2, s64 seed, s64 max ticks, u32 engine,
+ *          u32 ticks, s32 fuel 1, s32 fuel 2, u8 winner,
+ *          u8 flags (1 if robot 1 died, 2 if robot 2 did)
+ * </pre>
+ *
+ * Opening a store reads the whole log into an index in memory; a later
+ * record for the same key replaces an earlier one. A record cut short (by a
+ * crash while writing it) is cut off before anything more is appended.
+ */
+class MatchStore implements Closeable {
+
+	static final int MAGIC = 0x52424D53; // "RBMS"
+	static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 5;
+	private static final int RECORD_SIZE = 50;
+	private static final int DEAD1 = 1, DEAD2 = 2;
+
+	/** Which match a result is of. */
+	static class Key {
+		final long program1, program2, seed, maxTicks;
+		final int engine;
+
+		Key(long program1, long program2, long seed, long maxTicks, int engine) {
+			this.program1 = program1;
+			this.program2 = program2;
+			this.seed = seed;
+			this.maxTicks = maxTicks;
+			this.engine = engine;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return program1 == k.program1 && program2 == k.program2 && seed == k.seed && maxTicks == k.maxTicks
+					&& engine == k.engine;
+		}
+
+		@Override
+		public int hashCode() {
+			long h = program1 * 31 + program2;
+			h = h * 31 + seed;
+			h = h * 31 + maxTicks;
+			h = h * 31 + engine;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+
+	/** How a match ended. */
+	static class Result {
+		final int ticks, winner, fuel1, fuel2;
+		final boolean dead1, dead2;
+
+		Result(int ticks, int winner, int fuel1, int fuel2, boolean dead1, boolean dead2) {
+			this.ticks = ticks;
+			this.winner = winner;
+			this.fuel1 = fuel1;
+			this.fuel2 = fuel2;
+			this.dead1 = dead1;
+			this.dead2 = dead2;
+		}
+
+		/**
+		 * @return how match m of a simulator that has been run ended
+		 */
+		static Result of(BatchSimulator sim, int m) {
+			return new Result(sim.getTicks(m), sim.getWinner(m), sim.getFuel(m, 1), sim.getFuel(m, 2),
+					sim.isDead(m, 1), sim.isDead(m, 2));
+		}
+	}
+
+	private final File file;
+	private final Map<Key, Result> index;
+	private final DataOutputStream out;
+
+	private MatchStore(File file) throws IOException {
+		this.file = file;
+		long records = Math.max(0, (file.length() - HEADER_SIZE) / RECORD_SIZE);
+		index = new HashMap<Key, Result>((int) Math.min(1 << 30, records * 4 / 3 + 16));
+		if (file.length() > 0) {
+			read(records);
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(HEADER_SIZE + records * RECORD_SIZE);
+			}
+		}
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+		if (file.length() == 0) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Opens the store in the given file, creating it if need be.
+	 */
+	static MatchStore open(File file) throws IOException {
+		return new MatchStore(file);
+	}
+
+	/**
+	 * Reads the given number of records, every whole one, into the index.
+	 */
+	private void read(long records) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath())) {
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) {
+				throw new IOException(file + " is not a match store");
+			}
+			int version = buf.get() & 0xFF;
+			if (version != VERSION) {
+				throw new IOException(file + " is a version " + version + " match store, not " + VERSION);
+			}
+			for (long r = 0; r < records; r++) {
+				Key key = new Key(buf.getLong(), buf.getLong(), buf.getLong(), buf.getLong(), buf.getInt());
+				int ticks = buf.getInt(), fuel1 = buf.getInt(), fuel2 = buf.getInt();
+				int winner = buf.get() & 0xFF, flags = buf.get() & 0xFF;
+				index.put(key, new Result(ticks, winner, fuel1, fuel2, (flags & DEAD1) != 0, (flags & DEAD2) != 0));
+			}
+		}
+	}
+
+	/**
+	 * @return the stored result of the match, or null if there is none
+	 */
+	synchronized Result get(Key key) {
+		return index.get(key);
+	}
+
+	/**
+	 * Stores the result of a match. It is written to the file when the store
+	 * is flushed or closed, or as the buffer fills.
+	 */
+	synchronized void put(Key key, Result result) throws IOException {
+		index.put(key, result);
+		out.writeLong(key.program1);
+		out.writeLong(key.program2);
+		out.writeLong(key.seed);
+		out.writeLong(key.maxTicks);
+		out.writeInt(key.engine);
+		out.writeInt(result.ticks);
+		out.writeInt(result.fuel1);
+		out.writeInt(result.fuel2);
+		out.writeByte(result.winner);
+		out.writeByte((result.dead1 ? DEAD1 : 0) | (result.dead2 ? DEAD2 : 0));
+	}
+
+	/**
+	 * @return the number of matches with a stored result
+	 */
+	synchronized int size() {
+		return index.size();
+	}
+
+	synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
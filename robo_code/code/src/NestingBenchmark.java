@@ -0,0 +1,89 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Benchmark for parsing and running very deeply nested programs. Generates a
+ * program whose body is nested the given number of levels deep (alternating
+ * if, if-else and while), then times parsing it and running it headless.
+ *
+ * Usage: NestingBenchmark [depth] [repetitions]
+ */
+public class NestingBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		int reps = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		File file = File.createTempFile("nested", ".prog");
+		file.deleteOnExit();
+		Files.write(file.toPath(), nestedProgram(depth).getBytes(StandardCharsets.UTF_8));
+
+		PrintStream out = System.out;
+		Robot.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			for (int rep = 1; rep <= reps; rep++) {
+				long start = System.nanoTime();
+				RobotProgramNode prog = Parser.parseFile(file);
+				long parsed = System.nanoTime();
+				if (prog == null) {
+					out.println("Failed to parse the generated program");
+					return;
+				}
+
+				World.RoboGamePrinter world = new World.RoboGamePrinter();
+				Robot robot = world.getRobot(1);
+				robot.setProgram(prog);
+				long run = System.nanoTime();
+				robot.run();
+				long done = System.nanoTime();
+
+				out.println("depth " + depth + " rep " + rep + ": parse " + (parsed - start) / 1000000 + "ms, run "
+						+ (done - run) / 1000000 + "ms (" + robot.getHistory().size() + " actions)");
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * A program that keeps running the nested body while it has fuel. Every
+	 * if condition on the way down is true, and every while runs until the
+	 * fuel is gone, so the whole program runs until the robot is out of fuel.
+	 */
+	static String nestedProgram(int depth) {
+		StringBuilder prog = new StringBuilder();
+		prog.append("while(gt(fuelLeft, 0)) {\n");
+		for (int i = 0; i < depth; i++) {
+			switch (i % 3) {
+			case 0:
+				prog.append("if(lt(fuelLeft, 1000)) {\n");
+				break;
+			case 1:
+				prog.append("if(gt(fuelLeft, -1000)) {\n");
+				break;
+			default:
+				prog.append("while(gt(fuelLeft, 0)) {\n");
+			}
+		}
+		prog.append("move;\nturnL;\n");
+		for (int i = depth - 1; i >= 0; i--) {
+			switch (i % 3) {
+			case 0:
+				prog.append("}\n");
+				break;
+			case 1:
+				prog.append("} else {\nwait;\n}\n");
+				break;
+			default:
+				prog.append("shieldOn;\nwait;\nshieldOff;\n}\n");
+			}
+		}
+		prog.append("}\n");
+		return prog.toString();
+	}
+}
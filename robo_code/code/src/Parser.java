@@ -1,6 +1,9 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.*;
 import javax.swing.JFileChooser;
 
@@ -15,16 +18,29 @@ public class Parser {
 	 * Top level parse method, called by the World
 	 */
 	static RobotProgramNode parseFile(File code) {
+		return parseFile(code, true);
+	}
+
+	/**
+	 * Loads a program from either its source or its compiled form (see
+	 * {@link CompiledProgram}).
+	 */
+	static RobotProgramNode loadFile(File code) {
+		if (CompiledProgram.isCompiled(code)) {
+			return CompiledProgram.load(code);
+		}
+		return parseFile(code);
+	}
+
+	/**
+	 * Parses a program, and if freeze is true, compacts it with
+	 * {@link ProgramFreezer#freeze} before returning it.
+	 */
+	static RobotProgramNode parseFile(File code, boolean freeze) {
 		Scanner scan = null;
 		try {
 			scan = new Scanner(code);
-
-			// the only time tokens can be next to each other is
-			// when one of them is one of (){},;
-			scan.useDelimiter("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
-
-			RobotProgramNode n = parseProgram(scan); // You need to implement this!!!
-
+			RobotProgramNode n = parse(scan, freeze);
 			scan.close();
 			return n;
 		} catch (FileNotFoundException e) {
@@ -37,6 +53,48 @@ public class Parser {
 		return null;
 	}
 
+	/**
+	 * Parses a program read from a stream, printing any parser error as
+	 * parseFile does. Unlike a Scanner, this doesn't treat a failed read as the
+	 * end of the program: the read's exception is thrown instead.
+	 */
+	static RobotProgramNode parseStream(InputStream in, boolean freeze) throws IOException {
+		Scanner scan = new Scanner(in);
+		RobotProgramNode n = null;
+		try {
+			n = parse(scan, freeze);
+		} catch (ParserFailureException e) {
+			if (scan.ioException() == null) {
+				System.out.println("Parser error:");
+				System.out.println(e.getMessage());
+			}
+		}
+		if (scan.ioException() != null) {
+			throw scan.ioException();
+		}
+		return n;
+	}
+
+	/**
+	 * Parses a whole program from a scanner over its source, without
+	 * reporting errors. parseFile uses this, and so can anything that already
+	 * has the source in memory.
+	 *
+	 * @throws ParserFailureException
+	 *             if the program is not valid
+	 */
+	static RobotProgramNode parse(Scanner scan, boolean freeze) {
+		// the only time tokens can be next to each other is
+		// when one of them is one of (){},;
+		scan.useDelimiter(Patterns.DELIMITER);
+
+		RobotProgramNode n = parseProgram(scan); // You need to implement this!!!
+		if (freeze) {
+			n = ProgramFreezer.freeze(n);
+		}
+		return n;
+	}
+
 	/** For testing the parser without requiring the world */
 
 	public static void main(String[] args) {
@@ -76,171 +134,210 @@ public class Parser {
 
 	// Useful Patterns
 
-	static Pattern NUMPAT = Pattern.compile("-?\\d+"); // ("-?(0|[1-9][0-9]*)");
-	static Pattern OPENPAREN = Pattern.compile("\\(");
-	static Pattern CLOSEPAREN = Pattern.compile("\\)");
-	static Pattern OPENBRACE = Pattern.compile("\\{");
-	static Pattern CLOSEBRACE = Pattern.compile("\\}");
-	static Pattern ACTION = Pattern.compile("move|turnL|turnR|takeFuel|wait|shieldOn|shieldOff|turnAround");
-	static Pattern SENSOR = Pattern.compile("fuelLeft|oppLR|oppFB|numBarrels|barrelLR|barrelFB|wallDist");
+	/**
+	 * The patterns, compiled when the first program is parsed rather than when
+	 * Parser is loaded: loading a compiled program, or choosing a file in
+	 * main, needs none of them.
+	 *
+	 * Patterns given as strings are compiled once here as well. Scanner only
+	 * keeps the last seven it was given, fewer than the parser uses, so it
+	 * would compile most of them again for every token.
+	 */
+	private static class Patterns {
+		static final Pattern DELIMITER = Pattern.compile("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
+		static final Pattern NUMPAT = Pattern.compile("-?\\d+"); // ("-?(0|[1-9][0-9]*)");
+		static final Pattern OPENPAREN = Pattern.compile("\\(");
+		static final Pattern CLOSEPAREN = Pattern.compile("\\)");
+		static final Pattern OPENBRACE = Pattern.compile("\\{");
+		static final Pattern CLOSEBRACE = Pattern.compile("\\}");
+		static final Pattern ACTION = Pattern.compile("move|turnL|turnR|takeFuel|wait|shieldOn|shieldOff|turnAround");
+		static final Pattern SENSOR = Pattern.compile("fuelLeft|oppLR|oppFB|numBarrels|barrelLR|barrelFB|wallDist");
+
+		private static final Map<String, Pattern> compiled = new ConcurrentHashMap<String, Pattern>();
+
+		static Pattern of(String p) {
+			Pattern pattern = compiled.get(p);
+			if (pattern == null) {
+				pattern = Pattern.compile(p);
+				compiled.put(p, pattern);
+			}
+			return pattern;
+		}
+	}
 
 	/**
 	 * See assignment handout for the grammar.
+	 *
+	 * Blocks are parsed with an explicit stack of the blocks that are still
+	 * open, rather than by recursion, so that the nesting depth of a program is
+	 * limited only by the heap.
 	 */
 	static RobotProgramNode parseProgram(Scanner s) {
-		// THE PARSER GOES HERE
 		ArrayList<RobotProgramNode> initNodeList = new ArrayList<RobotProgramNode>();
-		while (s.hasNext()) {
-			initNodeList.add(parseStatement(s));
+		ArrayDeque<OpenBlock> open = new ArrayDeque<OpenBlock>();
+		while (true) {
+			if (open.isEmpty()) {
+				if (!s.hasNext()) {
+					break;
+				}
+			} else if (s.hasNext(Patterns.CLOSEBRACE)) {
+				s.next();
+				OpenBlock closed = open.pop();
+				RobotProgramNode rpn = closeBlock(closed, s);
+				if (rpn == null) {
+					// an if that has an else, whose block is now open
+					open.push(new OpenBlock(OpenBlock.ELSE, closed.cond, new BlockNode(closed.nodes)));
+					requireOpenBrace(s);
+					continue;
+				}
+				(open.isEmpty() ? initNodeList : open.peek().nodes).add(rpn);
+				continue;
+			}
+			OpenBlock block = parseStatement(s, open.isEmpty() ? initNodeList : open.peek().nodes);
+			if (block != null) {
+				open.push(block);
+				requireOpenBrace(s);
+			}
 		}
 		return new ProgramNode(initNodeList);
 	}
 
 	// utility methods for the parser
 
-	private static RobotProgramNode parseStatement(Scanner s) {
-		if (s.hasNext(ACTION)) {
+	/**
+	 * A loop, while, if or else whose block has been opened but not yet
+	 * closed.
+	 */
+	private static class OpenBlock {
+		static final int LOOP = 0, WHILE = 1, IF = 2, ELSE = 3;
+
+		final int kind;
+		final RobotConditionNode cond;
+		final BlockNode ifblock;
+		final ArrayList<RobotProgramNode> nodes = new ArrayList<RobotProgramNode>();
+
+		OpenBlock(int kind, RobotConditionNode cond, BlockNode ifblock) {
+			this.kind = kind;
+			this.cond = cond;
+			this.ifblock = ifblock;
+		}
+	}
+
+	/**
+	 * Parses the next statement. An action is added to nodes straight away;
+	 * for a loop, while or if, everything up to its block is consumed and the
+	 * block is returned for the caller to fill in.
+	 */
+	private static OpenBlock parseStatement(Scanner s, List<RobotProgramNode> nodes) {
+		if (s.hasNext(Patterns.ACTION)) {
 			RobotProgramNode action = parseAction(s);
 			if (action != null) {
 				require(";", "Action does not have a ';'", s);
-				return action;
+				nodes.add(action);
+				return null;
 			}
 		}
 
-		if (s.hasNext("loop")) {
-			RobotProgramNode rpn = parseLoop(s);
-			if (rpn != null)
-				return rpn;
+		if (checkFor("loop", s)) {
+			return new OpenBlock(OpenBlock.LOOP, null, null);
 		}
 
-		if (s.hasNext("if")) {
-			RobotProgramNode rpn = parseIf(s);
-			if (rpn != null)
-				return rpn;
+		if (checkFor("if", s)) {
+			return new OpenBlock(OpenBlock.IF, parseCondition(s), null);
 		}
 
-		if (s.hasNext("while")) {
-			RobotProgramNode rpn = parseWhile(s);
-			if (rpn != null)
-				return rpn;
+		if (checkFor("while", s)) {
+			return new OpenBlock(OpenBlock.WHILE, parseCondition(s), null);
 		}
 		fail("Parsing failed, statement not recognized", s);
 		return null;
 	}
 
-	private static RobotProgramNode parseLoop(Scanner s) {
-		if (checkFor("loop", s)) {
-			BlockNode blocknode = parseBlock(s);
-
-			if (blocknode != null) {
-				return blocknode;
-			}
-		}
-		return null;
-	}
-
-	private static BlockNode parseBlock(Scanner s) {
-		BlockNode node = new BlockNode();
-		require(OPENBRACE, "Open Bracket", s);
-		if (s.hasNext(CLOSEBRACE)) {
-			fail("parsing failed, block is empty", s);
-		}
-		while (!s.hasNext(CLOSEBRACE)) {
-			RobotProgramNode RPNNode = parseStatement(s);
-			if (RPNNode != null) {
-				node.getNodeList().add(RPNNode);
-			} else {
-				fail("Statement parsing failed!", s);
+	/**
+	 * Builds the node for a block whose closing brace has just been consumed.
+	 * Returns null if the block is the first part of an if which is followed
+	 * by an else.
+	 */
+	private static RobotProgramNode closeBlock(OpenBlock closed, Scanner s) {
+		BlockNode block = new BlockNode(closed.nodes);
+		switch (closed.kind) {
+		case OpenBlock.WHILE:
+			return new whileNode(block, closed.cond);
+		case OpenBlock.IF:
+			if (checkFor("else", s)) {
+				return null;
 			}
+			return new ifNode(block, closed.cond);
+		case OpenBlock.ELSE:
+			return new ifNode(closed.ifblock, closed.cond, block);
+		default:
+			return block;
 		}
-		require(CLOSEBRACE, "Close bracket", s);
-		return node;
 	}
 
-	static RobotProgramNode parseWhile(Scanner s) {
-		require("while", "Missing While!", s);
-		require(OPENPAREN, "Missing opening parenthesis", s);
+	private static RobotConditionNode parseCondition(Scanner s) {
+		require(Patterns.OPENPAREN, "Missing opening parenthesis", s);
 		RobotConditionNode condNode = parseCOND(s);
-		require(CLOSEPAREN, "Missing closing parenthesis", s);
-		BlockNode blockNode = parseBlock(s);
-		RobotProgramNode whileNode = new whileNode(blockNode, condNode);
+		require(Patterns.CLOSEPAREN, "Missing closing parenthesis", s);
+		return condNode;
+	}
 
-		if (whileNode != null) {
-			System.out.println("returns the whileNode");
-			return whileNode;
+	private static void requireOpenBrace(Scanner s) {
+		require(Patterns.OPENBRACE, "Open Bracket", s);
+		if (s.hasNext(Patterns.CLOSEBRACE)) {
+			fail("parsing failed, block is empty", s);
 		}
-		return null;
 	}
 
 	static RobotConditionNode parseCOND(Scanner s) {
 		if (checkFor("gt", s)) {
-			require(OPENPAREN, "Missing opening parenthesis", s);
+			require(Patterns.OPENPAREN, "Missing opening parenthesis", s);
 			RobotConditionNode rcn = parseGtNode(s);
-			require(CLOSEPAREN, "Missing closing parenthesis", s);
+			require(Patterns.CLOSEPAREN, "Missing closing parenthesis", s);
 			return rcn;
 		}
 
 		if (checkFor("lt", s)) {
-			require(OPENPAREN, "Missing opening parenthesis", s);
+			require(Patterns.OPENPAREN, "Missing opening parenthesis", s);
 			RobotConditionNode rcn = parseLtNode(s);
-			require(CLOSEPAREN, "Missing closing parenthesis", s);
+			require(Patterns.CLOSEPAREN, "Missing closing parenthesis", s);
 			return rcn;
 		}
 
 		if (checkFor("eq", s)) {
-			require(OPENPAREN, "Missing opening parenthesis", s);
+			require(Patterns.OPENPAREN, "Missing opening parenthesis", s);
 			RobotConditionNode rcn = parseEqNode(s);
-			require(CLOSEPAREN, "Missing closing parenthesis", s);
+			require(Patterns.CLOSEPAREN, "Missing closing parenthesis", s);
 			return rcn;
 		}
+		fail("Missing condition", s);
 		return null;
-
 	}
 
 	static RobotConditionNode parseGtNode(Scanner s) {
-		String sensor = require(SENSOR, "Missing sensor!", s);
+		String sensor = require(Patterns.SENSOR, "Missing sensor!", s);
 		require(",", "Missing ','!", s);
-		int x = requireInt(NUMPAT, "Missing a number!", s);
+		int x = requireInt(Patterns.NUMPAT, "Missing a number!", s);
 		return new gtNode(sensor, x);
 
 	}
 
 	static RobotConditionNode parseLtNode(Scanner s) {
-		String sensor = require(SENSOR, "Missing sensor!", s);
+		String sensor = require(Patterns.SENSOR, "Missing sensor!", s);
 		require(",", "Missing ','!", s);
-		int x = requireInt(NUMPAT, "Missing a number!", s);
+		int x = requireInt(Patterns.NUMPAT, "Missing a number!", s);
 		return new ltNode(sensor, x);
 
 	}
 
 	static RobotConditionNode parseEqNode(Scanner s) {
-		String sensor = require(SENSOR, "Missing sensor!", s);
+		String sensor = require(Patterns.SENSOR, "Missing sensor!", s);
 		require(",", "Missing ','!", s);
-		int x = requireInt(NUMPAT, "Missing a number!", s);
+		int x = requireInt(Patterns.NUMPAT, "Missing a number!", s);
 		return new eqNode(sensor, x);
 
 	}
 
-	private static RobotProgramNode parseIf(Scanner s) {
-		System.out.println("tettt");
-		require("if", "Missing if!", s);
-		require(OPENPAREN, "Missing opening parenthesis", s);
-		RobotConditionNode condNode = parseCOND(s);
-		require(CLOSEPAREN, "Missing closing parenthesis", s);
-		BlockNode ifblock = parseBlock(s);
-
-		if (checkFor("else", s)) {
-			BlockNode elseblock = parseBlock(s);
-			return new ifNode(ifblock, condNode, elseblock);
-		}
-
-		RobotProgramNode ifNode = new ifNode(ifblock, condNode);
-		if (ifNode != null) {
-			return ifNode;
-		}
-		return null;
-	}
-
 	private static RobotProgramNode parseAction(Scanner s) {
 
 		if (checkFor("turnL", s))
@@ -269,8 +366,8 @@ public class Parser {
 	}
 
 	static class gtNode implements RobotConditionNode {
-		String sensor;
-		int num;
+		final String sensor;
+		final int num;
 
 		gtNode(String s, int i) {
 			this.sensor = s;
@@ -278,7 +375,8 @@ public class Parser {
 		}
 
 		@Override
-		public boolean evaluate(Robot robot) {
+		public boolean evaluate(ExecutionContext ctx) {
+			RobotControl robot = ctx.getRobot();
 			if (sensor.equals("fuelLeft")) {
 				if (robot.getFuel() > num) {
 					return true;
@@ -336,8 +434,8 @@ public class Parser {
 
 	static class ltNode implements RobotConditionNode {
 
-		String sensor;
-		int num;
+		final String sensor;
+		final int num;
 
 		ltNode(String s, int i) {
 			this.sensor = s;
@@ -345,7 +443,8 @@ public class Parser {
 		}
 
 		@Override
-		public boolean evaluate(Robot robot) {
+		public boolean evaluate(ExecutionContext ctx) {
+			RobotControl robot = ctx.getRobot();
 			if (sensor.equals("fuelLeft")) {
 
 				if (robot.getFuel() < num) {
@@ -404,8 +503,8 @@ public class Parser {
 	}
 
 	static class eqNode implements RobotConditionNode {
-		String sensor;
-		int num;
+		final String sensor;
+		final int num;
 
 		eqNode(String s, int i) {
 			this.sensor = s;
@@ -413,7 +512,8 @@ public class Parser {
 		}
 
 		@Override
-		public boolean evaluate(Robot robot) {
+		public boolean evaluate(ExecutionContext ctx) {
+			RobotControl robot = ctx.getRobot();
 			if (sensor.equals("fuelLeft")) {
 				if (robot.getFuel() == num) {
 					return true;
@@ -487,7 +587,7 @@ public class Parser {
 	 * message
 	 */
 	static String require(String p, String message, Scanner s) {
-		if (s.hasNext(p)) {
+		if (s.hasNext(Patterns.of(p))) {
 			return s.next();
 		}
 		fail(message, s);
@@ -508,7 +608,7 @@ public class Parser {
 	 * not, it throws an exception with an error message
 	 */
 	static int requireInt(String p, String message, Scanner s) {
-		if (s.hasNext(p) && s.hasNextInt()) {
+		if (s.hasNext(Patterns.of(p)) && s.hasNextInt()) {
 			return s.nextInt();
 		}
 		fail(message, s);
@@ -529,7 +629,7 @@ public class Parser {
 	 * false without consuming anything.
 	 */
 	static boolean checkFor(String p, Scanner s) {
-		if (s.hasNext(p)) {
+		if (s.hasNext(Patterns.of(p))) {
 			s.next();
 			return true;
 		} else {
@@ -557,7 +657,8 @@ public class Parser {
 class TurnLNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.turnLeft();
 	}
 
@@ -570,7 +671,8 @@ class TurnLNode implements RobotProgramNode {
 class TurnRNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.turnRight();
 	}
 
@@ -582,7 +684,8 @@ class TurnRNode implements RobotProgramNode {
 
 class moveNode implements RobotProgramNode {
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.move();
 	}
 
@@ -595,7 +698,8 @@ class moveNode implements RobotProgramNode {
 class takeFuelNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.takeFuel();
 	}
 
@@ -608,7 +712,8 @@ class takeFuelNode implements RobotProgramNode {
 class waitNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.idleWait();
 	}
 
@@ -618,15 +723,15 @@ class waitNode implements RobotProgramNode {
 }
 
 class LoopNode implements RobotProgramNode {
-	BlockNode block;
+	final BlockNode block;
 
 	LoopNode(BlockNode block) {
 		this.block = block;
 	}
 
 	@Override
-	public void execute(Robot robot) {
-		block.execute(robot);
+	public void execute(ExecutionContext ctx) {
+		ctx.execute(this);
 	}
 
 	public String toString() {
@@ -635,8 +740,8 @@ class LoopNode implements RobotProgramNode {
 }
 
 class whileNode implements RobotProgramNode {
-	BlockNode blocknode;
-	RobotConditionNode condnode;
+	final BlockNode blocknode;
+	final RobotConditionNode condnode;
 
 	whileNode(BlockNode blocknode, RobotConditionNode condnode) {
 		this.blocknode = blocknode;
@@ -644,10 +749,8 @@ class whileNode implements RobotProgramNode {
 	}
 
 	@Override
-	public void execute(Robot robot) {
-		while (condnode.evaluate(robot)) {
-			blocknode.execute(robot);
-		}
+	public void execute(ExecutionContext ctx) {
+		ctx.execute(this);
 	}
 
 	public String toString() {
@@ -657,13 +760,12 @@ class whileNode implements RobotProgramNode {
 }
 
 class ifNode implements RobotProgramNode {
-	BlockNode ifblock;
-	BlockNode elseblock;
-	RobotConditionNode condnode;
+	final BlockNode ifblock;
+	final BlockNode elseblock;
+	final RobotConditionNode condnode;
 
 	ifNode(BlockNode block, RobotConditionNode rcn) {
-		this.ifblock = block;
-		this.condnode = rcn;
+		this(block, rcn, null);
 	}
 
 	ifNode(BlockNode block, RobotConditionNode rcn, BlockNode block2) {
@@ -673,18 +775,8 @@ class ifNode implements RobotProgramNode {
 	}
 
 	@Override
-	public void execute(Robot robot) {
-		if (elseblock == null) {
-			if (condnode.evaluate(robot)) {
-				ifblock.execute(robot);
-			}
-		} else {
-			if (condnode.evaluate(robot)) {
-				ifblock.execute(robot);
-			} else {
-				elseblock.execute(robot);
-			}
-		}
+	public void execute(ExecutionContext ctx) {
+		ctx.execute(this);
 	}
 
 	public String toString() {
@@ -697,18 +789,29 @@ class ifNode implements RobotProgramNode {
 
 }
 
+/**
+ * A sequence of statements. The statements are held in an exact-size array
+ * that is never changed once parsed; the position reached in it lives in the
+ * executing context's frame, not in the node.
+ */
 class BlockNode implements RobotProgramNode {
-	ArrayList<RobotProgramNode> nodes = new ArrayList<RobotProgramNode>();
+	final RobotProgramNode[] nodes;
+
+	BlockNode(List<RobotProgramNode> nodes) {
+		this(nodes.toArray(new RobotProgramNode[nodes.size()]));
+	}
+
+	BlockNode(RobotProgramNode[] nodes) {
+		this.nodes = nodes;
+	}
 
 	@Override
-	public void execute(Robot robot) {
-		for (RobotProgramNode n : nodes) {
-			n.execute(robot);
-		}
+	public void execute(ExecutionContext ctx) {
+		ctx.execute(this);
 	}
 
-	public ArrayList<RobotProgramNode> getNodeList() {
-		return this.nodes;
+	public List<RobotProgramNode> getNodeList() {
+		return Collections.unmodifiableList(Arrays.asList(this.nodes));
 	}
 
 	public String toString() {
@@ -722,19 +825,25 @@ class BlockNode implements RobotProgramNode {
 	}
 }
 
+/**
+ * The compiled form of a whole robot program. It is immutable, so one instance
+ * may be handed to any number of robots, each running it in its own
+ * {@link ExecutionContext}.
+ */
 class ProgramNode implements RobotProgramNode {
-	ArrayList<RobotProgramNode> nodes = new ArrayList<RobotProgramNode>();
+	final RobotProgramNode[] nodes;
+
+	ProgramNode(List<RobotProgramNode> nodes) {
+		this(nodes.toArray(new RobotProgramNode[nodes.size()]));
+	}
 
-	ProgramNode(ArrayList<RobotProgramNode> nodes) {
+	ProgramNode(RobotProgramNode[] nodes) {
 		this.nodes = nodes;
 	}
 
 	@Override
-	public void execute(Robot robot) {
-		for (RobotProgramNode n : nodes) {
-			n.execute(robot);
-		}
-
+	public void execute(ExecutionContext ctx) {
+		ctx.execute(this);
 	}
 
 	public String toString() {
@@ -750,7 +859,8 @@ class ProgramNode implements RobotProgramNode {
 class shieldOnNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.setShield(true);
 	}
 
@@ -763,7 +873,8 @@ class shieldOnNode implements RobotProgramNode {
 class shieldOffNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.setShield(false);
 	}
 
@@ -776,7 +887,8 @@ class shieldOffNode implements RobotProgramNode {
 class turnAroundNode implements RobotProgramNode {
 
 	@Override
-	public void execute(Robot robot) {
+	public void execute(ExecutionContext ctx) {
+		RobotControl robot = ctx.getRobot();
 		robot.turnAround();
 	}
 
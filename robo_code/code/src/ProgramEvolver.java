@@ -0,0 +1,541 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evolves robot programs by genetic programming: a population of program
+ * trees is bred by subtree crossover and mutation, and each program is
+ * scored by headless matches against a pool of opponents, played in a
+ * BatchSimulator on every core.
+ *
+ * Every program plays the same seeds against each opponent, so a score can
+ * be cached by (program, opponent, seed); programs that survive or reappear
+ * aren't played again. The best program found is printed as source, and can
+ * be written to a .prog file.
+ *
+ * Usage: ProgramEvolver [-population P] [-generations G] [-matches K]
+ * [-ticks T] [-size N] [-threads N] [-seed S] [-out FILE] opponent.prog...
+ */
+public class ProgramEvolver {
+
+	private static final String[] SENSORS = { "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB",
+			"wallDist" };
+	private static final int TOURNAMENT = 3, ELITE = 2;
+	/** Statements a program may run in a tick without acting, per statement in it. */
+	private static final int STATEMENTS_PER_SIZE = 20;
+
+	/** A program, its source (which identifies it), and its score. */
+	static class Individual {
+		final RobotProgramNode program;
+		final String source;
+		final long hash;
+		final int size;
+		double fitness;
+		int wins, draws, played;
+
+		Individual(RobotProgramNode program) {
+			this.program = program;
+			this.source = ProgramPrinter.print(program);
+			this.hash = ProgramPrinter.hash(source);
+			this.size = count(program);
+		}
+	}
+
+	/** A cached result: the program by the hash of its source. */
+	private static class Key {
+		final long program;
+		final int opponent;
+		final long seed;
+
+		Key(long program, int opponent, long seed) {
+			this.program = program;
+			this.opponent = opponent;
+			this.seed = seed;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return program == k.program && opponent == k.opponent && seed == k.seed;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(program, opponent, seed);
+		}
+	}
+
+	private final RobotProgramNode[] opponents;
+	/** The statements a match with each opponent may run in a tick without acting. */
+	private final int[] statementsPerTick;
+	private final int matches;
+	private final long maxTicks, seed;
+	private final int maxSize;
+	private final Random rand;
+	private final ProgramGenerator gen;
+	/** The winner of each match played: 1 for the program, 2 for the opponent, 0 for a draw. */
+	private final Map<Key, Integer> results = new ConcurrentHashMap<Key, Integer>();
+	private final LongAdder played = new LongAdder(), cached = new LongAdder();
+	/** Programs dropped because their printed source doesn't parse back to them. */
+	private int unprintable;
+
+	ProgramEvolver(RobotProgramNode[] opponents, int matches, long maxTicks, int maxSize, long seed) {
+		this.opponents = opponents;
+		statementsPerTick = new int[opponents.length];
+		for (int o = 0; o < opponents.length; o++) {
+			// a compiled opponent can't be counted, so gets the usual limit
+			statementsPerTick[o] = (opponents[o] instanceof ProgramNode)
+					? STATEMENTS_PER_SIZE * Math.max(maxSize, count(opponents[o]))
+					: BatchSimulator.STATEMENTS_PER_TICK;
+		}
+		this.matches = matches;
+		this.maxTicks = maxTicks;
+		this.maxSize = maxSize;
+		this.seed = seed;
+		rand = new Random(seed);
+		gen = new ProgramGenerator(seed);
+		gen.stage = 1;
+		gen.maxDepth = 2;
+		gen.maxStatements = 3;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int population = 100, generations = 30, matches = 16, size = 40;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxTicks = 500, seed = 1;
+		File out = null;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-population":
+				population = Integer.parseInt(args[i + 1]);
+				break;
+			case "-generations":
+				generations = Integer.parseInt(args[i + 1]);
+				break;
+			case "-matches":
+				matches = Integer.parseInt(args[i + 1]);
+				break;
+			case "-ticks":
+				maxTicks = Long.parseLong(args[i + 1]);
+				break;
+			case "-size":
+				size = Integer.parseInt(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-out":
+				out = new File(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (i == args.length) {
+			System.err.println("Usage: ProgramEvolver [-population P] [-generations G] [-matches K] [-ticks T] "
+					+ "[-size N] [-threads N] [-seed S] [-out FILE] opponent.prog...");
+			System.exit(2);
+		}
+		RobotProgramNode[] opponents = new RobotProgramNode[args.length - i];
+		for (int o = 0; o < opponents.length; o++) {
+			opponents[o] = Parser.loadFile(new File(args[i + o]));
+			if (opponents[o] == null) {
+				System.exit(1);
+			}
+		}
+
+		ProgramEvolver evolver = new ProgramEvolver(opponents, matches, maxTicks, size, seed);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			Individual best = evolver.evolve(population, generations, pool);
+			System.out.println("Champion (" + best.size + " statements, won " + best.wins + " and drew "
+					+ best.draws + " of " + best.played + "):");
+			System.out.print(best.source);
+			if (out != null) {
+				write(out, best.source);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Breeds a population for the given number of generations, reporting
+	 * each, and returns the best program of the last.
+	 */
+	Individual evolve(int size, int generations, ExecutorService pool) throws Exception {
+		List<Individual> population = new ArrayList<Individual>();
+		while (population.size() < size) {
+			Individual ind = new Individual(randomProgram());
+			if (checkSource(ind)) {
+				population.add(ind);
+			}
+		}
+		long start = System.nanoTime();
+		for (int g = 0;; g++) {
+			evaluate(population, pool);
+			population.sort(Comparator.comparingDouble((Individual ind) -> ind.fitness).reversed());
+			double secs = (System.nanoTime() - start) / 1e9;
+			double mean = population.stream().mapToDouble(ind -> ind.fitness).average().orElse(0);
+			Individual best = population.get(0);
+			System.out.printf("generation %d: best %.3f (%d statements), mean %.3f; %d matches played (%.0f/s), "
+					+ "%d cached%n", g, best.fitness, best.size, mean, played.sum(), played.sum() / secs,
+					cached.sum());
+			if (g + 1 >= generations) {
+				if (unprintable > 0) {
+					System.out.println(unprintable + " programs dropped whose source didn't parse back");
+				}
+				return best;
+			}
+			population = breed(population);
+		}
+	}
+
+	private List<Individual> breed(List<Individual> sorted) {
+		List<Individual> next = new ArrayList<Individual>(sorted.subList(0, Math.min(ELITE, sorted.size())));
+		while (next.size() < sorted.size()) {
+			RobotProgramNode child;
+			int r = rand.nextInt(10);
+			if (r < 6) {
+				child = crossover(select(sorted).program, select(sorted).program);
+			} else {
+				child = mutate(select(sorted).program);
+			}
+			if (count(child) > maxSize) {
+				child = select(sorted).program;
+			}
+			Individual ind = new Individual(child);
+			if (!checkSource(ind)) {
+				ind = new Individual(select(sorted).program);
+			}
+			next.add(ind);
+		}
+		return next;
+	}
+
+	private Individual select(List<Individual> population) {
+		Individual best = null;
+		for (int t = 0; t < TOURNAMENT; t++) {
+			Individual ind = population.get(rand.nextInt(population.size()));
+			if (best == null || ind.fitness > best.fitness) {
+				best = ind;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Scores every individual on all cores: the fraction of its matches it
+	 * won (a draw counting half), less a little for each statement so that
+	 * smaller programs are preferred.
+	 */
+	private void evaluate(List<Individual> population, ExecutorService pool) throws Exception {
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		for (Individual ind : population) {
+			done.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					score(ind);
+					return null;
+				}
+			}));
+		}
+		for (Future<?> f : done) {
+			f.get();
+		}
+	}
+
+	void score(Individual ind) {
+		int wins = 0, draws = 0;
+		for (int o = 0; o < opponents.length; o++) {
+			int[] winners = play(ind, o);
+			for (int w : winners) {
+				if (w == 1) {
+					wins++;
+				} else if (w == 0) {
+					draws++;
+				}
+			}
+		}
+		ind.wins = wins;
+		ind.draws = draws;
+		ind.played = opponents.length * matches;
+		ind.fitness = (wins + draws / 2.0) / ind.played - 0.001 * ind.size;
+	}
+
+	/**
+	 * @return the winner of each seed's match between the program and an
+	 *         opponent, from the cache or played now
+	 */
+	private int[] play(Individual ind, int opponent) {
+		int[] winners = new int[matches];
+		boolean missing = false;
+		for (int m = 0; m < matches && !missing; m++) {
+			Integer w = results.get(new Key(ind.hash, opponent, seed + m));
+			if (w == null) {
+				missing = true;
+			} else {
+				winners[m] = w;
+			}
+		}
+		if (!missing) {
+			cached.add(matches);
+			return winners;
+		}
+		BatchSimulator sim = new BatchSimulator(matches);
+		sim.setStatementsPerTick(statementsPerTick[opponent]);
+		sim.start(ind.program, opponents[opponent], seed);
+		sim.run(maxTicks);
+		for (int m = 0; m < matches; m++) {
+			winners[m] = sim.getWinner(m);
+			results.put(new Key(ind.hash, opponent, seed + m), winners[m]);
+		}
+		played.add(matches);
+		return winners;
+	}
+
+	// Breeding. Program trees are never changed: a new tree shares all but
+	// the statements on the path to the one replaced.
+
+	/**
+	 * @return a copy of the first parent with a random statement replaced by
+	 *         a random statement of the second
+	 */
+	RobotProgramNode crossover(RobotProgramNode mother, RobotProgramNode father) {
+		List<RobotProgramNode> from = statements(father);
+		RobotProgramNode graft = from.get(rand.nextInt(from.size()));
+		return replace(mother, rand.nextInt(count(mother)), graft);
+	}
+
+	/**
+	 * @return a copy of the program with one random change: a statement
+	 *         replaced by a new one, a condition tweaked, an action changed,
+	 *         or a statement deleted
+	 */
+	RobotProgramNode mutate(RobotProgramNode prog) {
+		List<RobotProgramNode> stmts = statements(prog);
+		int index = rand.nextInt(stmts.size());
+		RobotProgramNode stmt = stmts.get(index);
+		int change = rand.nextInt(4);
+		if (change == 1) {
+			if (stmt instanceof ifNode) {
+				ifNode n = (ifNode) stmt;
+				return replace(prog, index, new ifNode(n.ifblock, mutateCondition(n.condnode), n.elseblock));
+			} else if (stmt instanceof whileNode) {
+				whileNode n = (whileNode) stmt;
+				return replace(prog, index, new whileNode(n.blocknode, mutateCondition(n.condnode)));
+			}
+			change = 2; // an action, changed as below
+		}
+		switch (change) {
+		case 0:
+			return replace(prog, index, randomStatement());
+		case 2:
+			if (!(stmt instanceof BlockNode || stmt instanceof LoopNode || stmt instanceof ifNode
+					|| stmt instanceof whileNode)) {
+				return replace(prog, index, randomAction());
+			}
+			return replace(prog, index, randomStatement());
+		default:
+			return replace(prog, index, null);
+		}
+	}
+
+	private RobotConditionNode mutateCondition(RobotConditionNode cond) {
+		String sensor;
+		int num;
+		if (cond instanceof Parser.gtNode) {
+			sensor = ((Parser.gtNode) cond).sensor;
+			num = ((Parser.gtNode) cond).num;
+		} else if (cond instanceof Parser.ltNode) {
+			sensor = ((Parser.ltNode) cond).sensor;
+			num = ((Parser.ltNode) cond).num;
+		} else {
+			sensor = ((Parser.eqNode) cond).sensor;
+			num = ((Parser.eqNode) cond).num;
+		}
+		switch (rand.nextInt(3)) {
+		case 0:
+			num += rand.nextInt(21) - 10;
+			break;
+		case 1:
+			sensor = SENSORS[rand.nextInt(SENSORS.length)];
+			break;
+		default:
+			cond = null;
+		}
+		if (cond == null || cond instanceof Parser.gtNode) {
+			int op = (cond == null) ? rand.nextInt(3) : 0;
+			return (op == 0) ? new Parser.gtNode(sensor, num)
+					: (op == 1) ? new Parser.ltNode(sensor, num) : new Parser.eqNode(sensor, num);
+		}
+		return (cond instanceof Parser.ltNode) ? new Parser.ltNode(sensor, num) : new Parser.eqNode(sensor, num);
+	}
+
+	private RobotProgramNode randomProgram() {
+		return Parser.parse(new Scanner(gen.program()), true);
+	}
+
+	private RobotProgramNode randomStatement() {
+		return ((ProgramNode) randomProgram()).nodes[0];
+	}
+
+	private RobotProgramNode randomAction() {
+		RobotProgramNode stmt;
+		do {
+			stmt = randomStatement();
+		} while (stmt instanceof BlockNode || stmt instanceof ifNode || stmt instanceof whileNode);
+		return stmt;
+	}
+
+	/**
+	 * @return the statements of a program, each followed by those nested in
+	 *         it, in the order replace counts them
+	 */
+	static List<RobotProgramNode> statements(RobotProgramNode prog) {
+		List<RobotProgramNode> out = new ArrayList<RobotProgramNode>();
+		collect(((ProgramNode) prog).nodes, out);
+		return out;
+	}
+
+	private static void collect(RobotProgramNode[] nodes, List<RobotProgramNode> out) {
+		for (RobotProgramNode n : nodes) {
+			out.add(n);
+			for (BlockNode block : blocks(n)) {
+				collect(block.nodes, out);
+			}
+		}
+	}
+
+	static int count(RobotProgramNode prog) {
+		return statements(prog).size();
+	}
+
+	/**
+	 * @return a copy of the program with the statement at the given index
+	 *         replaced, or deleted if with is null (unless it is the only
+	 *         statement of its block, as blocks may not be empty)
+	 */
+	static RobotProgramNode replace(RobotProgramNode prog, int index, RobotProgramNode with) {
+		RobotProgramNode[] nodes = ((ProgramNode) prog).nodes;
+		RobotProgramNode[] edited = edit(nodes, new int[] { index }, with);
+		return (edited == nodes) ? prog : new ProgramNode(edited);
+	}
+
+	/**
+	 * Edits a list of statements, counting index[0] down past each statement
+	 * until it reaches the one to replace.
+	 *
+	 * @return the edited list, or the same list if it was unchanged
+	 */
+	private static RobotProgramNode[] edit(RobotProgramNode[] nodes, int[] index, RobotProgramNode with) {
+		for (int i = 0; i < nodes.length && index[0] >= 0; i++) {
+			RobotProgramNode n = nodes[i];
+			if (index[0]-- == 0) {
+				if (with != null) {
+					RobotProgramNode[] copy = nodes.clone();
+					copy[i] = with;
+					return copy;
+				}
+				if (nodes.length == 1) {
+					return nodes;
+				}
+				RobotProgramNode[] copy = new RobotProgramNode[nodes.length - 1];
+				System.arraycopy(nodes, 0, copy, 0, i);
+				System.arraycopy(nodes, i + 1, copy, i, nodes.length - i - 1);
+				return copy;
+			}
+			RobotProgramNode edited = edit(n, index, with);
+			if (edited != n) {
+				RobotProgramNode[] copy = nodes.clone();
+				copy[i] = edited;
+				return copy;
+			}
+		}
+		return nodes;
+	}
+
+	private static RobotProgramNode edit(RobotProgramNode n, int[] index, RobotProgramNode with) {
+		if (n instanceof BlockNode) {
+			return edit((BlockNode) n, index, with);
+		} else if (n instanceof LoopNode) {
+			BlockNode block = edit(((LoopNode) n).block, index, with);
+			return (block == ((LoopNode) n).block) ? n : new LoopNode(block);
+		} else if (n instanceof whileNode) {
+			whileNode w = (whileNode) n;
+			BlockNode block = edit(w.blocknode, index, with);
+			return (block == w.blocknode) ? n : new whileNode(block, w.condnode);
+		} else if (n instanceof ifNode) {
+			ifNode f = (ifNode) n;
+			BlockNode ifblock = edit(f.ifblock, index, with);
+			BlockNode elseblock = (f.elseblock == null) ? null : edit(f.elseblock, index, with);
+			return (ifblock == f.ifblock && elseblock == f.elseblock) ? n : new ifNode(ifblock, f.condnode, elseblock);
+		}
+		return n;
+	}
+
+	private static BlockNode edit(BlockNode block, int[] index, RobotProgramNode with) {
+		RobotProgramNode[] edited = edit(block.nodes, index, with);
+		return (edited == block.nodes) ? block : new BlockNode(edited);
+	}
+
+	private static List<BlockNode> blocks(RobotProgramNode n) {
+		if (n instanceof BlockNode) {
+			return Arrays.asList((BlockNode) n);
+		} else if (n instanceof LoopNode) {
+			return Arrays.asList(((LoopNode) n).block);
+		} else if (n instanceof whileNode) {
+			return Arrays.asList(((whileNode) n).blocknode);
+		} else if (n instanceof ifNode) {
+			ifNode f = (ifNode) n;
+			return (f.elseblock == null) ? Arrays.asList(f.ifblock) : Arrays.asList(f.ifblock, f.elseblock);
+		}
+		return Arrays.asList();
+	}
+
+	/**
+	 * Checks that a new program's printed source parses back to the same
+	 * program, so that every program bred can be written out, and reports the
+	 * first that doesn't.
+	 *
+	 * @return whether it does
+	 */
+	private boolean checkSource(Individual ind) {
+		try {
+			if (ProgramPrinter.print(Parser.parse(new Scanner(ind.source), false)).equals(ind.source)) {
+				return true;
+			}
+		} catch (ParserFailureException e) {
+		}
+		if (unprintable++ == 0) {
+			System.err.println("Printed program doesn't parse back, dropped:\n" + ind.source);
+		}
+		return false;
+	}
+
+	static void write(File file, String source) throws IOException {
+		Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+	}
+}
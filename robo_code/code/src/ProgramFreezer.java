@@ -0,0 +1,233 @@
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compacts a parsed program for long-term caching. Freezing rebuilds the tree
+ * bottom up so that:
+ * <ul>
+ * <li>every action node of a given kind is one shared, process-wide instance
+ * (they have no fields, so one is as good as another);</li>
+ * <li>structurally identical conditions, blocks and statements within the
+ * program are one shared instance (hash-consing);</li>
+ * <li>blocks hold exact-size arrays of statements.</li>
+ * </ul>
+ * Sharing is safe because nodes are immutable and hold no execution state.
+ */
+class ProgramFreezer {
+
+	/** The shared instance of each action node class. */
+	private static final Map<Class<?>, RobotProgramNode> ACTIONS = new ConcurrentHashMap<Class<?>, RobotProgramNode>();
+
+	/** Maps original nodes to their frozen form. */
+	private final Map<RobotProgramNode, RobotProgramNode> frozen = new IdentityHashMap<RobotProgramNode, RobotProgramNode>();
+	/** The canonical node or condition for each shape seen so far. */
+	private final Map<List<Object>, Object> table = new HashMap<List<Object>, Object>();
+
+	/**
+	 * @return a program that behaves exactly like prog, with shared subtrees
+	 */
+	static RobotProgramNode freeze(RobotProgramNode prog) {
+		if (prog == null) {
+			return null;
+		}
+		return new ProgramFreezer().freezeTree(prog);
+	}
+
+	/**
+	 * Freezes the children of every node before the node itself, using an
+	 * explicit stack so that the depth of the program doesn't matter.
+	 */
+	private RobotProgramNode freezeTree(RobotProgramNode root) {
+		ArrayDeque<RobotProgramNode> stack = new ArrayDeque<RobotProgramNode>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			RobotProgramNode node = stack.peek();
+			if (frozen.containsKey(node)) {
+				stack.pop();
+				continue;
+			}
+			boolean ready = true;
+			for (RobotProgramNode child : children(node)) {
+				if (!frozen.containsKey(child)) {
+					stack.push(child);
+					ready = false;
+				}
+			}
+			if (ready) {
+				stack.pop();
+				frozen.put(node, rebuild(node));
+			}
+		}
+		return frozen.get(root);
+	}
+
+	/**
+	 * @return the statements and blocks directly inside a node
+	 */
+	static List<RobotProgramNode> children(RobotProgramNode node) {
+		if (node instanceof BlockNode) {
+			return Arrays.asList(((BlockNode) node).nodes);
+		} else if (node instanceof ProgramNode) {
+			return Arrays.asList(((ProgramNode) node).nodes);
+		} else if (node instanceof whileNode) {
+			return Arrays.<RobotProgramNode>asList(((whileNode) node).blocknode);
+		} else if (node instanceof LoopNode) {
+			return Arrays.<RobotProgramNode>asList(((LoopNode) node).block);
+		} else if (node instanceof ifNode) {
+			ifNode n = (ifNode) node;
+			return (n.elseblock == null) ? Arrays.<RobotProgramNode>asList(n.ifblock)
+					: Arrays.<RobotProgramNode>asList(n.ifblock, n.elseblock);
+		}
+		return Arrays.asList();
+	}
+
+	/**
+	 * Returns the canonical frozen form of a node whose children have all been
+	 * frozen. Frozen nodes use identity equality, so a key made of the node's
+	 * class and its frozen children identifies its structure exactly.
+	 */
+	private RobotProgramNode rebuild(RobotProgramNode node) {
+		if (node instanceof BlockNode || node instanceof ProgramNode) {
+			RobotProgramNode[] nodes = (node instanceof BlockNode) ? ((BlockNode) node).nodes : ((ProgramNode) node).nodes;
+			RobotProgramNode[] canon = new RobotProgramNode[nodes.length];
+			List<Object> key = new ArrayList<Object>(nodes.length + 1);
+			key.add(node.getClass());
+			for (int i = 0; i < nodes.length; i++) {
+				canon[i] = frozen.get(nodes[i]);
+				key.add(canon[i]);
+			}
+			RobotProgramNode found = (RobotProgramNode) table.get(key);
+			if (found == null) {
+				found = (node instanceof BlockNode) ? new BlockNode(canon) : new ProgramNode(canon);
+				table.put(key, found);
+			}
+			return found;
+		} else if (node instanceof whileNode) {
+			whileNode n = (whileNode) node;
+			RobotConditionNode cond = freezeCondition(n.condnode);
+			BlockNode block = (BlockNode) frozen.get(n.blocknode);
+			List<Object> key = Arrays.<Object>asList(whileNode.class, cond, block);
+			RobotProgramNode found = (RobotProgramNode) table.get(key);
+			if (found == null) {
+				found = new whileNode(block, cond);
+				table.put(key, found);
+			}
+			return found;
+		} else if (node instanceof ifNode) {
+			ifNode n = (ifNode) node;
+			RobotConditionNode cond = freezeCondition(n.condnode);
+			BlockNode ifblock = (BlockNode) frozen.get(n.ifblock);
+			BlockNode elseblock = (n.elseblock == null) ? null : (BlockNode) frozen.get(n.elseblock);
+			List<Object> key = Arrays.<Object>asList(ifNode.class, cond, ifblock, elseblock);
+			RobotProgramNode found = (RobotProgramNode) table.get(key);
+			if (found == null) {
+				found = new ifNode(ifblock, cond, elseblock);
+				table.put(key, found);
+			}
+			return found;
+		} else if (node instanceof LoopNode) {
+			BlockNode block = (BlockNode) frozen.get(((LoopNode) node).block);
+			List<Object> key = Arrays.<Object>asList(LoopNode.class, block);
+			RobotProgramNode found = (RobotProgramNode) table.get(key);
+			if (found == null) {
+				found = new LoopNode(block);
+				table.put(key, found);
+			}
+			return found;
+		}
+		return shared(node);
+	}
+
+	/**
+	 * @return the process-wide shared instance of an action node's class
+	 */
+	static RobotProgramNode shared(RobotProgramNode action) {
+		RobotProgramNode shared = ACTIONS.putIfAbsent(action.getClass(), action);
+		return (shared == null) ? action : shared;
+	}
+
+	private RobotConditionNode freezeCondition(RobotConditionNode cond) {
+		String sensor;
+		int num;
+		if (cond instanceof Parser.gtNode) {
+			sensor = ((Parser.gtNode) cond).sensor;
+			num = ((Parser.gtNode) cond).num;
+		} else if (cond instanceof Parser.ltNode) {
+			sensor = ((Parser.ltNode) cond).sensor;
+			num = ((Parser.ltNode) cond).num;
+		} else if (cond instanceof Parser.eqNode) {
+			sensor = ((Parser.eqNode) cond).sensor;
+			num = ((Parser.eqNode) cond).num;
+		} else {
+			return cond;
+		}
+		List<Object> key = Arrays.<Object>asList(cond.getClass(), sensor, num);
+		RobotConditionNode found = (RobotConditionNode) table.get(key);
+		if (found == null) {
+			sensor = sensor.intern();
+			if (cond instanceof Parser.gtNode) {
+				found = new Parser.gtNode(sensor, num);
+			} else if (cond instanceof Parser.ltNode) {
+				found = new Parser.ltNode(sensor, num);
+			} else {
+				found = new Parser.eqNode(sensor, num);
+			}
+			table.put(key, found);
+		}
+		return found;
+	}
+
+	/**
+	 * Reports the heap used per copy of each program, parsed as-is and frozen.
+	 *
+	 * Usage: ProgramFreezer [-copies N] file.prog...
+	 */
+	public static void main(String[] args) {
+		int copies = 2000;
+		int first = 0;
+		if (args.length > 1 && args[0].equals("-copies")) {
+			copies = Integer.parseInt(args[1]);
+			first = 2;
+		}
+		for (int i = first; i < args.length; i++) {
+			File f = new File(args[i]);
+			long plain = bytesPerCopy(f, copies, false);
+			long compact = bytesPerCopy(f, copies, true);
+			if (plain >= 0 && compact >= 0) {
+				System.out.println(f.getName() + ": " + plain + " bytes parsed, " + compact + " bytes frozen");
+			}
+		}
+	}
+
+	private static long bytesPerCopy(File f, int copies, boolean freeze) {
+		List<RobotProgramNode> kept = new ArrayList<RobotProgramNode>(copies);
+		long before = usedHeap();
+		for (int i = 0; i < copies; i++) {
+			RobotProgramNode prog = Parser.parseFile(f, freeze);
+			if (prog == null) {
+				return -1;
+			}
+			kept.add(prog);
+		}
+		long after = usedHeap();
+		// the list itself is not part of the programs
+		long perCopy = (after - before) / copies - 4;
+		kept.clear();
+		return perCopy;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
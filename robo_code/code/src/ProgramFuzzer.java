@@ -0,0 +1,191 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load and fuzz test driver. Feeds generated programs through the parser and
+ * runs the ones that parse in a headless world, reporting throughput and any
+ * exception other than ParserFailureException (a rejected program) or
+ * RobotInterruptedException (a program stopped at its step limit). Only
+ * mutated programs should be rejected: an unmutated program the parser
+ * rejects is a bug in the parser or the generator, and is reported like a
+ * crash.
+ *
+ * Usage: ProgramFuzzer [generator settings] [-count N] [-seed S] [-threads T]
+ * [-steps K]
+ *
+ * The generator settings are those of ProgramGenerator. Program i is the one
+ * that ProgramGenerator prints for seed S + i, so a crash can be reproduced
+ * from the seed reported for it.
+ */
+public class ProgramFuzzer {
+
+	private static final int MAX_REPORTED = 20;
+
+	private final String[] settings;
+	private final long seed;
+	private final long count;
+	private final long steps;
+
+	private final AtomicLong next = new AtomicLong();
+	private final LongAdder parsed = new LongAdder(), rejected = new LongAdder(), mutants = new LongAdder(),
+			actions = new LongAdder(), crashes = new LongAdder(), validRejected = new LongAdder();
+	private final Map<String, LongAdder> crashTypes = new ConcurrentHashMap<String, LongAdder>();
+	private final PrintStream out;
+
+	ProgramFuzzer(String[] settings, long seed, long count, long steps, PrintStream out) {
+		this.settings = settings;
+		this.seed = seed;
+		this.count = count;
+		this.steps = steps;
+		this.out = out;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long count = 1000000, seed = 1, steps = 10000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		java.util.List<String> settings = new java.util.ArrayList<String>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+			case "-count":
+				count = Long.parseLong(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			case "-steps":
+				steps = Long.parseLong(args[i + 1]);
+				break;
+			default:
+				settings.add(args[i]);
+				settings.add(args[i + 1]);
+			}
+		}
+
+		// the robots print every state, which we don't want millions of.
+		PrintStream out = System.out;
+		Robot.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			final ProgramFuzzer fuzzer = new ProgramFuzzer(settings.toArray(new String[0]), seed, count, steps, out);
+			Thread[] workers = new Thread[threads];
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				workers[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						fuzzer.work();
+					}
+				});
+				workers[t].start();
+			}
+			for (Thread worker : workers) {
+				worker.join();
+			}
+			fuzzer.report(System.nanoTime() - start, threads);
+			if (fuzzer.crashes.sum() > 0 || fuzzer.validRejected.sum() > 0) {
+				System.exit(1);
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	private void work() {
+		ProgramGenerator gen = new ProgramGenerator(0);
+		gen.configure(settings);
+		long i;
+		while ((i = next.getAndIncrement()) < count) {
+			gen.setSeed(seed + i);
+			String source = gen.next();
+			if (gen.lastWasMutated()) {
+				mutants.increment();
+			}
+			try {
+				RobotProgramNode prog;
+				try {
+					prog = Parser.parse(new Scanner(source), true);
+				} catch (ParserFailureException e) {
+					if (gen.lastWasMutated()) {
+						rejected.increment();
+					} else {
+						validRejected.increment();
+						if (validRejected.sum() <= MAX_REPORTED) {
+							synchronized (out) {
+								out.println("Valid program rejected on seed " + (seed + i) + ": " + e.getMessage());
+							}
+						}
+					}
+					continue;
+				}
+				parsed.increment();
+				actions.add(run(prog, seed + i));
+			} catch (Throwable e) {
+				crashes.increment();
+				String type = e.getClass().getName();
+				crashTypes.computeIfAbsent(type, k -> new LongAdder()).increment();
+				if (crashes.sum() <= MAX_REPORTED) {
+					synchronized (out) {
+						out.println("Crash on seed " + (seed + i) + ": " + e);
+						for (StackTraceElement frame : e.getStackTrace()) {
+							out.println("\tat " + frame);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs a program in a headless world with a few random barrels, until it
+	 * finishes or reaches the step limit.
+	 *
+	 * @return the number of actions the robot took
+	 */
+	private long run(RobotProgramNode prog, long seed) {
+		Random rand = new Random(seed);
+		World.RoboGamePrinter world = new World.RoboGamePrinter();
+		int barrels = 1 + rand.nextInt(5);
+		for (int b = 0; b < barrels; b++) {
+			world.getAvailableFuel().add(new Cell(rand.nextInt(World.SIZE), rand.nextInt(World.SIZE)));
+		}
+		Robot robot = world.getRobot(1);
+		robot.setProgram(prog);
+		ExecutionContext ctx = new ExecutionContext(prog, robot);
+		ctx.setStepLimit(steps);
+		try {
+			ctx.run();
+		} catch (RobotInterruptedException e) {
+			// reached the step limit
+		}
+		return robot.getHistory().size();
+	}
+
+	private void report(long elapsed, int threads) {
+		double secs = elapsed / 1e9;
+		long total = parsed.sum() + rejected.sum() + validRejected.sum() + crashes.sum();
+		out.printf("%d programs (%d mutated) on %d threads in %.1fs: %.0f programs/s%n", total, mutants.sum(), threads,
+				secs, total / secs);
+		out.printf("  %d parsed and run (%d actions, %.0f actions/s), %d mutants rejected%n", parsed.sum(),
+				actions.sum(), actions.sum() / secs, rejected.sum());
+		if (validRejected.sum() > 0) {
+			out.println("  " + validRejected.sum() + " valid programs rejected");
+		}
+		if (crashes.sum() == 0) {
+			out.println("  no crashes");
+		} else {
+			out.println("  " + crashes.sum() + " crashes:");
+			for (Map.Entry<String, LongAdder> e : crashTypes.entrySet()) {
+				out.println("    " + e.getValue().sum() + " x " + e.getKey());
+			}
+		}
+	}
+}
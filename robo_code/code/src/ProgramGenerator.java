@@ -0,0 +1,327 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Generates random robot programs from the grammar in the assignment
+ * handout, for load and fuzz testing. Every program is determined by the
+ * seed and the settings, so any program can be regenerated from them.
+ *
+ * Programs use only the constructs of the chosen grammar stage (0 to 3), and
+ * can be mutated into (usually) invalid variants in the style of the
+ * sN_badK.prog files.
+ */
+class ProgramGenerator {
+
+	private static final String[] STAGE0_ACTIONS = { "move", "turnL", "turnR", "takeFuel", "wait" };
+	private static final String[] STAGE1_ACTIONS = { "move", "turnL", "turnR", "takeFuel", "wait", "turnAround",
+			"shieldOn", "shieldOff" };
+	private static final String[] SENSORS = { "fuelLeft", "oppLR", "oppFB", "numBarrels", "barrelLR", "barrelFB",
+			"wallDist" };
+	private static final String[] RELOPS = { "lt", "gt", "eq" };
+	private static final String[] OPS = { "add", "sub", "mul", "div" };
+	private static final String[] VARIABLES = { "$a", "$b", "$count", "$x1" };
+
+	/** Tokens that mutations may insert: valid ones in the wrong place, and near misses. */
+	private static final String[] MUTANT_TOKENS = { "{", "}", "(", ")", ",", ";", "=", "loop", "if", "else", "elif",
+			"while", "move", "turnRight", "shieldOn", "and", "not", "gt", "fuelLeft", "zero", "0", "-5", "1.5",
+			"$", "$count", "else(gt(numBarrels, 1))" };
+
+	private static final Pattern DELIMITER = Pattern.compile("\\s+|(?=[{}(),;])|(?<=[{}(),;])");
+
+	/**
+	 * The grammar stage, 0 to 3. Parser only takes stages 0 and 1, so higher
+	 * stages are for a parser that does.
+	 */
+	int stage = 1;
+	/** The deepest nesting of blocks. */
+	int maxDepth = 4;
+	/** The most statements in the program and in each block. */
+	int maxStatements = 6;
+	/** Relative weights of each kind of statement. */
+	int actionWeight = 6, loopWeight = 1, ifWeight = 2, whileWeight = 1, assignWeight = 1;
+	/** The deepest nesting of conditions and expressions. */
+	int maxExpressionDepth = 2;
+	/** The chance that next() mutates the program it generates. */
+	double invalidRate = 0.2;
+
+	private Random rand;
+	private boolean mutated;
+
+	ProgramGenerator(long seed) {
+		rand = new Random(seed);
+	}
+
+	/**
+	 * Restarts the generator, so the next program depends only on this seed.
+	 */
+	void setSeed(long seed) {
+		rand.setSeed(seed);
+	}
+
+	/**
+	 * @return a program, mutated with probability invalidRate
+	 */
+	String next() {
+		String prog = program();
+		mutated = rand.nextDouble() < invalidRate;
+		return mutated ? mutate(prog) : prog;
+	}
+
+	/**
+	 * @return whether the last program returned by next() was mutated
+	 */
+	boolean lastWasMutated() {
+		return mutated;
+	}
+
+	/**
+	 * @return a syntactically valid program of the current stage
+	 */
+	String program() {
+		StringBuilder prog = new StringBuilder();
+		int n = 1 + rand.nextInt(maxStatements);
+		for (int i = 0; i < n; i++) {
+			statement(prog, 0);
+		}
+		return prog.toString();
+	}
+
+	/**
+	 * Makes one to three token-level changes to a program: deleting,
+	 * duplicating, replacing or swapping tokens, or cutting the program short.
+	 */
+	String mutate(String prog) {
+		List<String> tokens = new ArrayList<String>();
+		for (String token : DELIMITER.split(prog)) {
+			if (!token.isEmpty()) {
+				tokens.add(token);
+			}
+		}
+		int changes = 1 + rand.nextInt(3);
+		for (int c = 0; c < changes && !tokens.isEmpty(); c++) {
+			int i = rand.nextInt(tokens.size());
+			switch (rand.nextInt(5)) {
+			case 0:
+				tokens.remove(i);
+				break;
+			case 1:
+				tokens.add(i, tokens.get(i));
+				break;
+			case 2:
+				tokens.set(i, pick(MUTANT_TOKENS));
+				break;
+			case 3:
+				if (i + 1 < tokens.size()) {
+					tokens.set(i, tokens.set(i + 1, tokens.get(i)));
+				}
+				break;
+			default:
+				tokens.subList(i, tokens.size()).clear();
+			}
+		}
+		return String.join(" ", tokens);
+	}
+
+	private void statement(StringBuilder prog, int depth) {
+		boolean nest = depth < maxDepth;
+		int loop = nest ? loopWeight : 0;
+		int cond = (nest && stage >= 1) ? ifWeight : 0;
+		int wh = (nest && stage >= 1) ? whileWeight : 0;
+		int assign = (stage >= 3) ? assignWeight : 0;
+		int r = rand.nextInt(actionWeight + loop + cond + wh + assign);
+
+		indent(prog, depth);
+		if ((r -= actionWeight) < 0) {
+			action(prog);
+			prog.append(";\n");
+		} else if ((r -= loop) < 0) {
+			prog.append("loop");
+			block(prog, depth);
+			prog.append("\n");
+		} else if ((r -= cond) < 0) {
+			ifStatement(prog, depth);
+		} else if ((r -= wh) < 0) {
+			prog.append("while(");
+			condition(prog, 0);
+			prog.append(")");
+			block(prog, depth);
+			prog.append("\n");
+		} else {
+			prog.append(pick(VARIABLES)).append(" = ");
+			expression(prog, 0);
+			prog.append(";\n");
+		}
+	}
+
+	private void ifStatement(StringBuilder prog, int depth) {
+		prog.append("if(");
+		condition(prog, 0);
+		prog.append(")");
+		block(prog, depth);
+		if (stage >= 3) {
+			int elifs = rand.nextInt(3);
+			for (int i = 0; i < elifs; i++) {
+				prog.append(" elif(");
+				condition(prog, 0);
+				prog.append(")");
+				block(prog, depth);
+			}
+		}
+		if (stage >= 2 && rand.nextBoolean()) {
+			prog.append(" else");
+			block(prog, depth);
+		}
+		prog.append("\n");
+	}
+
+	private void block(StringBuilder prog, int depth) {
+		prog.append("{\n");
+		int n = 1 + rand.nextInt(maxStatements);
+		for (int i = 0; i < n; i++) {
+			statement(prog, depth + 1);
+		}
+		indent(prog, depth);
+		prog.append("}");
+	}
+
+	private void action(StringBuilder prog) {
+		String action = pick(stage == 0 ? STAGE0_ACTIONS : STAGE1_ACTIONS);
+		prog.append(action);
+		if (stage >= 2 && (action.equals("move") || action.equals("wait")) && rand.nextInt(3) == 0) {
+			prog.append("(");
+			expression(prog, 0);
+			prog.append(")");
+		}
+	}
+
+	private void condition(StringBuilder prog, int depth) {
+		if (stage >= 2 && depth < maxExpressionDepth && rand.nextInt(3) == 0) {
+			switch (rand.nextInt(3)) {
+			case 0:
+				prog.append("not(");
+				condition(prog, depth + 1);
+				break;
+			default:
+				prog.append(rand.nextBoolean() ? "and(" : "or(");
+				condition(prog, depth + 1);
+				prog.append(", ");
+				condition(prog, depth + 1);
+			}
+			prog.append(")");
+			return;
+		}
+		prog.append(pick(RELOPS)).append("(");
+		if (stage >= 2) {
+			expression(prog, depth);
+			prog.append(", ");
+			expression(prog, depth);
+		} else {
+			prog.append(pick(SENSORS)).append(", ").append(number());
+		}
+		prog.append(")");
+	}
+
+	private void expression(StringBuilder prog, int depth) {
+		int kinds = (stage >= 3) ? 4 : 3;
+		int kind = (depth < maxExpressionDepth) ? rand.nextInt(kinds) : rand.nextInt(2);
+		switch (kind) {
+		case 0:
+			prog.append(number());
+			break;
+		case 1:
+			sensor(prog, depth);
+			break;
+		case 2:
+			prog.append(pick(OPS)).append("(");
+			expression(prog, depth + 1);
+			prog.append(", ");
+			expression(prog, depth + 1);
+			prog.append(")");
+			break;
+		default:
+			prog.append(pick(VARIABLES));
+		}
+	}
+
+	private void sensor(StringBuilder prog, int depth) {
+		String sensor = pick(SENSORS);
+		prog.append(sensor);
+		if (stage >= 3 && depth < maxExpressionDepth && sensor.startsWith("barrel") && rand.nextInt(3) == 0) {
+			prog.append("(");
+			expression(prog, depth + 1);
+			prog.append(")");
+		}
+	}
+
+	private int number() {
+		return (rand.nextInt(10) == 0) ? rand.nextInt() : rand.nextInt(41) - 20;
+	}
+
+	private String pick(String[] options) {
+		return options[rand.nextInt(options.length)];
+	}
+
+	private static void indent(StringBuilder prog, int depth) {
+		for (int i = 0; i < depth; i++) {
+			prog.append('\t');
+		}
+	}
+
+	/**
+	 * Reads the generator settings shared by main and ProgramFuzzer. Returns
+	 * the index of the first argument that isn't a setting.
+	 */
+	int configure(String... args) {
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-stage":
+				stage = Integer.parseInt(value);
+				break;
+			case "-depth":
+				maxDepth = Integer.parseInt(value);
+				break;
+			case "-size":
+				maxStatements = Integer.parseInt(value);
+				break;
+			case "-invalid":
+				invalidRate = Double.parseDouble(value);
+				break;
+			case "-mix":
+				// action,loop,if,while,assign weights
+				String[] w = value.split(",");
+				actionWeight = Integer.parseInt(w[0]);
+				loopWeight = Integer.parseInt(w[1]);
+				ifWeight = Integer.parseInt(w[2]);
+				whileWeight = Integer.parseInt(w[3]);
+				assignWeight = Integer.parseInt(w[4]);
+				break;
+			default:
+				return i;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Prints generated programs, with the seed of each on System.err.
+	 *
+	 * Usage: ProgramGenerator [-stage S] [-depth D] [-size N] [-mix a,l,i,w,v]
+	 * [-invalid P] [seed [count]]
+	 */
+	public static void main(String[] args) {
+		ProgramGenerator gen = new ProgramGenerator(0);
+		int i = gen.configure(args);
+		long seed = (i < args.length) ? Long.parseLong(args[i]) : System.nanoTime();
+		int count = (i + 1 < args.length) ? Integer.parseInt(args[i + 1]) : 1;
+		for (int n = 0; n < count; n++) {
+			gen.setSeed(seed + n);
+			String prog = gen.next();
+			System.err.println("seed " + (seed + n) + (gen.lastWasMutated() ? " (mutated)" : ""));
+			System.out.println(prog);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Prints a program tree back to source that the parser accepts, in the style
+ * of the .prog files: one statement per line, blocks indented by a tab. (The
+ * nodes' own toString methods are for debugging, and aren't valid source.)
+ *
+ * A plain block in a list of statements is printed as a loop, as that is what
+ * the parser makes of one.
+ */
+class ProgramPrinter {
+
+	private final StringBuilder out = new StringBuilder();
+
+	private ProgramPrinter() {
+	}
+
+	/**
+	 * @return the source of a program, or of a single statement
+	 */
+	static String print(RobotProgramNode prog) {
+		ProgramPrinter printer = new ProgramPrinter();
+		if (prog instanceof ProgramNode) {
+			for (RobotProgramNode n : ((ProgramNode) prog).nodes) {
+				printer.statement(n, 0);
+			}
+		} else {
+			printer.statement(prog, 0);
+		}
+		return printer.out.toString();
+	}
+
+	/**
+	 * @return a 64 bit FNV-1a hash of a program's source
+	 */
+	static long hash(String source) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < source.length(); i++) {
+			h ^= source.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	private void statement(RobotProgramNode node, int depth) {
+		indent(depth);
+		if (node instanceof BlockNode) {
+			out.append("loop");
+			block((BlockNode) node, depth);
+		} else if (node instanceof LoopNode) {
+			out.append("loop");
+			block(((LoopNode) node).block, depth);
+		} else if (node instanceof whileNode) {
+			whileNode n = (whileNode) node;
+			out.append("while(").append(condition(n.condnode)).append(")");
+			block(n.blocknode, depth);
+		} else if (node instanceof ifNode) {
+			ifNode n = (ifNode) node;
+			out.append("if(").append(condition(n.condnode)).append(")");
+			block(n.ifblock, depth);
+			if (n.elseblock != null) {
+				out.append(" else");
+				block(n.elseblock, depth);
+			}
+		} else {
+			out.append(action(node)).append(";");
+		}
+		out.append("\n");
+	}
+
+	private void block(BlockNode block, int depth) {
+		out.append("{\n");
+		for (RobotProgramNode n : block.nodes) {
+			statement(n, depth + 1);
+		}
+		indent(depth);
+		out.append("}");
+	}
+
+	private void indent(int depth) {
+		for (int i = 0; i < depth; i++) {
+			out.append('\t');
+		}
+	}
+
+	static String condition(RobotConditionNode cond) {
+		if (cond instanceof Parser.gtNode) {
+			Parser.gtNode n = (Parser.gtNode) cond;
+			return "gt(" + n.sensor + ", " + n.num + ")";
+		}
+		if (cond instanceof Parser.ltNode) {
+			Parser.ltNode n = (Parser.ltNode) cond;
+			return "lt(" + n.sensor + ", " + n.num + ")";
+		}
+		if (cond instanceof Parser.eqNode) {
+			Parser.eqNode n = (Parser.eqNode) cond;
+			return "eq(" + n.sensor + ", " + n.num + ")";
+		}
+		throw new IllegalArgumentException("Unknown condition " + cond.getClass().getName());
+	}
+
+	static String action(RobotProgramNode node) {
+		if (node instanceof TurnLNode)
+			return "turnL";
+		if (node instanceof TurnRNode)
+			return "turnR";
+		if (node instanceof moveNode)
+			return "move";
+		if (node instanceof takeFuelNode)
+			return "takeFuel";
+		if (node instanceof waitNode)
+			return "wait";
+		if (node instanceof shieldOnNode)
+			return "shieldOn";
+		if (node instanceof shieldOffNode)
+			return "shieldOff";
+		if (node instanceof turnAroundNode)
+			return "turnAround";
+		throw new IllegalArgumentException("Unknown statement " + node.getClass().getName());
+	}
+}
@@ -1,27 +1,35 @@
 import java.awt.BorderLayout;
-import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.ProgressMonitorInputStream;
+import javax.swing.SwingWorker;
 
 @SuppressWarnings("serial")
 public class RoboGame extends JFrame {
 
 	private WorldComponent worldComp = new WorldComponent();
 	private File code1, code2;
-
-	public static boolean debugDisplay = true;
+	/** The latest load of each robot's program; either may still be running. */
+	private ProgramLoader loader1, loader2;
+	/** Waits for the loads to start the world, once Start is pressed. */
+	private SwingWorker<Void, Void> starter;
 
 	public RoboGame() {
 		super("Robots");
@@ -45,20 +53,30 @@ public class RoboGame extends JFrame {
 		final JMenu debugMenu = new JMenu("Debug ");
 		final JMenuItem load1 = new JMenuItem("Robot 1");
 		final JMenuItem load2 = new JMenuItem("Robot 2");
+		final JMenuItem replay = new JMenuItem("Replay...");
 		final JMenuItem start = new JMenuItem("Start");
 		final JMenuItem reset = new JMenuItem("Reset");
 		final JMenuItem debugOn = new JMenuItem("On");
 		final JMenuItem debugOff = new JMenuItem("Off");
+		final JMenu speedMenu = new JMenu("Speed");
+		final JMenuItem speedNormal = new JMenuItem("Normal");
+		final JMenuItem speedFast = new JMenuItem("Fast");
+		final JMenuItem speedTurbo = new JMenuItem("Turbo");
 		JMenuItem quit = new JMenuItem("Quit");
 
 		menu.add(loadMenu);
 		loadMenu.add(load1);
 		loadMenu.add(load2);
+		loadMenu.add(replay);
 		menu.add(start);
 		menu.add(reset);
 		menu.add(debugMenu);
 		debugMenu.add(debugOn);
 		debugMenu.add(debugOff);
+		menu.add(speedMenu);
+		speedMenu.add(speedNormal);
+		speedMenu.add(speedFast);
+		speedMenu.add(speedTurbo);
 		menu.add(quit);
 		setJMenuBar(menu);
 
@@ -69,8 +87,7 @@ public class RoboGame extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				code1 = getCodeFile();
 				if (code1 != null) {
-					worldComp.loadRobotProgram(1, code1);
-					worldComp.repaint();
+					load(1, code1);
 				}
 			}
 		});
@@ -80,8 +97,26 @@ public class RoboGame extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				code2 = getCodeFile();
 				if (code2 != null) {
-					worldComp.loadRobotProgram(2, code2);
-					worldComp.repaint();
+					load(2, code2);
+				}
+			}
+		});
+
+		replay.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				File log = getCodeFile();
+				if (log != null) {
+					worldComp.reset();
+					try {
+						worldComp.replay(log);
+						load1.setEnabled(false);
+						load2.setEnabled(false);
+						replay.setEnabled(false);
+						start.setEnabled(false);
+					} catch (IOException ex) {
+						System.out.println("Can't replay '" + log + "': " + ex.getMessage());
+					}
 				}
 			}
 		});
@@ -91,23 +126,31 @@ public class RoboGame extends JFrame {
 			public void actionPerformed(ActionEvent e) {
 				load1.setEnabled(false);
 				load2.setEnabled(false);
+				replay.setEnabled(false);
 				start.setEnabled(false);
-				worldComp.start();
+				startWhenLoaded(loader1, loader2);
 			}
 		});
 		reset.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
+				// a Start still waiting for the loads mustn't start the new world
+				if (starter != null) {
+					starter.cancel(true);
+					starter = null;
+				}
 				worldComp.reset();
+				// the programs are parsed again, both at once
 				if (code1 != null) {
-					worldComp.loadRobotProgram(1, code1);
+					load(1, code1);
 				}
 				if (code2 != null) {
-					worldComp.loadRobotProgram(2, code2);
+					load(2, code2);
 				}
 				worldComp.repaint();
 				load1.setEnabled(true);
 				load2.setEnabled(true);
+				replay.setEnabled(true);
 				start.setEnabled(true);
 			}
 		});
@@ -115,13 +158,32 @@ public class RoboGame extends JFrame {
 		debugOn.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				debugDisplay = true;
+				Robot.debugDisplay = true;
 			}
 		});
 		debugOff.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				debugDisplay = false;
+				Robot.debugDisplay = false;
+			}
+		});
+
+		speedNormal.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				worldComp.setTickMillis(WorldComponent.DEFAULT_TICK_MILLIS);
+			}
+		});
+		speedFast.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				worldComp.setTickMillis(WorldComponent.DEFAULT_TICK_MILLIS / 8);
+			}
+		});
+		speedTurbo.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				worldComp.setTickMillis(0);
 			}
 		});
 
@@ -155,6 +217,136 @@ public class RoboGame extends JFrame {
 		 */
 	}
 
+	/**
+	 * Starts loading a robot's program in the background, cancelling any load
+	 * of that robot's program that is still running.
+	 */
+	private void load(int rob, File code) {
+		ProgramLoader loader = new ProgramLoader(rob, code);
+		ProgramLoader old = (rob == 1) ? loader1 : loader2;
+		if (old != null) {
+			old.cancel(true);
+		}
+		if (rob == 1) {
+			loader1 = loader;
+		} else {
+			loader2 = loader;
+		}
+		loader.execute();
+	}
+
+	/**
+	 * Waits in the background for the given loads to finish, then gives the
+	 * robots their programs and starts the world, unless Reset has been
+	 * pressed since.
+	 */
+	private void startWhenLoaded(final ProgramLoader... loaders) {
+		starter = new SwingWorker<Void, Void>() {
+			@Override
+			protected Void doInBackground() throws InterruptedException {
+				for (ProgramLoader loader : loaders) {
+					if (loader != null) {
+						try {
+							loader.get();
+						} catch (CancellationException | ExecutionException e) {
+							// reported by the loader; the robot keeps its old program
+						}
+					}
+				}
+				return null;
+			}
+
+			@Override
+			protected void done() {
+				if (isCancelled() || loaders[0] != loader1 || loaders[1] != loader2) {
+					return;
+				}
+				for (ProgramLoader loader : loaders) {
+					if (loader != null) {
+						loader.apply();
+					}
+				}
+				worldComp.start();
+			}
+		};
+		starter.execute();
+	}
+
+	/**
+	 * Loads and parses a robot's program off the event thread. Reading a large
+	 * source file shows a progress dialog, which can cancel the load.
+	 */
+	private class ProgramLoader extends SwingWorker<RobotProgramNode, Void> {
+		private final int rob;
+		private final File code;
+		private long loadNanos;
+		private boolean applied;
+
+		ProgramLoader(int rob, File code) {
+			this.rob = rob;
+			this.code = code;
+		}
+
+		@Override
+		protected RobotProgramNode doInBackground() throws IOException {
+			long start = System.nanoTime();
+			RobotProgramNode prog;
+			if (CompiledProgram.isCompiled(code)) {
+				prog = CompiledProgram.load(code);
+			} else {
+				InputStream in = new ProgressMonitorInputStream(RoboGame.this, "Loading " + code.getName(),
+						new FileInputStream(code)) {
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						if (isCancelled()) {
+							throw new InterruptedIOException();
+						}
+						return super.read(b, off, len);
+					}
+				};
+				try {
+					prog = Parser.parseStream(in, true);
+				} finally {
+					in.close();
+				}
+			}
+			loadNanos = System.nanoTime() - start;
+			return prog;
+		}
+
+		@Override
+		protected void done() {
+			apply();
+		}
+
+		/**
+		 * Gives the robot the loaded program, if this is still its latest load
+		 * and the program hasn't already been given.
+		 */
+		void apply() {
+			if (applied || !isDone() || this != ((rob == 1) ? loader1 : loader2)) {
+				return;
+			}
+			applied = true;
+			try {
+				worldComp.setRobotProgram(rob, get(), loadNanos);
+				worldComp.repaint();
+			} catch (CancellationException e) {
+				// replaced by a newer load
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof InterruptedIOException) {
+					System.out.println("Loading " + code.getName() + " cancelled");
+				} else if (e.getCause() instanceof IOException) {
+					System.out.println("Robot program source file could not be read: " + e.getCause().getMessage());
+				} else {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
 	public File getCodeFile() {
 		JFileChooser chooser = new JFileChooser(".");// System.getProperty("user.dir"));
 		int res = chooser.showOpenDialog(this);
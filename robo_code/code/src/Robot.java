@@ -1,20 +1,10 @@
-import java.awt.BasicStroke;
-import java.awt.Color;
-import java.awt.Graphics2D;
-import java.awt.Point;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Arc2D;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.function.Consumer;
 
-import javax.imageio.ImageIO;
-
-public class Robot {
+public class Robot implements RobotControl {
 
 	// =======================================================
 	// Public methods that can be called by the interpreter:
@@ -28,28 +18,7 @@ public class Robot {
 	 */
 	public void move() {
 		debug("move");
-		currentAction = ACTION_MOVE;
-		if (dir == DIRECTION.NORTH)
-			targetY -= 1;
-		else if (dir == DIRECTION.WEST)
-			targetX -= 1;
-		else if (dir == DIRECTION.SOUTH)
-			targetY += 1;
-		else
-			targetX += 1;
-		targetX = Math.max(0, targetX);
-		targetY = Math.max(0, targetY);
-		targetX = Math.min(11, targetX);
-		targetY = Math.min(11, targetY);
-		Robot other = world.getOtherRobot(this);
-		if (other != null) {
-			if (other.targetX == targetX && other.targetY == targetY) {
-				// not allowed to move
-				targetX = x;
-				targetY = y;
-			}
-		}
-		processFuelAndBlock();
+		act(ACTION_MOVE);
 		readState();
 	}
 
@@ -58,22 +27,7 @@ public class Robot {
 	 */
 	public void turnLeft() {
 		debug("turnL");
-		currentAction = ACTION_TURN_LEFT;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.WEST;
-			break;
-		case WEST:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.EAST;
-			break;
-		case EAST:
-			targetDir = DIRECTION.NORTH;
-			break;
-		}
-		processFuelAndBlock();
+		act(ACTION_TURN_LEFT);
 		readState();
 	}
 
@@ -82,22 +36,7 @@ public class Robot {
 	 */
 	public void turnRight() {
 		debug("turnR");
-		currentAction = ACTION_TURN_RIGHT;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.EAST;
-			break;
-		case WEST:
-			targetDir = DIRECTION.NORTH;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.WEST;
-			break;
-		case EAST:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		}
-		processFuelAndBlock();
+		act(ACTION_TURN_RIGHT);
 		readState();
 	}
 
@@ -106,22 +45,7 @@ public class Robot {
 	 */
 	public void turnAround() {
 		debug("turnAround");
-		currentAction = ACTION_TURN_AROUND;
-		switch (dir) {
-		case NORTH:
-			targetDir = DIRECTION.SOUTH;
-			break;
-		case WEST:
-			targetDir = DIRECTION.EAST;
-			break;
-		case SOUTH:
-			targetDir = DIRECTION.NORTH;
-			break;
-		case EAST:
-			targetDir = DIRECTION.WEST;
-			break;
-		}
-		processFuelAndBlock();
+		act(ACTION_TURN_AROUND);
 		readState();
 	}
 
@@ -131,6 +55,7 @@ public class Robot {
 	 */
 	public void setShield(boolean shield) {
 		debug("shield " + (shield ? "on" : "off"));
+		metrics.actions[WorldMetrics.ACTION_SHIELD].increment();
 		this.shield = shield;
 		readState();
 	}
@@ -140,8 +65,7 @@ public class Robot {
 	 */
 	public void takeFuel() {
 		debug("takeFuel");
-		currentAction = ACTION_TAKE_FUEL;
-		processFuelAndBlock();
+		act(ACTION_TAKE_FUEL);
 		readState();
 	}
 
@@ -150,8 +74,7 @@ public class Robot {
 	 */
 	public void idleWait() {
 		debug("wait");
-		currentAction = ACTION_WAIT;
-		processFuelAndBlock();
+		act(ACTION_WAIT);
 		readState();
 	}
 
@@ -167,6 +90,7 @@ public class Robot {
 	public int getDistanceToWall() {
 		if (cancelled)
 			throw new RobotInterruptedException();
+		metrics.sensorCalls.increment();
 		switch (dir) {
 		case NORTH:
 			return y;
@@ -190,13 +114,10 @@ public class Robot {
 	public int getOpponentLR() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppLR=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppLR=" + otherRobotPos.x);
-			return otherRobotPos.x;
-		}
+		metrics.sensorCalls.increment();
+		if (debugging())
+			debug((oppLR == INFINITY) ? "oppLR=INFINTY" : "oppLR=" + oppLR);
+		return oppLR;
 	}
 
 	/**
@@ -209,13 +130,10 @@ public class Robot {
 	public int getOpponentFB() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		if (otherRobotPos == null) {
-			debug("oppFB=INFINTY");
-			return INFINITY;
-		} else {
-			debug("oppFB=" + otherRobotPos.y);
-			return otherRobotPos.y;
-		}
+		metrics.sensorCalls.increment();
+		if (debugging())
+			debug((oppFB == INFINITY) ? "oppFB=INFINTY" : "oppFB=" + oppFB);
+		return oppFB;
 	}
 
 	/**
@@ -224,8 +142,11 @@ public class Robot {
 	public int numBarrels() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("numBarrels = " + barrels.size());
-		return barrels.size();
+		metrics.sensorCalls.increment();
+		int count = barrels[0];
+		if (debugging())
+			debug("numBarrels = " + count);
+		return count;
 	}
 
 	/**
@@ -264,8 +185,11 @@ public class Robot {
 	public int getBarrelLR(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).x;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		metrics.sensorCalls.increment();
+		int[] b = barrels;
+		int val = (n >= b[0]) ? INFINITY : unpackLR(b[n + 1]);
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelLR = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -279,8 +203,11 @@ public class Robot {
 	public int getBarrelFB(int n) {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		int val = (n >= barrels.size()) ? INFINITY : barrels.get(n).y;
-		debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
+		metrics.sensorCalls.increment();
+		int[] b = barrels;
+		int val = (n >= b[0]) ? INFINITY : unpackFB(b[n + 1]);
+		if (debugging())
+			debug(((n == 0) ? "" : (n + "th")) + "closestBarrelFB = " + ((val == INFINITY) ? "INFINITY" : "" + val));
 		return val;
 	}
 
@@ -292,7 +219,9 @@ public class Robot {
 	public int getFuel() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		debug("fuel=" + fuel);
+		metrics.sensorCalls.increment();
+		if (debugging())
+			debug("fuel=" + fuel);
 		return fuel;
 	}
 
@@ -302,6 +231,7 @@ public class Robot {
 	public boolean isShieldOn() {
 		if (cancelled)
 			throw new RobotInterruptedException();
+		metrics.sensorCalls.increment();
 		debug(shield ? "shield is on" : "shield is off");
 		return shield;
 	}
@@ -316,25 +246,66 @@ public class Robot {
 	    ACTION_TURN_AROUND = 4, ACTION_TAKE_FUEL = 5, ACTION_WAIT = 6,
 	    INFINITY = Integer.MAX_VALUE;  
 
-	private static final int
+	static final int
 	    FUEL_IDLE = 3, FUEL_MOVE = 6, FUEL_TURN = 5, FUEL_SHIELD = 15;
 
+	/** Whether robots with programs print each action and sensor reading. */
+	public static boolean debugDisplay = true;
+
         private enum DIRECTION { NORTH, WEST, SOUTH, EAST }
 
+	private static final DIRECTION[] DIRECTIONS = DIRECTION.values();
+	/**
+	 * How the position of a cell relative to a robot facing each DIRECTION
+	 * follows from the cell's offset (dx, dy) from the robot:
+	 * { left-right per dx, left-right per dy, front-back per dx, front-back
+	 * per dy }.
+	 */
+	private static final int[][] ROTATION = { { 1, 0, 0, -1 }, { 0, -1, -1, 0 }, { -1, 0, 0, 1 }, { 0, 1, 1, 0 } };
+	private static final int[] NO_BARRELS = { 0 };
+
         private World world;
-	private Point otherRobotPos;
-	private List<Point> barrels = new ArrayList<Point>();
+	/**
+	 * Where the other robot was, relative to this one, at the last update,
+	 * or INFINITY if there is no other robot.
+	 */
+	private int oppLR = INFINITY, oppFB = INFINITY;
+	/**
+	 * The barrels at the last update: how many there are, then where each is
+	 * relative to this robot, packed by pack, closest first. updatePending
+	 * fills the spare array and then swaps the two, so a robot that reads its
+	 * sensors while the world updates it sees one update's barrels or the
+	 * other's.
+	 */
+	private int[] barrels = NO_BARRELS, spareBarrels = NO_BARRELS;
 	private RobotProgramNode program;
+	/** The program's run, if it is limited to a number of statements a tick. */
+	private ExecutionContext context;
 
-	private boolean shield, dead, finished, cancelled;
+	private boolean shield;
+	private volatile boolean dead, finished, cancelled;
 	private int fuel = 100, targetFuel;
 	private int x, y, targetX, targetY;
         private DIRECTION dir, targetDir;
     //	private int x, y, dir, targetX, targetY, targetDir;
-	private int currentAction;
+	private volatile int currentAction;
+	/** Guards the hand-over of each action between the robot and the world. */
+	private final Object turn = new Object();
+	/**
+	 * Whether the current action has been resolved, so that the world may
+	 * carry it out. Guarded by turn.
+	 */
+	private boolean chosen;
 	private String colour;
-	private BufferedImage robotImage1, robotImage2, shieldImage;
+	/** What the current action did, for publishActions. */
+	private boolean tookBarrel;
+	private int siphoned = -1;
+	/** The fuel the shield costs in the update being carried out. */
+	private int shieldFuel;
 	private boolean noWait = false;
+	private final WorldMetrics.RobotMetrics metrics;
+	/** Where readState sends states instead of System.out, if set. */
+	private Consumer<String> trace;
 
 	public Robot(World world, int x, int y, String colour, boolean noWait) {
 		this.world = world;
@@ -347,13 +318,37 @@ public class Robot {
 		dir = (y < World.SIZE / 2) ? DIRECTION.SOUTH : DIRECTION.NORTH;
 		targetDir = dir;
 		targetFuel = fuel;
-		try {
-			robotImage1 = ImageIO.read(new File("assets/robot_" + colour + "_1.png"));
-			robotImage2 = ImageIO.read(new File("assets/robot_" + colour + "_2.png"));
-			shieldImage = ImageIO.read(new File("assets/shield.png"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		metrics = world.getMetrics().robot(colour);
+	}
+
+	/**
+	 * Copies what draw needs of another robot's current state.
+	 */
+	private Robot(Robot other) {
+		world = other.world;
+		colour = other.colour;
+		noWait = true;
+		metrics = other.metrics;
+		x = other.x;
+		y = other.y;
+		targetX = other.targetX;
+		targetY = other.targetY;
+		dir = other.dir;
+		targetDir = other.targetDir;
+		fuel = other.fuel;
+		targetFuel = other.targetFuel;
+		shield = other.shield;
+		currentAction = other.currentAction;
+		dead = other.dead;
+		finished = other.finished;
+	}
+
+	/**
+	 * @return a copy of this robot as it is now, which can be drawn later or
+	 *         on another thread, but not run
+	 */
+	Robot snapshot() {
+		return new Robot(this);
 	}
 
 	private ArrayList<String> history = new ArrayList<>();
@@ -363,13 +358,35 @@ public class Robot {
 	 */
 	public void readState() {
 		String state = "x=" + x + " y=" + y + " dir=" + dir + " fuel=" + fuel + " shield=" + shield;
+		if (trace != null) {
+			trace.accept(state);
+			return;
+		}
 		history.add(state);
 		System.out.println(state);
 	}
 
+	/**
+	 * Sends each state to the given consumer as it is read, instead of
+	 * printing it and keeping it in the history, and stops printing debugging
+	 * messages. The consumer may throw RobotInterruptedException to stop the
+	 * robot.
+	 */
+	void setTrace(Consumer<String> trace) {
+		this.trace = trace;
+	}
+
+	/**
+	 * @return the states recorded by readState so far, oldest first.
+	 */
+	public List<String> getHistory() {
+		return Collections.unmodifiableList(history);
+	}
+
 	/**
 	 * Set the program of this robot, if the controller represents is a valid
-	 * program
+	 * program. The program is not modified by running it, so the same instance
+	 * may be given to many robots.
 	 */
 	public void setProgram(RobotProgramNode prog) {
 		program = prog;
@@ -381,7 +398,13 @@ public class Robot {
 	 */
 	public void run() {
 		if (program != null) {
-			program.execute(this);
+			ExecutionContext ctx = new ExecutionContext(program, this);
+			if (world.getPipeline() != null) {
+				// a robot that takes too long to choose mustn't hold the others up
+				context = ctx;
+				ctx.setStatementsPerTick(BatchSimulator.STATEMENTS_PER_TICK, this::passTick);
+			}
+			ctx.run();
 		} else {
 			defaultProgram();
 		}
@@ -406,105 +429,201 @@ public class Robot {
 	 */
 	public void setFinished(boolean finished) {
 		this.finished = finished;
-		if (finished)
+		if (finished) {
 			updatePending();
+			TickPipeline pipeline = world.getPipeline();
+			if (pipeline != null)
+				pipeline.leave();
+		}
 	}
 
 	/**
-	 * Called by the GUI only.
-	 * 
-	 * @param g2d
-	 * @param time
+	 * Waits until this robot has chosen its next action, has finished, or the
+	 * time runs out. Called by the "World" only.
+	 *
+	 * @return whether the robot is ready for the world to update
 	 */
-	public void draw(Graphics2D g2d, double time) {
-		double x = this.x * (1 - time) + targetX * time;
-		double y = this.y * (1 - time) + targetY * time;
-		x = x * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
-		y = y * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
-
-		double angle = getAngle(dir);
-		switch (currentAction) {
-		case ACTION_TURN_LEFT:
-			angle -= Math.toRadians(90) * time;
-			break;
-		case ACTION_TURN_RIGHT:
-			angle += Math.toRadians(90) * time;
-			break;
-		case ACTION_TURN_AROUND:
-			angle += Math.toRadians(180) * time;
-			break;
+	public boolean awaitAction(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		synchronized (turn) {
+			long left = millis;
+			while (!chosen && !finished && !cancelled && left > 0) {
+				turn.wait(left);
+				left = end - System.currentTimeMillis();
+			}
+			return chosen || finished || cancelled;
 		}
+	}
 
-		AffineTransform trans = new AffineTransform();
-		trans.translate(x, y);
-		trans.rotate(angle);
-		trans.translate(-robotImage1.getWidth() / 2d, -robotImage1.getHeight() / 2d);
+	/**
+	 * @return this robot's current update, indexed as described in MatchLog:
+	 *         where it is and what it is doing
+	 */
+	int[] getUpdate() {
+		int[] update = new int[MatchLog.UPDATE_SIZE];
+		getUpdate(update);
+		return update;
+	}
 
-		if (((int) (time * 10)) % 2 == 0 && currentAction < ACTION_TAKE_FUEL && currentAction > 0) {
-			g2d.drawImage(robotImage2, trans, null);
-		} else {
-			g2d.drawImage(robotImage1, trans, null);
+	/**
+	 * Copies this robot's current update into the given array, of
+	 * MatchLog.UPDATE_SIZE.
+	 */
+	void getUpdate(int[] update) {
+		update[MatchLog.X] = x;
+		update[MatchLog.Y] = y;
+		update[MatchLog.DIR] = dir.ordinal();
+		update[MatchLog.FUEL] = fuel;
+		update[MatchLog.SHIELD] = shield ? 1 : 0;
+		update[MatchLog.ACTION] = currentAction;
+		update[MatchLog.TARGET_X] = targetX;
+		update[MatchLog.TARGET_Y] = targetY;
+		update[MatchLog.TARGET_DIR] = targetDir.ordinal();
+		update[MatchLog.TARGET_FUEL] = targetFuel;
+		update[MatchLog.SHIELD_FUEL] = shieldFuel;
+	}
+
+	/**
+	 * Publishes the action this robot has chosen for the update being carried
+	 * out, and what it did. Called by the "World" only, before updatePending.
+	 */
+	void publishActions(WorldEvents events, long tick, int id) {
+		int action = currentAction;
+		if (action == 0) {
+			return;
+		}
+		WorldEvents.Event event = events.claim(WorldEvents.Type.ACTION, tick);
+		event.robot = id;
+		event.action = action;
+		events.publish();
+		if (tookBarrel) {
+			event = events.claim(WorldEvents.Type.FUEL_TAKEN, tick);
+			event.robot = id;
+			event.x = x;
+			event.y = y;
+			events.publish();
+		}
+		if (siphoned >= 0) {
+			event = events.claim(WorldEvents.Type.SIPHON, tick);
+			event.robot = id;
+			event.fuel = siphoned;
+			events.publish();
 		}
+	}
 
-		if (shield) {
-			trans = new AffineTransform();
-			trans.translate(x - 25, y - 25);
-			g2d.drawImage(shieldImage, trans, null);
+	/**
+	 * Counts what the current action did in the world's metrics.
+	 */
+	void countActions(WorldMetrics metrics) {
+		if (currentAction == 0) {
+			return;
+		}
+		if (tookBarrel) {
+			metrics.barrelsTaken.increment();
 		}
+		if (siphoned >= 0) {
+			metrics.siphons.increment();
+		}
+	}
 
-		double fuelCurrent = targetFuel * time + fuel * (1 - time);
-		if (fuelCurrent <= 0)
-			dead = true;
+	/**
+	 * Puts the robot in the middle of an update from a match log, to be drawn.
+	 */
+	void setUpdate(int[] update) {
+		x = update[MatchLog.X];
+		y = update[MatchLog.Y];
+		dir = DIRECTIONS[update[MatchLog.DIR]];
+		fuel = update[MatchLog.FUEL];
+		shield = update[MatchLog.SHIELD] != 0;
+		currentAction = update[MatchLog.ACTION];
+		targetX = update[MatchLog.TARGET_X];
+		targetY = update[MatchLog.TARGET_Y];
+		targetDir = DIRECTIONS[update[MatchLog.TARGET_DIR]];
+		targetFuel = update[MatchLog.TARGET_FUEL];
+		shieldFuel = update[MatchLog.SHIELD_FUEL];
+		dead = targetFuel <= 0;
+	}
+
+	/**
+	 * @return the colour of the robot, which RobotSprite draws it in
+	 */
+	String getColour() {
+		return colour;
+	}
+
+	WorldMetrics.RobotMetrics getMetrics() {
+		return metrics;
+	}
 
-		// draw fuel indicator
-		Arc2D fuelArc = new Arc2D.Double(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
-		g2d.setStroke(new BasicStroke(3));
-		g2d.setColor(Color.GREEN);
-		g2d.draw(fuelArc);
+	/**
+	 * @return whether the robot's program has finished
+	 */
+	boolean isFinished() {
+		return finished;
 	}
 
+	/**
+	 * @return whether the robot's fuel had run out by the last world update
+	 */
 	public boolean isDead() {
 		return dead;
 	}
 
-	private Point getOtherRobotPosition() {
-		Robot other = world.getOtherRobot(this);
-		return (other != null) ? toRelative(new Point(other.x, other.y)) : null;
+	/**
+	 * @return the left-right position of the cell (px, py) relative to this
+	 *         robot: -ve if to the left, +ve if to the right
+	 */
+	private int relativeLR(int px, int py) {
+		int[] r = ROTATION[dir.ordinal()];
+		return r[0] * (px - x) + r[1] * (py - y);
 	}
 
-	private Point toRelative(Point p) {
-		int rx = p.x;
-		int ry = p.y;
-		switch (dir) {
-		case NORTH:
-			return new Point(rx - x, y - ry);
-		case SOUTH:
-			return new Point(x - rx, ry - y);
-		case WEST:
-			return new Point(y - ry, x - rx);
-		case EAST:
-			return new Point(ry - y, rx - x);
-		}
-		return null;
+	/**
+	 * @return the front-back position of the cell (px, py) relative to this
+	 *         robot: +ve if in front, -ve if behind
+	 */
+	private int relativeFB(int px, int py) {
+		int[] r = ROTATION[dir.ordinal()];
+		return r[2] * (px - x) + r[3] * (py - y);
 	}
 
-	private double getAngle(DIRECTION direction) {
-		switch (direction) {
-		case NORTH:
-			return 0;
-		case WEST:
-			return Math.toRadians(270);
-		case SOUTH:
-			return Math.toRadians(180);
-		case EAST:
-			return Math.toRadians(90);
+	/**
+	 * Packs a relative position into an int, left-right in the high half and
+	 * front-back in the low half.
+	 */
+	private static int pack(int lr, int fb) {
+		return (lr << 16) | (fb & 0xFFFF);
+	}
+
+	private static int unpackLR(int packed) {
+		return packed >> 16;
+	}
+
+	private static int unpackFB(int packed) {
+		return (short) packed;
+	}
+
+	private static int distance(int packed) {
+		return Math.abs(unpackLR(packed)) + Math.abs(unpackFB(packed));
+	}
+
+	/**
+	 * Inserts a barrel among the n sorted from b[1], after those no further
+	 * away, so that barrels as close as each other stay in the order the
+	 * world's set gives them.
+	 */
+	private static void insert(int[] b, int n, int packed) {
+		int d = distance(packed), i = n;
+		for (; i > 0 && distance(b[i]) > d; i--) {
+			b[i + 1] = b[i];
 		}
-		return 0;
+		b[i + 1] = packed;
 	}
 
 	private void processFuel() {
 		// use fuel
 		targetFuel = fuel;
+		shieldFuel = 0;
 		switch (currentAction) {
 		case ACTION_MOVE:
 			targetFuel -= FUEL_MOVE;
@@ -519,18 +638,21 @@ public class Robot {
 			targetFuel -= FUEL_TURN;
 			break;
 		case ACTION_TAKE_FUEL:
-			if (world.getAvailableFuel().contains(new Point(x, y))) {
-				world.getAvailableFuel().remove(new Point(x, y));
+			if (world.getAvailableFuel().remove(Cell.at(x, y))) {
+				tookBarrel = true;
 				targetFuel = 100;
 				return;
 			} else {// try to siphon fuel
 				Robot other = world.getOtherRobot(this);
 				if (other != null && !other.shield) {
-					Point otherP = getOtherRobotPosition(); // relative position
-					if (otherP.x == 0 && otherP.y == 1) {
-						System.out.println("Taking fuel");
+					// right in front
+					if (relativeLR(other.x, other.y) == 0 && relativeFB(other.x, other.y) == 1) {
+						if (trace == null) {
+							System.out.println("Taking fuel");
+						}
 						int takeFuel = Math.min(25, other.targetFuel / 2);
 						takeFuel = Math.min(other.targetFuel, takeFuel);
+						siphoned = takeFuel;
 						targetFuel = Math.min(100, targetFuel + takeFuel);
 						other.targetFuel -= takeFuel;
 						return;
@@ -543,24 +665,148 @@ public class Robot {
 			targetFuel -= FUEL_IDLE;
 			break;
 		}
-		if (shield)
+		if (shield) {
 			targetFuel -= FUEL_SHIELD;
+			shieldFuel = FUEL_SHIELD;
+		}
+	}
+
+	/**
+	 * Works out where the chosen action takes the robot and the fuel it
+	 * leaves it with. Called as the robot chooses the action, or by the
+	 * "World" as it carries out every robot's action in a TickPipeline.
+	 */
+	void resolve() {
+		if (currentAction == 0) {
+			// passed the tick without acting (see passTick)
+			return;
+		}
+		switch (currentAction) {
+		case ACTION_MOVE:
+			if (dir == DIRECTION.NORTH)
+				targetY -= 1;
+			else if (dir == DIRECTION.WEST)
+				targetX -= 1;
+			else if (dir == DIRECTION.SOUTH)
+				targetY += 1;
+			else
+				targetX += 1;
+			targetX = Math.max(0, targetX);
+			targetY = Math.max(0, targetY);
+			targetX = Math.min(11, targetX);
+			targetY = Math.min(11, targetY);
+			Robot other = world.getOtherRobot(this);
+			if (other != null) {
+				if (other.targetX == targetX && other.targetY == targetY) {
+					// not allowed to move
+					targetX = x;
+					targetY = y;
+				}
+			}
+			break;
+		case ACTION_TURN_LEFT:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.WEST;
+				break;
+			case WEST:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.EAST;
+				break;
+			case EAST:
+				targetDir = DIRECTION.NORTH;
+				break;
+			}
+			break;
+		case ACTION_TURN_RIGHT:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.EAST;
+				break;
+			case WEST:
+				targetDir = DIRECTION.NORTH;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.WEST;
+				break;
+			case EAST:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			}
+			break;
+		case ACTION_TURN_AROUND:
+			switch (dir) {
+			case NORTH:
+				targetDir = DIRECTION.SOUTH;
+				break;
+			case WEST:
+				targetDir = DIRECTION.EAST;
+				break;
+			case SOUTH:
+				targetDir = DIRECTION.NORTH;
+				break;
+			case EAST:
+				targetDir = DIRECTION.WEST;
+				break;
+			}
+			break;
+		}
+		processFuel();
+		metrics.actions[currentAction].increment();
+		if (targetFuel < fuel) {
+			metrics.fuelSpent.add(fuel - targetFuel);
+		}
 	}
 
-	private void processFuelAndBlock() {
+	/**
+	 * Lets a tick of a pipelined world pass without acting, as a robot in an
+	 * unpipelined world does if it is slow to choose: called when the program
+	 * has run its statements for the tick.
+	 */
+	private void passTick() {
 		if (cancelled)
 			throw new RobotInterruptedException();
-		// use fuel
-		processFuel();
+		if (!world.getPipeline().chosen())
+			throw new RobotInterruptedException();
+	}
+
+	/**
+	 * Chooses the action, and waits until the world has carried it out.
+	 */
+	private void act(int action) {
+		if (cancelled)
+			throw new RobotInterruptedException();
+		currentAction = action;
+		TickPipeline pipeline = world.getPipeline();
+		if (pipeline != null) {
+			long blocked = System.nanoTime();
+			if (!pipeline.chosen())
+				throw new RobotInterruptedException();
+			metrics.blockedNanos.add(System.nanoTime() - blocked);
+			if (context != null)
+				context.startTick();
+			return;
+		}
+		resolve();
 		if (this.noWait) {
 			updatePending();
 		} else {
-			while (currentAction != 0) {
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException e) {
+			long blocked = System.nanoTime();
+			synchronized (turn) {
+				// tell the world the action is chosen, only once it is resolved,
+				// then wait for it to happen
+				chosen = true;
+				turn.notifyAll();
+				while (chosen && !cancelled) {
+					try {
+						turn.wait();
+					} catch (InterruptedException e) {
+					}
 				}
 			}
+			metrics.blockedNanos.add(System.nanoTime() - blocked);
 		}
 	}
 
@@ -569,42 +815,62 @@ public class Robot {
 	 */
 	public void updatePending() {
 		// reset turn
+		tookBarrel = false;
+		siphoned = -1;
 		x = targetX;
 		y = targetY;
 		dir = targetDir;
 		fuel = targetFuel;
+		if (fuel <= 0)
+			dead = true;
+		shieldFuel = 0;
 		if (finished) {
 			currentAction = ACTION_WAIT;
 			processFuel();
 		}
-		otherRobotPos = getOtherRobotPosition();
-		barrels = new ArrayList<Point>(world.getAvailableFuel());
-		for (int i = 0; i < barrels.size(); i++) {
-			Point p = toRelative(barrels.get(i));
-			barrels.set(i, p);
+		Robot other = world.getOtherRobot(this);
+		if (other != null) {
+			oppLR = relativeLR(other.x, other.y);
+			oppFB = relativeFB(other.x, other.y);
+		} else {
+			oppLR = oppFB = INFINITY;
 		}
-		Collections.sort(barrels, new Comparator<Point>() {
-
-			@Override
-			public int compare(Point p1, Point p2) {
-				int d1 = Math.abs(p1.x) + Math.abs(p1.y);
-				int d2 = Math.abs(p2.x) + Math.abs(p2.y);
-				return d1 - d2;
+		int[] b = (spareBarrels != NO_BARRELS) ? spareBarrels : new int[1 + World.SIZE * World.SIZE];
+		int n = 0;
+		for (Cell p : world.getAvailableFuel()) {
+			if (n + 2 > b.length) {
+				b = Arrays.copyOf(b, 2 * b.length);
 			}
-		});
-		currentAction = 0;
+			insert(b, n++, pack(relativeLR(p.x, p.y), relativeFB(p.x, p.y)));
+		}
+		b[0] = n;
+		spareBarrels = barrels;
+		barrels = b;
+		synchronized (turn) {
+			currentAction = 0;
+			chosen = false;
+			turn.notifyAll();
+		}
 	}
 
 	public String toString() {
 		return "the " + colour + " robot @(" + x + "," + y + ")";
 	}
 
+	/**
+	 * @return whether debug prints anything, so that a sensor only builds its
+	 *         message if it does
+	 */
+	private boolean debugging() {
+		return debugDisplay && program != null && trace == null;
+	}
+
 	/**
 	 * print a message about the action to System.out if debugging is currently
 	 * turned on.
 	 */
 	private void debug(String action) {
-		if (RoboGame.debugDisplay && program != null) {
+		if (debugging()) {
 			System.out.println(colour + " robot: " + action);
 		}
 	}
@@ -0,0 +1,8 @@
+/**
+ * Interface for all nodes that can be evaluated as the condition
+ * of an if or while statement
+ */
+
+interface RobotConditionNode {
+	public boolean evaluate(ExecutionContext ctx);
+}
@@ -0,0 +1,34 @@
+/**
+ * The actions and sensors a program can use, as called by the interpreter.
+ * Implemented by Robot, and by anything else a program can drive.
+ */
+
+interface RobotControl {
+	public void move();
+
+	public void turnLeft();
+
+	public void turnRight();
+
+	public void turnAround();
+
+	public void takeFuel();
+
+	public void idleWait();
+
+	public void setShield(boolean shield);
+
+	public int getFuel();
+
+	public int getOpponentLR();
+
+	public int getOpponentFB();
+
+	public int numBarrels();
+
+	public int getClosestBarrelLR();
+
+	public int getClosestBarrelFB();
+
+	public int getDistanceToWall();
+}
@@ -0,0 +1,137 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Arc2D;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Draws robots: the images of a robot of one colour, and how a robot is drawn
+ * part way through an update. Robot itself knows nothing of drawing, so that
+ * a match can be played without loading AWT or the images.
+ */
+class RobotSprite {
+
+	private static final BasicStroke FUEL_STROKE = new BasicStroke(3);
+	private static final Map<String, RobotSprite> sprites = new ConcurrentHashMap<String, RobotSprite>();
+	/** Each drawing thread's scratch, as sprites are shared between threads. */
+	private static final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * What a thread draws with, reused from frame to frame so that drawing
+	 * allocates nothing.
+	 */
+	private static class Scratch {
+		final int[] update = new int[MatchLog.UPDATE_SIZE];
+		final Arc2D.Double fuelArc = new Arc2D.Double(Arc2D.OPEN);
+		final Rectangle bounds = new Rectangle();
+	}
+
+	private final BufferedImage robotImage1, robotImage2, shieldImage;
+
+	private RobotSprite(String colour) {
+		robotImage1 = Sprites.get("robot_" + colour + "_1");
+		robotImage2 = Sprites.get("robot_" + colour + "_2");
+		shieldImage = Sprites.get("shield");
+	}
+
+	/**
+	 * @return the sprite of the robot's colour, loaded once per process
+	 */
+	static RobotSprite of(Robot robot) {
+		return sprites.computeIfAbsent(robot.getColour(), RobotSprite::new);
+	}
+
+	/**
+	 * Draws the robot the given fraction of the way through its current
+	 * update, unless it is outside the clip (if there is one).
+	 */
+	void draw(Graphics2D g2d, Rectangle clip, Robot robot, double time) {
+		Scratch s = scratch.get();
+		int[] u = s.update;
+		robot.getUpdate(u);
+		if (clip != null && !clip.intersects(getDrawBounds(u, s.bounds))) {
+			return;
+		}
+		double x = u[MatchLog.X] * (1 - time) + u[MatchLog.TARGET_X] * time;
+		double y = u[MatchLog.Y] * (1 - time) + u[MatchLog.TARGET_Y] * time;
+		x = x * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
+		y = y * WorldComponent.GRID_SIZE + WorldComponent.GRID_SIZE / 2d;
+
+		int action = u[MatchLog.ACTION];
+		double angle = getAngle(u[MatchLog.DIR]);
+		switch (action) {
+		case Robot.ACTION_TURN_LEFT:
+			angle -= Math.toRadians(90) * time;
+			break;
+		case Robot.ACTION_TURN_RIGHT:
+			angle += Math.toRadians(90) * time;
+			break;
+		case Robot.ACTION_TURN_AROUND:
+			angle += Math.toRadians(180) * time;
+			break;
+		}
+
+		BufferedImage image = robotImage1;
+		if (((int) (time * 10)) % 2 == 0 && action < Robot.ACTION_TAKE_FUEL && action > 0) {
+			image = robotImage2;
+		}
+		image = Sprites.rotated(image, angle);
+		g2d.drawImage(image, (int) Math.round(x - image.getWidth() / 2d), (int) Math.round(y - image.getHeight() / 2d),
+				null);
+
+		if (u[MatchLog.SHIELD] != 0) {
+			g2d.drawImage(shieldImage, (int) Math.round(x) - 25, (int) Math.round(y) - 25, null);
+		}
+
+		double fuelCurrent = u[MatchLog.TARGET_FUEL] * time + u[MatchLog.FUEL] * (1 - time);
+
+		// draw fuel indicator
+		s.fuelArc.setArc(x - 10, y - 10, 20, 20, -90, 360d * fuelCurrent / 100d, Arc2D.OPEN);
+		g2d.setStroke(FUEL_STROKE);
+		g2d.setColor(Color.GREEN);
+		g2d.draw(s.fuelArc);
+	}
+
+	/**
+	 * @return the area draw may paint over during the robot's current update,
+	 *         from where the robot is to where it is going, as a new
+	 *         rectangle to keep
+	 */
+	Rectangle getDrawBounds(Robot robot) {
+		int[] u = scratch.get().update;
+		robot.getUpdate(u);
+		return getDrawBounds(u, new Rectangle());
+	}
+
+	/**
+	 * Sets bounds to the area draw may paint over during the given update.
+	 *
+	 * @return bounds
+	 */
+	private Rectangle getDrawBounds(int[] u, Rectangle bounds) {
+		int x = u[MatchLog.X], y = u[MatchLog.Y], targetX = u[MatchLog.TARGET_X], targetY = u[MatchLog.TARGET_Y];
+		int grid = WorldComponent.GRID_SIZE;
+		bounds.setBounds(Math.min(x, targetX) * grid, Math.min(y, targetY) * grid,
+				(Math.abs(targetX - x) + 1) * grid, (Math.abs(targetY - y) + 1) * grid);
+		// the robot image may stick out of its cell while it turns
+		int reach = 0;
+		if (robotImage1 != null) {
+			reach = (int) Math.ceil(Math.hypot(robotImage1.getWidth(), robotImage1.getHeight()) / 2);
+		}
+		int margin = Math.max(0, reach - grid / 2) + 2;
+		bounds.grow(margin, margin);
+		return bounds;
+	}
+
+	/**
+	 * @return the angle a robot facing the given direction (an ordinal of
+	 *         Robot's directions, which go round anticlockwise from north) is
+	 *         drawn at
+	 */
+	private static double getAngle(int dir) {
+		return Math.toRadians(90 * ((4 - dir) % 4));
+	}
+}
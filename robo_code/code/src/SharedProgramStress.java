@@ -0,0 +1,94 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stress test for sharing one parsed program between many robots. Parses the
+ * program once, then runs it in many headless worlds in parallel and checks
+ * that every robot produced exactly the trace of a single sequential run.
+ *
+ * Usage: SharedProgramStress program.prog fuel.txt [worlds] [threads]
+ */
+public class SharedProgramStress {
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2) {
+			System.out.println("Usage: SharedProgramStress program.prog fuel.txt [worlds] [threads]");
+			return;
+		}
+		final Path fuel = Paths.get(args[1]);
+		int worlds = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+		int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		final RobotProgramNode prog = Parser.parseFile(new File(args[0]));
+		if (prog == null) {
+			return;
+		}
+
+		// the robots print every state, which we don't want thousands of copies of.
+		PrintStream out = System.out;
+		Robot.debugDisplay = false;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		try {
+			List<String> expected = runOnce(prog, fuel);
+
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			long start = System.nanoTime();
+			for (int i = 0; i < worlds; i++) {
+				results.add(pool.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws IOException {
+						return runOnce(prog, fuel);
+					}
+				}));
+			}
+
+			int mismatches = 0;
+			long actions = 0;
+			for (Future<List<String>> result : results) {
+				try {
+					List<String> trace = result.get();
+					actions += trace.size();
+					if (!trace.equals(expected)) {
+						mismatches++;
+					}
+				} catch (ExecutionException e) {
+					mismatches++;
+					e.getCause().printStackTrace(out);
+				}
+			}
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+
+			out.println(worlds + " worlds on " + threads + " threads in " + (elapsed / 1000000) + "ms ("
+					+ (actions * 1000000000L / Math.max(1, elapsed)) + " actions/s)");
+			out.println(mismatches == 0 ? "PASSED" : "FAILED: " + mismatches + " traces differ");
+			if (mismatches != 0) {
+				System.exit(1);
+			}
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	private static List<String> runOnce(RobotProgramNode prog, Path fuel) throws IOException {
+		World.RoboGamePrinter world = new World.RoboGamePrinter();
+		world.loadFuel(fuel);
+		Robot robot = world.getRobot(1);
+		robot.setProgram(prog);
+		robot.run();
+		return robot.getHistory();
+	}
+}
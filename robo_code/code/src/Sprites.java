@@ -0,0 +1,95 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The images in the assets folder, each loaded once per process and shared by
+ * every world and robot.
+ *
+ * Images that are drawn rotated have their rotations drawn up front, every
+ * 360 / ROTATIONS degrees, so drawing one at any angle is just a copy of the
+ * nearest rotation.
+ */
+class Sprites {
+
+	/** The number of rotations drawn of each image: every 5 degrees. */
+	static final int ROTATIONS = 72;
+
+	private static final Map<String, BufferedImage> images = new ConcurrentHashMap<String, BufferedImage>();
+	private static final Map<BufferedImage, BufferedImage[]> rotations = new ConcurrentHashMap<BufferedImage, BufferedImage[]>();
+
+	/**
+	 * @return assets/name.png, or null (after printing why) if it can't be read
+	 */
+	static BufferedImage get(String name) {
+		BufferedImage image = images.get(name);
+		if (image == null) {
+			try {
+				image = premultiplied(ImageIO.read(new File("assets/" + name + ".png")));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			BufferedImage loaded = images.putIfAbsent(name, image);
+			if (loaded != null) {
+				image = loaded;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the image rotated clockwise by the given angle, to the nearest
+	 * step, about its centre. The result is square, with the same centre, and
+	 * large enough to hold the image at any angle.
+	 */
+	static BufferedImage rotated(BufferedImage image, double radians) {
+		BufferedImage[] frames = rotations.get(image);
+		if (frames == null) {
+			frames = rotations(image);
+			BufferedImage[] drawn = rotations.putIfAbsent(image, frames);
+			if (drawn != null) {
+				frames = drawn;
+			}
+		}
+		int step = (int) Math.round(radians / (2 * Math.PI) * ROTATIONS);
+		return frames[Math.floorMod(step, ROTATIONS)];
+	}
+
+	private static BufferedImage[] rotations(BufferedImage image) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int size = (int) Math.ceil(Math.hypot(w, h));
+		BufferedImage[] frames = new BufferedImage[ROTATIONS];
+		for (int i = 0; i < ROTATIONS; i++) {
+			BufferedImage frame = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D g2d = frame.createGraphics();
+			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+			g2d.translate(size / 2d, size / 2d);
+			g2d.rotate(2 * Math.PI * i / ROTATIONS);
+			g2d.translate(-w / 2d, -h / 2d);
+			g2d.drawImage(image, 0, 0, null);
+			g2d.dispose();
+			frames[i] = frame;
+		}
+		return frames;
+	}
+
+	/**
+	 * Copies an image into the format that Java2D draws fastest with alpha.
+	 */
+	private static BufferedImage premultiplied(BufferedImage image) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g2d = copy.createGraphics();
+		g2d.drawImage(image, 0, 0, null);
+		g2d.dispose();
+		return copy;
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs a world's robots in lockstep, so that a match plays out the same way
+ * every time it is played with the same seed.
+ *
+ * Without it, a robot works out what its action does (where it moves to,
+ * whose fuel it takes) as soon as it chooses it, so the outcome of a tick
+ * depends on which robot's thread gets there first. With it, each tick has
+ * two phases, on a Phaser that every robot and the world are parties to:
+ *
+ * <ol>
+ * <li>choose: every robot runs its program until it chooses an action, all
+ * at once, on their own threads. Nothing a robot senses changes in this
+ * phase: its sensors read the world as it was at the last update, and
+ * choosing an action only records it.
+ * <li>commit: once every robot has chosen, the world carries the actions out
+ * one robot after another, in the order of the robots, while the robots
+ * wait. The order settles every conflict: of two robots moving to the same
+ * cell, or taking the same barrel, the first gets it. A shield raised in the
+ * choose phase is up for the whole commit phase, so a robot can't siphon
+ * fuel from a robot that raised its shield in the same tick.
+ * </ol>
+ *
+ * A robot whose program finishes leaves the pipeline, and the world waits
+ * for it no more. Stopping the pipeline releases every robot waiting in it.
+ */
+class TickPipeline {
+
+	/** The world is a party too, registered from the start. */
+	private final Phaser phaser = new Phaser(1);
+	/** The choose phase the world has arrived at, or -1. */
+	private int arrival = -1;
+	/** The last commit phase, which the robots may not all have left. */
+	private int committing = -1;
+	private boolean allChosen;
+
+	/**
+	 * Adds robots to the pipeline. Call before starting their threads.
+	 */
+	void add(int robots) {
+		phaser.bulkRegister(robots);
+	}
+
+	/**
+	 * Called by a robot's thread when it has chosen its action: waits for
+	 * the other robots to choose theirs and for the world to carry them out.
+	 *
+	 * @return false if the pipeline was stopped instead
+	 */
+	boolean chosen() {
+		phaser.arriveAndAwaitAdvance();
+		return phaser.arriveAndAwaitAdvance() >= 0;
+	}
+
+	/**
+	 * Called by a robot's thread when its program has finished.
+	 */
+	void leave() {
+		phaser.arriveAndDeregister();
+	}
+
+	/**
+	 * Waits, for at most the given time, until every robot has chosen its
+	 * action. Called by the world's thread only.
+	 *
+	 * @return whether they all have
+	 */
+	boolean awaitChoices(long millis) throws InterruptedException {
+		if (!allChosen) {
+			arrive();
+			try {
+				phaser.awaitAdvanceInterruptibly(arrival, millis, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				return false;
+			}
+			arrival = -1;
+			allChosen = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for as long as it takes until every robot has chosen its action.
+	 * Called by the world's thread only.
+	 */
+	void awaitChoices() {
+		if (!allChosen) {
+			arrive();
+			phaser.awaitAdvance(arrival);
+			arrival = -1;
+			allChosen = true;
+		}
+	}
+
+	/**
+	 * Arrives at this tick's choose phase, once. The robots may not all have
+	 * arrived at the last commit phase yet, and arriving before they have
+	 * would count twice in that phase, so this waits for it to end first.
+	 */
+	private void arrive() {
+		if (arrival < 0) {
+			phaser.awaitAdvance(committing);
+			arrival = phaser.arrive();
+		}
+	}
+
+	/**
+	 * Lets the robots go on to choose their next actions, once the world has
+	 * carried out these. Called by the world's thread only.
+	 */
+	void committed() {
+		allChosen = false;
+		committing = phaser.arrive();
+	}
+
+	/**
+	 * Releases every robot waiting in the pipeline, for good.
+	 */
+	void stop() {
+		phaser.forceTermination();
+	}
+}
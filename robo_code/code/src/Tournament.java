@@ -0,0 +1,221 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a round robin between a pool of programs and prints the standings.
+ * Every program plays every other both as robot 1 and as robot 2, on the
+ * same seeds, in BatchSimulators on every core.
+ *
+ * With -store, results are kept in a MatchStore, and a tournament that is
+ * run again only plays the matches the store has no result for: those of
+ * programs that are new or have changed, and any new seeds. (A World's
+ * robots race, so a World doesn't play a match the same way twice; a
+ * BatchSimulator does, which is what makes its results worth keeping.)
+ *
+ * Usage: Tournament [-store FILE] [-seeds K] [-seed S] [-ticks T]
+ * [-threads N] prog...
+ */
+public class Tournament {
+
+	/** A program in the pool, and how it has done. */
+	static class Entry {
+		final String name;
+		final RobotProgramNode program;
+		final long hash;
+		int won, drawn, lost;
+
+		Entry(String name, RobotProgramNode program) {
+			this.name = name;
+			this.program = program;
+			this.hash = ProgramPrinter.hash(ProgramPrinter.print(program));
+		}
+
+		double points() {
+			return won + drawn / 2.0;
+		}
+	}
+
+	private final Entry[] entries;
+	private final int seeds;
+	private final long seed, maxTicks;
+	private final MatchStore store;
+	private long played, stored;
+
+	Tournament(Entry[] entries, int seeds, long seed, long maxTicks, MatchStore store) {
+		this.entries = entries;
+		this.seeds = seeds;
+		this.seed = seed;
+		this.maxTicks = maxTicks;
+		this.store = store;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int seeds = 10, threads = Runtime.getRuntime().availableProcessors();
+		long seed = 1, maxTicks = 1000;
+		File storeFile = null;
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-store":
+				storeFile = new File(args[i + 1]);
+				break;
+			case "-seeds":
+				seeds = Integer.parseInt(args[i + 1]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[i + 1]);
+				break;
+			case "-ticks":
+				maxTicks = Long.parseLong(args[i + 1]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[i + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (args.length - i < 2) {
+			System.err.println("Usage: Tournament [-store FILE] [-seeds K] [-seed S] [-ticks T] [-threads N] prog...");
+			System.exit(2);
+		}
+		Entry[] entries = new Entry[args.length - i];
+		for (int e = 0; e < entries.length; e++) {
+			File file = new File(args[i + e]);
+			RobotProgramNode prog = Parser.loadFile(file);
+			if (prog == null) {
+				System.exit(1);
+			}
+			entries[e] = new Entry(file.getName(), prog);
+		}
+
+		long start = System.nanoTime();
+		MatchStore store = (storeFile != null) ? MatchStore.open(storeFile) : null;
+		if (store != null) {
+			System.out.printf("%s: %d results, read in %.2fs%n", storeFile, store.size(),
+					(System.nanoTime() - start) / 1e9);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Tournament tournament = new Tournament(entries, seeds, seed, maxTicks, store);
+		try {
+			tournament.play(pool);
+		} finally {
+			pool.shutdown();
+			if (store != null) {
+				store.close();
+			}
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d matches in %.2fs: %d played, %d from the store%n", tournament.played + tournament.stored,
+				secs, tournament.played, tournament.stored);
+		tournament.printStandings();
+	}
+
+	/**
+	 * Plays, or looks up, every pairing's matches on the pool, and adds them
+	 * up.
+	 */
+	void play(ExecutorService pool) throws Exception {
+		List<Future<MatchStore.Result[]>> results = new ArrayList<Future<MatchStore.Result[]>>();
+		List<int[]> pairings = new ArrayList<int[]>();
+		for (int a = 0; a < entries.length; a++) {
+			for (int b = 0; b < entries.length; b++) {
+				if (a == b) {
+					continue;
+				}
+				final Entry one = entries[a], two = entries[b];
+				pairings.add(new int[] { a, b });
+				results.add(pool.submit(new Callable<MatchStore.Result[]>() {
+					@Override
+					public MatchStore.Result[] call() throws IOException {
+						return play(one, two);
+					}
+				}));
+			}
+		}
+		for (int p = 0; p < pairings.size(); p++) {
+			Entry one = entries[pairings.get(p)[0]], two = entries[pairings.get(p)[1]];
+			for (MatchStore.Result r : results.get(p).get()) {
+				if (r.winner == 1) {
+					one.won++;
+					two.lost++;
+				} else if (r.winner == 2) {
+					one.lost++;
+					two.won++;
+				} else {
+					one.drawn++;
+					two.drawn++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the result of each seed's match between two programs, from the
+	 *         store where it has them, and otherwise played now
+	 */
+	private MatchStore.Result[] play(Entry one, Entry two) throws IOException {
+		MatchStore.Result[] results = new MatchStore.Result[seeds];
+		// the simulator plays consecutive seeds, so those from the first
+		// missing to the last are played
+		int first = (store == null) ? 0 : seeds, last = seeds - 1;
+		for (int m = 0; m < seeds && store != null; m++) {
+			results[m] = store.get(key(one, two, m));
+			if (results[m] == null) {
+				first = Math.min(first, m);
+				last = m;
+			}
+		}
+		if (first == seeds) {
+			count(0, seeds);
+			return results;
+		}
+		BatchSimulator sim = new BatchSimulator(last - first + 1);
+		sim.start(one.program, two.program, seed + first);
+		sim.run(maxTicks);
+		for (int m = first; m <= last; m++) {
+			MatchStore.Result result = MatchStore.Result.of(sim, m - first);
+			if (results[m] == null && store != null) {
+				store.put(key(one, two, m), result);
+			}
+			results[m] = result;
+		}
+		if (store != null) {
+			store.flush();
+		}
+		count(last - first + 1, seeds - (last - first + 1));
+		return results;
+	}
+
+	private MatchStore.Key key(Entry one, Entry two, int m) {
+		return new MatchStore.Key(one.hash, two.hash, seed + m, maxTicks, BatchSimulator.ENGINE_VERSION);
+	}
+
+	private synchronized void count(long played, long stored) {
+		this.played += played;
+		this.stored += stored;
+	}
+
+	void printStandings() {
+		Entry[] sorted = entries.clone();
+		Arrays.sort(sorted, Comparator.comparingDouble(Entry::points).reversed().thenComparing(e -> e.name));
+		int width = 7;
+		for (Entry e : sorted) {
+			width = Math.max(width, e.name.length());
+		}
+		System.out.printf("%4s  %-" + width + "s %6s %6s %6s %8s%n", "", "program", "won", "drawn", "lost", "points");
+		for (int r = 0; r < sorted.length; r++) {
+			Entry e = sorted[r];
+			System.out.printf("%4d  %-" + width + "s %6d %6d %6d %8.1f%n", r + 1, e.name, e.won, e.drawn, e.lost,
+					e.points());
+		}
+	}
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Grades many programs against many fuel layouts in one JVM, running each
+ * program as RoboGamePrinter does and comparing its states with an expected
+ * trace as they are read. A run stops at the first state that differs from
+ * the expected one. Runs are spread over a pool of threads, and neither trace
+ * is ever held in memory.
+ *
+ * The expected trace of prog.prog with the layout fuel.txt is the file
+ * prog.fuel.trace in the expected directory. Lines of it that aren't states
+ * are skipped, so RoboGamePrinter's output can be used as it is. With -write,
+ * the traces are written there instead of being compared. A program that is
+ * still running when it reaches the step limit neither passes nor fails, and
+ * no trace is written for it.
+ *
+ * Usage: TraceGrader [-threads T] [-steps K] [-write] -expected DIR -fuel FILE
+ * [-fuel FILE ...] prog...
+ */
+public class TraceGrader {
+
+	/**
+	 * What a run came to: PASS, FAIL, LIMIT if the program reached the step
+	 * limit, or ERROR if it couldn't be run.
+	 */
+	static class Result {
+		final String program, fuel, outcome, detail;
+
+		Result(String program, String fuel, String outcome, String detail) {
+			this.program = program;
+			this.fuel = fuel;
+			this.outcome = outcome;
+			this.detail = detail;
+		}
+
+		@Override
+		public String toString() {
+			return outcome + " " + program + " with " + fuel + ": " + detail;
+		}
+	}
+
+	/**
+	 * Compares each state with the next state of an expected trace, and stops
+	 * the robot at the first that differs.
+	 */
+	static class TraceComparator implements Consumer<String> {
+		private final BufferedReader expected;
+		private long line;
+		private String mismatch;
+
+		TraceComparator(BufferedReader expected) {
+			this.expected = expected;
+		}
+
+		@Override
+		public void accept(String state) {
+			line++;
+			String want = nextState();
+			if (want == null) {
+				mismatch = "expected the trace to end but was <" + state + ">";
+			} else if (!want.equals(state)) {
+				mismatch = "expected <" + want + "> but was <" + state + ">";
+			} else {
+				return;
+			}
+			throw new RobotInterruptedException();
+		}
+
+		/**
+		 * Checks that the expected trace has no more states, once the robot
+		 * has finished.
+		 */
+		void finish() {
+			if (mismatch == null) {
+				String want = nextState();
+				if (want != null) {
+					line++;
+					mismatch = "expected <" + want + "> but the trace ended";
+				}
+			}
+		}
+
+		/**
+		 * @return a description of the first difference, or null if there
+		 *         wasn't one
+		 */
+		String getMismatch() {
+			return mismatch;
+		}
+
+		long getLine() {
+			return line;
+		}
+
+		private String nextState() {
+			try {
+				String s;
+				while ((s = expected.readLine()) != null) {
+					if (s.startsWith("x=")) {
+						return s;
+					}
+				}
+				return null;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private final File expectedDir;
+	private final long steps;
+	private final boolean write;
+
+	TraceGrader(File expectedDir, long steps, boolean write) {
+		this.expectedDir = expectedDir;
+		this.steps = steps;
+		this.write = write;
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		long steps = 1000000;
+		boolean write = false;
+		File expected = null;
+		List<File> fuels = new ArrayList<File>();
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			switch (args[i]) {
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-steps":
+				steps = Long.parseLong(args[++i]);
+				break;
+			case "-expected":
+				expected = new File(args[++i]);
+				break;
+			case "-fuel":
+				fuels.add(new File(args[++i]));
+				break;
+			case "-write":
+				write = true;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (expected == null || fuels.isEmpty() || i == args.length) {
+			System.err.println("Usage: TraceGrader [-threads T] [-steps K] [-write] -expected DIR -fuel FILE "
+					+ "[-fuel FILE ...] prog...");
+			System.exit(2);
+		}
+
+		TraceGrader grader = new TraceGrader(expected, steps, write);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CompletionService<Result> results = new ExecutorCompletionService<Result>(pool);
+		int runs = 0;
+		long start = System.nanoTime();
+		for (; i < args.length; i++) {
+			File program = new File(args[i]);
+			RobotProgramNode prog;
+			try {
+				prog = load(program);
+			} catch (FileNotFoundException | ParserFailureException e) {
+				for (File fuel : fuels) {
+					results.submit(() -> new Result(program.getName(), fuel.getName(), "ERROR", e.getMessage()));
+					runs++;
+				}
+				continue;
+			}
+			for (File fuel : fuels) {
+				results.submit(() -> grader.grade(program, prog, fuel));
+				runs++;
+			}
+		}
+
+		int passed = 0;
+		PrintStream out = System.out;
+		for (int r = 0; r < runs; r++) {
+			Result result = results.take().get();
+			if (result.outcome.equals("PASS")) {
+				passed++;
+			}
+			out.println(result);
+		}
+		pool.shutdown();
+		double secs = (System.nanoTime() - start) / 1e9;
+		out.printf("%d of %d runs passed on %d threads in %.1fs: %.0f runs/s%n", passed, runs, threads, secs,
+				runs / secs);
+		if (passed < runs) {
+			System.exit(1);
+		}
+	}
+
+	private static RobotProgramNode load(File program) throws FileNotFoundException {
+		if (CompiledProgram.isCompiled(program)) {
+			return CompiledProgram.load(program);
+		}
+		try (Scanner scan = new Scanner(program)) {
+			return Parser.parse(scan, true);
+		}
+	}
+
+	/**
+	 * @return the expected trace of a program with a fuel layout
+	 */
+	File expectedTrace(File program, File fuel) {
+		return new File(expectedDir, baseName(program) + "." + baseName(fuel) + ".trace");
+	}
+
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return (dot > 0) ? name.substring(0, dot) : name;
+	}
+
+	/**
+	 * Runs the program with the fuel layout as RoboGamePrinter does, comparing
+	 * (or writing) its trace as it goes.
+	 */
+	Result grade(File program, RobotProgramNode prog, File fuel) {
+		String name = program.getName(), fuelName = fuel.getName();
+		File trace = expectedTrace(program, fuel);
+		World.RoboGamePrinter world = new World.RoboGamePrinter();
+		Robot robot = world.getRobot(1);
+		robot.setProgram(prog);
+		try {
+			world.loadFuel(fuel.toPath());
+			if (write) {
+				// written beside the trace, and only moved over it if the
+				// program finishes
+				File partial = new File(trace.getPath() + ".part");
+				long[] states = new long[1];
+				boolean finished;
+				try (BufferedWriter w = Files.newBufferedWriter(partial.toPath(), StandardCharsets.UTF_8)) {
+					robot.setTrace(state -> {
+						try {
+							w.write(state);
+							w.newLine();
+							states[0]++;
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					});
+					finished = run(robot, prog);
+				} catch (IOException | RuntimeException e) {
+					Files.deleteIfExists(partial.toPath());
+					throw e;
+				}
+				if (!finished) {
+					Files.delete(partial.toPath());
+					return limit(name, fuelName, states[0]);
+				}
+				Files.move(partial.toPath(), trace.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				return new Result(name, fuelName, "PASS", "wrote " + states[0] + " states to " + trace);
+			}
+			if (!trace.isFile()) {
+				return new Result(name, fuelName, "ERROR", "no expected trace " + trace);
+			}
+			try (BufferedReader expected = Files.newBufferedReader(Paths.get(trace.getPath()),
+					StandardCharsets.UTF_8)) {
+				TraceComparator comparator = new TraceComparator(expected);
+				robot.setTrace(comparator);
+				boolean finished = run(robot, prog);
+				if (!finished && comparator.getMismatch() == null) {
+					return limit(name, fuelName, comparator.getLine());
+				}
+				comparator.finish();
+				if (comparator.getMismatch() != null) {
+					return new Result(name, fuelName, "FAIL",
+							"state " + comparator.getLine() + ": " + comparator.getMismatch());
+				}
+				return new Result(name, fuelName, "PASS", comparator.getLine() + " states");
+			}
+		} catch (IOException | RuntimeException e) {
+			return new Result(name, fuelName, "ERROR", e.toString());
+		}
+	}
+
+	private Result limit(String name, String fuelName, long states) {
+		return new Result(name, fuelName, "LIMIT", "still running after " + steps + " steps, " + states + " states");
+	}
+
+	/**
+	 * @return whether the program finished, rather than being stopped by a
+	 *         difference or the step limit
+	 */
+	private boolean run(Robot robot, RobotProgramNode prog) {
+		ExecutionContext ctx = new ExecutionContext(prog, robot);
+		ctx.setStepLimit(steps);
+		try {
+			ctx.run();
+			return true;
+		} catch (RobotInterruptedException e) {
+			return false;
+		}
+	}
+}
@@ -1,9 +1,9 @@
 
-import java.awt.Point;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
 import java.util.List;
@@ -15,9 +15,17 @@ public class World {
 
 	public static final int SIZE = 12;
 
-	protected Set<Point> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Point, Boolean>());
+	protected Set<Cell> availableFuel = Collections.newSetFromMap(new ConcurrentHashMap<Cell, Boolean>());
 	private Random rand = new Random();
 	protected Robot[] robots;
+	private final WorldMetrics metrics = new WorldMetrics();
+	private final WorldEvents events = new WorldEvents();
+	private MatchLog.Writer recorder;
+	private long ticks;
+	private boolean timedOut;
+	private TickPipeline pipeline;
+	/** Whether the robots' actions for this update have been carried out. */
+	private boolean resolved;
 
 	public World() {
 		robots = new Robot[] { null, new Robot(this, 0, 0, "red", false), new Robot(this, SIZE - 1, SIZE - 1, "blue", false) };
@@ -32,21 +40,198 @@ public class World {
 			robots[i].updatePending();
 			robots[i].cancel();
 		}
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+		events.close();
 	}
 
-	public Set<Point> getAvailableFuel() {
+	public Set<Cell> getAvailableFuel() {
 		return availableFuel;
 	}
 
+	/**
+	 * Carries out the actions the robots have chosen, and publishes what
+	 * happened to the world's event listeners. Only one thread may update a
+	 * world. A pipelined world waits, for as long as it takes, until every
+	 * robot has chosen.
+	 */
 	public void updateWorld() {
+		long start = System.nanoTime();
+		if (pipeline != null) {
+			pipeline.awaitChoices();
+			resolveActions();
+		}
+		long tick = ticks++;
+		if (events.hasListeners()) {
+			for (int i = 1; i <= 2; i++) {
+				WorldEvents.Event event = events.claim(WorldEvents.Type.UPDATE, tick);
+				event.robot = i;
+				robots[i].getUpdate(event.update);
+				events.publish();
+			}
+			for (int i = 1; i <= 2; i++) {
+				robots[i].publishActions(events, tick, i);
+			}
+		}
+		for (int i = 1; i <= 2; i++) {
+			robots[i].countActions(metrics);
+		}
+		events.claim(WorldEvents.Type.TICK, tick);
+		events.publish();
+
 		addFuel(false);
 		for (int i = 1; i <= 2; i++) {
+			boolean dead = robots[i].isDead();
 			robots[i].updatePending();
+			if (!dead && robots[i].isDead()) {
+				WorldEvents.Event event = events.claim(WorldEvents.Type.DEATH, tick);
+				event.robot = i;
+				events.publish();
+			}
+		}
+		if (pipeline != null) {
+			resolved = false;
+			pipeline.committed();
+		}
+		events.flush();
+		metrics.recordTick(System.nanoTime() - start);
+	}
+
+	/**
+	 * Waits, for at most the given time, until both robots have chosen their
+	 * next action (or finished), so that an update doesn't pass a robot by.
+	 * A pipelined world then carries out the actions, so that they can be
+	 * drawn before the update.
+	 *
+	 * @return whether every robot is ready
+	 */
+	public boolean awaitActions(long millis) throws InterruptedException {
+		if (pipeline != null) {
+			if (!pipeline.awaitChoices(millis)) {
+				return false;
+			}
+			resolveActions();
+			return true;
+		}
+		long end = System.currentTimeMillis() + millis;
+		boolean ready = true;
+		for (int i = 1; i <= 2; i++) {
+			ready &= robots[i].awaitAction(Math.max(0, end - System.currentTimeMillis()));
+		}
+		return ready;
+	}
+
+	/**
+	 * Carries out the actions of a pipelined world's robots, in turn, once
+	 * they have all chosen.
+	 */
+	private void resolveActions() {
+		if (!resolved) {
+			for (int i = 1; i < robots.length; i++) {
+				if (!robots[i].isFinished()) {
+					robots[i].resolve();
+				}
+			}
+			resolved = true;
+		}
+	}
+
+	/**
+	 * Plays the match without a window: starts the robots, and updates the
+	 * world as soon as both have chosen their actions, until a robot runs out
+	 * of fuel, maxTicks updates have passed, or the time runs out. Reset the
+	 * world afterwards to stop the robots. A pipelined world stops at a
+	 * robot that is still choosing when the time runs out. A match cut short
+	 * by the time running out is marked timed out (see isTimedOut).
+	 *
+	 * @return the number of updates
+	 */
+	public long play(long maxTicks, long timeoutMillis) throws InterruptedException {
+		long end = System.nanoTime() + Math.min(timeoutMillis, Long.MAX_VALUE / 4000000) * 1000000;
+		start();
+		long t = 0;
+		for (; t < maxTicks && !isOver(); t++) {
+			long left = (end - System.nanoTime()) / 1000000;
+			if (left <= 0) {
+				timedOut = true;
+				break;
+			}
+			if (!awaitActions(left) && pipeline != null) {
+				timedOut = true;
+				break;
+			}
+			updateWorld();
 		}
+		return t;
+	}
+
+	/**
+	 * Seeds where barrels appear, so a match can be repeated. A match is only
+	 * certain to play out the same way again in a pipelined world.
+	 */
+	public void setSeed(long seed) {
+		rand.setSeed(seed);
+	}
+
+	/**
+	 * @return whether play ran out of time before the match was over, so
+	 *         that the match was cut short rather than played out
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * @return whether either robot has run out of fuel
+	 */
+	public boolean isOver() {
+		return robots[1].isDead() || robots[2].isDead();
 	}
 
+	/**
+	 * Records each update from now on in the given match log, or stops
+	 * recording if it is null, once the log has been given every update so
+	 * far. The log is not closed. Set the recorder before starting the world,
+	 * so it sees the first barrels.
+	 */
+	public synchronized void setRecorder(MatchLog.Writer recorder) {
+		if (this.recorder != null) {
+			events.unsubscribe(this.recorder);
+		}
+		this.recorder = recorder;
+		if (recorder != null) {
+			events.subscribe(recorder);
+		}
+	}
+
+	/**
+	 * @return the events of this world, for listeners to subscribe to
+	 */
+	WorldEvents getEvents() {
+		return events;
+	}
+
+	public WorldMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Loads a program from a .prog source file or a compiled program file.
+	 */
 	public void loadRobotProgram(int id, File code) {
-		RobotProgramNode prog = Parser.parseFile(code);
+		long start = System.nanoTime();
+		RobotProgramNode prog = Parser.loadFile(code);
+		setRobotProgram(id, prog, System.nanoTime() - start);
+	}
+
+	/**
+	 * Gives a robot a program that has already been loaded, and records how
+	 * long loading it took. A null program, from a failed load, is ignored.
+	 */
+	public void setRobotProgram(int id, RobotProgramNode prog, long loadNanos) {
+		metrics.parseNanos.record(loadNanos);
+		robots[id].getMetrics().parseNanos = loadNanos;
 		if (prog != null) {
 			System.out.println("Robot " + id + " now has program: ");
 			System.out.println(prog);
@@ -54,32 +239,65 @@ public class World {
 		}
 	}
 
+	/**
+	 * Makes a world for a match between two programs with no one watching:
+	 * pipelined and seeded, so that it plays the same way every time, and
+	 * with the robots' states going nowhere, rather than to System.out and
+	 * their histories. Play it, then reset it.
+	 */
+	static World headless(RobotProgramNode prog1, RobotProgramNode prog2, long seed) {
+		World world = new World();
+		world.setSeed(seed);
+		world.setPipelined(true);
+		world.getRobot(1).setProgram(prog1);
+		world.getRobot(2).setProgram(prog2);
+		for (int r = 1; r <= 2; r++) {
+			world.getRobot(r).setTrace(state -> {
+			});
+		}
+		return world;
+	}
+
+	/**
+	 * Makes the robots choose their actions in lockstep and has the world
+	 * carry them out in turn, so that the match plays out the same way every
+	 * time (see TickPipeline). Call before start.
+	 */
+	public void setPipelined(boolean pipelined) {
+		pipeline = pipelined ? new TickPipeline() : null;
+	}
+
+	/**
+	 * @return the pipeline the robots choose their actions in, or null if
+	 *         each robot acts as soon as it chooses
+	 */
+	TickPipeline getPipeline() {
+		return pipeline;
+	}
+
 	public void start() {
 		// add some initial fuel
 		if (availableFuel.isEmpty()) {
 			addFuel(true);
 			addFuel(true);
+			events.flush();
 		}
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					robots[1].run();
-				} catch (RobotInterruptedException e) {
-				}
-				robots[1].setFinished(true);
-			}
-		}).start();
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					robots[2].run();
-				} catch (RobotInterruptedException e) {
+		if (pipeline != null) {
+			pipeline.add(robots.length - 1);
+		}
+		for (int i = 1; i < robots.length; i++) {
+			final Robot robot = robots[i];
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						robot.run();
+					} catch (RobotInterruptedException e) {
+					}
+					robot.setFinished(true);
 				}
-				robots[2].setFinished(true);
-			}
-		}).start();
+			}).start();
+		}
 	}
 
 	public Robot getRobot(int id) {
@@ -102,8 +320,14 @@ public class World {
 		if (definitely || rand.nextDouble() < 0.2) {
 			int x = rand.nextInt(12);
 			int y = rand.nextInt(12);
-			Point fuel = new Point(x, y);
-			availableFuel.add(fuel);
+			Cell fuel = Cell.at(x, y);
+			if (availableFuel.add(fuel)) {
+				metrics.barrelsSpawned.increment();
+				WorldEvents.Event event = events.claim(WorldEvents.Type.BARREL_SPAWNED, ticks - 1);
+				event.x = x;
+				event.y = y;
+				events.publish();
+			}
 		}
 	}
 	
@@ -125,20 +349,27 @@ public class World {
 			RoboGamePrinter rgp = new RoboGamePrinter();
 			
 			// load the program.
-			RobotProgramNode prog = Parser.parseFile(new File(args[0]));
+			RobotProgramNode prog = Parser.loadFile(new File(args[0]));
 			rgp.robots[1].setProgram(prog);
 			
 			// load fuel placement from file.
-			List<String> fuel = Files.readAllLines(Paths.get(args[1]), StandardCharsets.UTF_8);
+			rgp.loadFuel(Paths.get(args[1]));
+			
+			// run the robot.
+			rgp.robots[1].run();
+		}
+
+		/**
+		 * Adds a barrel for each "x y" line of the given fuel placement file.
+		 */
+		public void loadFuel(Path file) throws IOException {
+			List<String> fuel = Files.readAllLines(file, StandardCharsets.UTF_8);
 			for (String line : fuel) {
 				String[] coords = line.split("\\s+");
 				int x = Integer.parseInt(coords[0]);
 				int y = Integer.parseInt(coords[1]);
-				rgp.availableFuel.add(new Point(x, y));
+				availableFuel.add(new Cell(x, y));
 			}
-			
-			// run the robot.
-			rgp.robots[1].run();
 		}
 	}
 }
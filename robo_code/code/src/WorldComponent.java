@@ -1,71 +1,202 @@
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.GraphicsEnvironment;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.imageio.ImageIO;
 import javax.swing.JComponent;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
+/**
+ * Shows a World. The world is updated by its own simulation thread, at a rate
+ * set by setTickMillis (down to 0, which runs it as fast as the robots can
+ * choose actions). Painting is separate: it samples the current state at the
+ * display's refresh rate, interpolating the robots' movement within a tick
+ * when ticks are slow enough to see.
+ *
+ * The grid and barrels are drawn once into a cached background image, which
+ * is redrawn only when the barrels change. Each frame then repaints just the
+ * areas around the robots and any cells whose barrels came or went.
+ */
 @SuppressWarnings("serial")
 public class WorldComponent extends JComponent {
 
 	public static final int GRID_SIZE = 50;
-	private static final int ANIMATION_DELAY = 20;
-	private static final int WORLD_UPDATE_DELAY = 33;
+	/** The original speed: one update every 33 frames of 20ms. */
+	public static final long DEFAULT_TICK_MILLIS = 660;
+	/** How long an update waits for a robot that is still choosing its action. */
+	private static final long MAX_ACTION_WAIT = 100;
 
-	private BufferedImage fuelImage;
-	private World world;
+	private volatile World world;
 	private Timer timer;
+	private Thread simulation;
 
-	private int frame = 0;
+	private volatile long tickMillis = DEFAULT_TICK_MILLIS;
+	private volatile long lastTick;
+	private final long frameMillis = frameMillis();
+
+	/** The grid and the barrels in backgroundFuel; only touched while painting. */
+	private BufferedImage background;
+	private Set<Cell> backgroundFuel = new HashSet<Cell>();
+	/** Cells whose barrels have come or gone since the last frame. */
+	private final Queue<Rectangle> dirtyCells = new ConcurrentLinkedQueue<Rectangle>();
 
 	public WorldComponent() {
 		super();
+		setOpaque(true);
 		world = new World();
+		world.getEvents().subscribe(new WorldListener(world));
 		setPreferredSize(new Dimension(600, 600));
+	}
 
-		try {
-			fuelImage = ImageIO.read(new File("assets/fuel.png"));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Sets the time between world updates; 0 runs the world unthrottled.
+	 * Takes effect from the next update.
+	 */
+	public void setTickMillis(long millis) {
+		tickMillis = Math.max(0, millis);
 	}
 
+	/**
+	 * Starts the match. If the robo.record system property is set, the match
+	 * is recorded to the file it names (see MatchLog).
+	 */
 	public void start() {
-		timer = new Timer();
-		timer.schedule(new AnimationTask(), 0, ANIMATION_DELAY);
+		MatchLog.Writer recorder = null;
+		String record = System.getProperty("robo.record");
+		if (record != null) {
+			try {
+				recorder = new MatchLog.Writer(new File(record), MatchLog.DEFAULT_INTERVAL);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		world.setRecorder(recorder);
 		world.start();
+		run(new Simulation(world, recorder));
+	}
+
+	/**
+	 * Plays back a recorded match in the current world, at the current speed,
+	 * instead of running the robots' programs.
+	 */
+	public void replay(File log) throws IOException {
+		run(new Replay(world, MatchLog.Reader.open(log)));
+	}
+
+	private void run(Runnable updates) {
+		// published only once there is something to see, as starting JMX
+		// would otherwise add to the time the window takes to open
+		world.getMetrics().publish();
+		lastTick = System.nanoTime();
+		simulation = new Thread(updates, "simulation");
+		simulation.setDaemon(true);
+		simulation.start();
+		timer = new Timer("render", true);
+		timer.schedule(new RenderTask(), 0, frameMillis);
 	}
 
 	public void reset() {
-		if (timer != null)
-			timer.cancel();
+		stop();
 		world.reset();
+		world.getMetrics().unpublish();
 		world = new World();
+		world.getEvents().subscribe(new WorldListener(world));
+	}
+
+	private void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if (simulation != null) {
+			simulation.interrupt();
+			simulation = null;
+		}
 	}
 
 	public void loadRobotProgram(int rob, File code) {
 		world.loadRobotProgram(rob, code);
 	}
 
+	public void setRobotProgram(int rob, RobotProgramNode prog, long loadNanos) {
+		world.setRobotProgram(rob, prog, loadNanos);
+	}
+
 	@Override
 	protected void paintComponent(Graphics g) {
 		Graphics2D g2d = (Graphics2D) g;
+		World world = this.world;
+
+		Set<Cell> fuel = world.getAvailableFuel();
+		if (background == null || background.getWidth() != getWidth() || background.getHeight() != getHeight()
+				|| !backgroundFuel.equals(fuel)) {
+			backgroundFuel = new HashSet<Cell>(fuel);
+			background = drawBackground(backgroundFuel);
+		}
+		g2d.drawImage(background, 0, 0, null);
+		drawRobots(g2d, getTimeRatio(), world.getRobot(1), world.getRobot(2));
+	}
+
+	/**
+	 * Draws the robots over a background, skipping any outside the clip.
+	 */
+	static void drawRobots(Graphics2D g2d, double time, Robot... robots) {
 		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
 		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
 
+		Rectangle clip = g2d.getClipBounds();
+		for (Robot rob : robots) {
+			if (rob != null)
+				RobotSprite.of(rob).draw(g2d, clip, rob, time);
+		}
+	}
+
+	/**
+	 * Draws the grid and the given barrels into a new image the size of this
+	 * component.
+	 */
+	private BufferedImage drawBackground(Set<Cell> fuel) {
+		return drawBackground(fuel, getWidth(), getHeight(), getBackground(), getGraphicsConfiguration());
+	}
+
+	/**
+	 * Draws the grid and the given barrels into a new image, compatible with
+	 * the given configuration if there is one.
+	 */
+	static BufferedImage drawBackground(Set<Cell> fuel, int width, int height, Color background,
+			GraphicsConfiguration config) {
+		width = Math.max(1, width);
+		height = Math.max(1, height);
+		BufferedImage image = (config != null) ? config.createCompatibleImage(width, height)
+				: new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+		Graphics2D g2d = image.createGraphics();
+		g2d.setColor(background);
+		g2d.fillRect(0, 0, width, height);
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+
 		g2d.setColor(Color.BLACK);
 		g2d.setStroke(new BasicStroke(2));
 
@@ -76,48 +207,215 @@ public class WorldComponent extends JComponent {
 			g2d.draw(vline);
 		}
 
-		for (Point fuel : world.getAvailableFuel()) {
-			int x = fuel.x * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
-			int y = fuel.y * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
+		BufferedImage fuelImage = Sprites.get("fuel");
+		for (Cell p : fuel) {
+			int x = p.x * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getWidth() / 2;
+			int y = p.y * GRID_SIZE + GRID_SIZE / 2 - fuelImage.getHeight() / 2;
 			g2d.drawImage(fuelImage, x, y, null);
 		}
+		g2d.dispose();
+		return image;
+	}
 
-		for (int i = 1; i <= 2; i++) {
-			Robot rob;
-			if ((rob = world.getRobot(i)) != null)
-				rob.draw(g2d, getTimeRatio());
+	/**
+	 * How far through the current tick we are, from 0 to 1. Ticks shorter than
+	 * a frame aren't interpolated: the latest state is drawn as it is.
+	 */
+	private double getTimeRatio() {
+		long tick = tickMillis;
+		if (tick <= frameMillis) {
+			return 1;
 		}
+		double ratio = (System.nanoTime() - lastTick) / (tick * 1e6);
+		return Math.min(1, ratio);
 	}
 
-	private double getTimeRatio() {
-		int base = frame / WORLD_UPDATE_DELAY;
-		return (double) frame / WORLD_UPDATE_DELAY - base;
+	/**
+	 * @return the time between frames at the display's refresh rate, or 60fps
+	 *         if that isn't known
+	 */
+	private static long frameMillis() {
+		int hz = DisplayMode.REFRESH_RATE_UNKNOWN;
+		if (!GraphicsEnvironment.isHeadless()) {
+			hz = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode()
+					.getRefreshRate();
+		}
+		if (hz == DisplayMode.REFRESH_RATE_UNKNOWN || hz <= 0) {
+			hz = 60;
+		}
+		return Math.max(1, 1000 / hz);
 	}
 
-	private class AnimationTask extends TimerTask {
+	/**
+	 * Works out which parts of the component have changed since the last frame,
+	 * and paints just those. If painting falls behind, frames are skipped.
+	 */
+	private class RenderTask extends TimerTask {
+		private final AtomicBoolean painting = new AtomicBoolean();
+		private final Rectangle[] robots = new Rectangle[3];
 
-		public AnimationTask() {
-			frame = 0;
+		@Override
+		public void run() {
+			if (!painting.compareAndSet(false, true)) {
+				return;
+			}
+			World world = WorldComponent.this.world;
+			final List<Rectangle> dirty = new ArrayList<Rectangle>();
+
+			Rectangle cell;
+			while ((cell = dirtyCells.poll()) != null) {
+				dirty.add(cell);
+			}
+
+			for (int i = 1; i <= 2; i++) {
+				// where the robot was last drawn, and where it might be drawn now
+				Robot rob = world.getRobot(i);
+				Rectangle last = robots[i];
+				robots[i] = (rob != null) ? RobotSprite.of(rob).getDrawBounds(rob) : null;
+				if (last != null) {
+					dirty.add(last);
+				}
+				if (robots[i] != null && !robots[i].equals(last)) {
+					dirty.add(robots[i]);
+				}
+			}
+
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (Rectangle r : dirty) {
+							paintImmediately(r);
+						}
+					} finally {
+						painting.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Updates the world at the chosen rate until a robot runs out of fuel or
+	 * the component is reset.
+	 */
+	private class Simulation implements Runnable {
+		private final World world;
+		private final MatchLog.Writer recorder;
+
+		Simulation(World world, MatchLog.Writer recorder) {
+			this.world = world;
+			this.recorder = recorder;
 		}
 
 		@Override
 		public void run() {
-			// test for any deaths
-			boolean r1dead = world.getRobot(1).isDead();
-			boolean r2dead = world.getRobot(2).isDead();
-			if (r1dead || r2dead) {
-				timer.cancel();
-				timer = null;
-				String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
-				JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
-				return;
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					long start = System.nanoTime();
+					world.awaitActions(Math.max(tickMillis, MAX_ACTION_WAIT));
+					long wait = tickMillis - (System.nanoTime() - start) / 1000000;
+					if (wait > 0) {
+						Thread.sleep(wait);
+					}
+
+					world.updateWorld();
+					lastTick = System.nanoTime();
+
+					// the game over message comes from the death event
+					if (world.isOver()) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				// reset
+			} finally {
+				if (recorder != null) {
+					world.setRecorder(null);
+					try {
+						recorder.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Listens to a world's events: repaints the barrels that come and go, and
+	 * shows the game over message when a robot runs out of fuel.
+	 */
+	private class WorldListener implements WorldEvents.Listener {
+		private final World world;
+		private boolean over;
+
+		WorldListener(World world) {
+			this.world = world;
+		}
+
+		@Override
+		public void onEvent(WorldEvents.Event event, boolean endOfBatch) {
+			switch (event.type) {
+			case BARREL_SPAWNED:
+			case FUEL_TAKEN:
+				dirtyCells.add(new Rectangle(event.x * GRID_SIZE, event.y * GRID_SIZE, GRID_SIZE, GRID_SIZE));
+				break;
+			case DEATH:
+				if (!over) {
+					over = true;
+					gameOver();
+				}
+				break;
+			default:
 			}
+		}
 
-			// logic tick
-			frame++;
-			if (frame % WORLD_UPDATE_DELAY == 0)
-				world.updateWorld();
-			repaint();
+		private void gameOver() {
+			final boolean r1dead = world.getRobot(1).isDead();
+			final boolean r2dead = world.getRobot(2).isDead();
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					if (world != WorldComponent.this.world) {
+						return; // reset since
+					}
+					if (timer != null) {
+						timer.cancel();
+						timer = null;
+					}
+					repaint();
+					String msg = (r1dead && r2dead) ? "Both robots" : r1dead ? "Robot 1 (red)" : "Robot 2 (blue)";
+					JOptionPane.showMessageDialog(null, msg + " ran out of fuel!");
+				}
+			});
+		}
+	}
+
+	/**
+	 * Shows the updates of a recorded match at the chosen rate.
+	 */
+	private class Replay implements Runnable {
+		private final World world;
+		private final MatchLog.Reader reader;
+
+		Replay(World world, MatchLog.Reader reader) {
+			this.world = world;
+			this.reader = reader;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!Thread.currentThread().isInterrupted() && reader.next(world)) {
+					lastTick = System.nanoTime();
+					Thread.sleep(tickMillis);
+				}
+			} catch (InterruptedException e) {
+				// reset
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 }
@@ -0,0 +1,288 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tells listeners what happens in a world, as it is updated: the robots'
+ * actions, barrels appearing and being taken, fuel siphoned, robots running
+ * out of fuel, and the end of each update.
+ *
+ * Events are written into a ring buffer by the one thread that updates the
+ * world, and are read from it by each listener on its own thread, so the
+ * world doesn't wait for listeners unless one falls a whole buffer behind.
+ * A listener is given everything published since it last looked, in one
+ * batch, with the last event of the batch marked. Listeners' threads are only
+ * started once there is something to deliver, and the buffer is only made
+ * once there is a listener; until then, every event is written into one
+ * spare, which no one reads.
+ */
+class WorldEvents {
+
+	enum Type {
+		/**
+		 * A robot's state at the start of an update; update is Robot.getUpdate,
+		 * copied into the event's own array.
+		 */
+		UPDATE,
+		/** A robot's action in the update. */
+		ACTION,
+		/** A robot took the barrel at x, y. */
+		FUEL_TAKEN,
+		/** A robot took fuel from the other robot. */
+		SIPHON,
+		/** Everything about the update before this has been published. */
+		TICK,
+		/** A barrel appeared at x, y, in time for the next update. */
+		BARREL_SPAWNED,
+		/** A robot ran out of fuel. */
+		DEATH
+	}
+
+	/**
+	 * One event. The fields that don't apply to its type are left as they
+	 * were; events are reused once every listener has seen them, so a listener
+	 * copies anything it keeps, update included.
+	 */
+	static class Event {
+		Type type;
+		long tick;
+		int robot;
+		int action;
+		int x, y;
+		int fuel;
+		final int[] update = new int[MatchLog.UPDATE_SIZE];
+
+		void copy(Event other) {
+			type = other.type;
+			tick = other.tick;
+			robot = other.robot;
+			action = other.action;
+			x = other.x;
+			y = other.y;
+			fuel = other.fuel;
+			System.arraycopy(other.update, 0, update, 0, update.length);
+		}
+
+		@Override
+		public String toString() {
+			switch (type) {
+			case ACTION:
+				return tick + ": robot " + robot + " " + WorldMetrics.ACTION_NAMES[action];
+			case FUEL_TAKEN:
+			case BARREL_SPAWNED:
+				return tick + ": " + type + " robot " + robot + " at (" + x + ", " + y + ")";
+			case SIPHON:
+				return tick + ": robot " + robot + " siphoned " + fuel;
+			default:
+				return tick + ": " + type + " robot " + robot;
+			}
+		}
+	}
+
+	interface Listener {
+		/**
+		 * Called on the listener's own thread for each event in order.
+		 * endOfBatch is true for the last event published so far.
+		 */
+		void onEvent(Event event, boolean endOfBatch);
+	}
+
+	private static final int SIZE = 1024; // a power of two
+	private static final int MASK = SIZE - 1;
+
+	/** The buffer, made by the first subscribe. */
+	private volatile Event[] ring;
+	/** What events are written into while there is no ring. */
+	private final Event spare = new Event();
+	/** The event last claimed; only used by the publisher. */
+	private Event claimed;
+	/** The sequence number of the last event published. */
+	private final AtomicLong cursor = new AtomicLong(-1);
+	/** The sequence number of the next event; only used by the publisher. */
+	private long next;
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	/** Listeners with nothing to do wait on this. */
+	private final Object lock = new Object();
+
+	/**
+	 * Starts delivering events published from now on to the listener.
+	 */
+	void subscribe(Listener listener) {
+		synchronized (spare) {
+			if (ring == null) {
+				Event[] events = new Event[SIZE];
+				for (int i = 0; i < SIZE; i++) {
+					events[i] = new Event();
+				}
+				ring = events;
+			}
+			subscriptions.add(new Subscription(listener, cursor.get()));
+		}
+	}
+
+	/**
+	 * Stops delivering events to the listener, once it has been given those
+	 * already published.
+	 */
+	void unsubscribe(Listener listener) {
+		for (Subscription s : subscriptions) {
+			if (s.listener == listener) {
+				subscriptions.remove(s);
+				s.stop();
+			}
+		}
+	}
+
+	/**
+	 * Unsubscribes every listener.
+	 */
+	void close() {
+		for (Subscription s : subscriptions) {
+			unsubscribe(s.listener);
+		}
+	}
+
+	/**
+	 * @return whether anything is listening, so publishers can skip working
+	 *         out events no one will see
+	 */
+	boolean hasListeners() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * Returns the next event to fill in, waiting if a listener hasn't seen
+	 * the event it replaces yet. The event is only seen once published.
+	 */
+	Event claim(Type type, long tick) {
+		Event[] ring = this.ring;
+		Event event = spare;
+		if (ring != null) {
+			while (next - slowest() >= SIZE) {
+				flush();
+				LockSupport.parkNanos(50000);
+			}
+			event = ring[(int) (next & MASK)];
+		}
+		claimed = event;
+		event.type = type;
+		event.tick = tick;
+		event.robot = 0;
+		return event;
+	}
+
+	/**
+	 * Publishes the event last claimed.
+	 */
+	void publish() {
+		if (claimed == spare) {
+			// a listener subscribed since the claim expects this event in the ring
+			synchronized (spare) {
+				if (ring != null) {
+					ring[(int) (next & MASK)].copy(spare);
+				}
+				cursor.set(next++);
+			}
+			return;
+		}
+		cursor.set(next++);
+	}
+
+	/**
+	 * Delivers the events published so far; the publisher calls this at the
+	 * end of each update.
+	 */
+	void flush() {
+		for (Subscription s : subscriptions) {
+			s.start();
+		}
+		wake();
+	}
+
+	private void wake() {
+		synchronized (lock) {
+			lock.notifyAll();
+		}
+	}
+
+	private long slowest() {
+		long min = next - 1;
+		for (Subscription s : subscriptions) {
+			min = Math.min(min, s.seen);
+		}
+		return min;
+	}
+
+	/**
+	 * A listener and how far through the events it is.
+	 */
+	private class Subscription implements Runnable {
+		private final Listener listener;
+		private volatile long seen;
+		private volatile boolean running = true;
+		private Thread thread;
+
+		Subscription(Listener listener, long seen) {
+			this.listener = listener;
+			this.seen = seen;
+		}
+
+		synchronized void start() {
+			if (thread == null && running) {
+				thread = new Thread(this, "world-events");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		void stop() {
+			Thread t;
+			synchronized (this) {
+				running = false;
+				t = thread;
+			}
+			wake();
+			if (t != null && t != Thread.currentThread()) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			} else if (t == null) {
+				// never started, so deliver what there is here
+				run();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				long available = cursor.get();
+				if (available > seen) {
+					for (long s = seen + 1; s <= available; s++) {
+						try {
+							listener.onEvent(ring[(int) (s & MASK)], s == available);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+					seen = available;
+					continue;
+				}
+				if (!running) {
+					return;
+				}
+				synchronized (lock) {
+					while (cursor.get() == seen && running) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+		}
+	}
+}
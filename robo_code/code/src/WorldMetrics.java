@@ -0,0 +1,289 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and timings for one World and its robots. Every World has one;
+ * recording is cheap (striped LongAdder counters), so it is always on.
+ *
+ * publish() makes the metrics visible over JMX and, if the system property
+ * robo.metrics.file is set, appends a JSON snapshot to that file every
+ * robo.metrics.period milliseconds (default 1000).
+ */
+public class WorldMetrics implements WorldMetricsMXBean {
+
+	/** Names of the robot actions, indexed by Robot.ACTION_*; 7 is a shield toggle. */
+	static final String[] ACTION_NAMES = { "none", "move", "turnL", "turnR", "turnAround", "takeFuel", "wait", "shield" };
+	static final int ACTION_SHIELD = 7;
+
+	private static final AtomicInteger ids = new AtomicInteger();
+
+	/**
+	 * The counters of one robot.
+	 */
+	static class RobotMetrics {
+		final LongAdder[] actions = new LongAdder[ACTION_NAMES.length];
+		final LongAdder sensorCalls = new LongAdder();
+		final LongAdder fuelSpent = new LongAdder();
+		final LongAdder blockedNanos = new LongAdder();
+		volatile long parseNanos;
+
+		RobotMetrics() {
+			for (int i = 0; i < actions.length; i++) {
+				actions[i] = new LongAdder();
+			}
+		}
+	}
+
+	final LongAdder barrelsSpawned = new LongAdder();
+	final LongAdder barrelsTaken = new LongAdder();
+	final LongAdder siphons = new LongAdder();
+	final Histogram tickNanos = new Histogram();
+	final Histogram parseNanos = new Histogram();
+
+	private final Map<String, RobotMetrics> robots = new ConcurrentHashMap<String, RobotMetrics>();
+	private final int id = ids.incrementAndGet();
+	private volatile long firstTick;
+
+	/** The ObjectName this is registered under, while published. */
+	private Object name;
+	private ScheduledExecutorService snapshots;
+
+	/**
+	 * @return the counters of the robot with the given colour
+	 */
+	RobotMetrics robot(String colour) {
+		return robots.computeIfAbsent(colour, c -> new RobotMetrics());
+	}
+
+	void recordTick(long nanos) {
+		if (firstTick == 0) {
+			firstTick = System.nanoTime() - nanos;
+		}
+		tickNanos.record(nanos);
+	}
+
+	// Publishing
+	// ----------
+
+	/**
+	 * Registers these metrics as an MXBean, and starts writing snapshots if
+	 * robo.metrics.file is set.
+	 */
+	public synchronized void publish() {
+		if (name != null) {
+			return;
+		}
+		name = Jmx.register(this, id);
+
+		final String file = System.getProperty("robo.metrics.file");
+		if (file != null) {
+			long period = Long.getLong("robo.metrics.period", 1000);
+			snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "metrics-snapshots");
+				t.setDaemon(true);
+				return t;
+			});
+			snapshots.scheduleAtFixedRate(() -> writeSnapshot(file), period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Undoes publish(), writing a last snapshot.
+	 */
+	public synchronized void unpublish() {
+		if (name == null) {
+			return;
+		}
+		Jmx.unregister(name);
+		name = null;
+		if (snapshots != null) {
+			snapshots.shutdown();
+			snapshots = null;
+			writeSnapshot(System.getProperty("robo.metrics.file"));
+		}
+	}
+
+	/**
+	 * The calls into java.management, kept apart so that a World which is
+	 * never published (any headless one) doesn't load that module's classes.
+	 */
+	private static class Jmx {
+
+		static Object register(WorldMetrics metrics, int id) {
+			try {
+				ObjectName name = new ObjectName("robogame:type=World,id=" + id);
+				ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+				return name;
+			} catch (JMException e) {
+				e.printStackTrace();
+				// unpublish() still has nothing to undo, but publish() won't retry
+				return "";
+			}
+		}
+
+		static void unregister(Object name) {
+			if (!(name instanceof ObjectName)) {
+				return;
+			}
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean((ObjectName) name);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void writeSnapshot(String file) {
+		try (Writer out = new FileWriter(file, true)) {
+			out.write(snapshot());
+			out.write('\n');
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return all the metrics as one line of JSON
+	 */
+	public String snapshot() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"time\":").append(System.currentTimeMillis());
+		sb.append(",\"world\":").append(id);
+		sb.append(",\"ticks\":").append(getTicks());
+		sb.append(",\"ticksPerSecond\":").append(String.format(Locale.ROOT, "%.2f", getTicksPerSecond()));
+		sb.append(",\"tickMicros\":{\"mean\":").append(String.format(Locale.ROOT, "%.1f", getMeanTickMicros()));
+		sb.append(",\"p99\":").append(tickNanos.percentile(0.99) / 1000);
+		sb.append(",\"max\":").append(getMaxTickMicros()).append('}');
+		sb.append(",\"barrelsSpawned\":").append(getBarrelsSpawned());
+		sb.append(",\"barrelsTaken\":").append(getBarrelsTaken());
+		sb.append(",\"siphons\":").append(getSiphons());
+		sb.append(",\"actions\":").append(json(getActions()));
+		sb.append(",\"sensorCalls\":").append(json(getSensorCalls()));
+		sb.append(",\"fuelSpent\":").append(json(getFuelSpent()));
+		sb.append(",\"blockedMillis\":").append(json(getBlockedMillis()));
+		sb.append(",\"parseMicros\":").append(json(getParseMicros()));
+		return sb.append('}').toString();
+	}
+
+	private static String json(Map<String, Long> map) {
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String, Long> e : map.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append('"').append(e.getKey()).append("\":").append(e.getValue());
+		}
+		return sb.append('}').toString();
+	}
+
+	// WorldMetricsMXBean
+	// ------------------
+
+	@Override
+	public long getTicks() {
+		return tickNanos.count();
+	}
+
+	@Override
+	public double getTicksPerSecond() {
+		long start = firstTick;
+		if (start == 0) {
+			return 0;
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		return getTicks() / secs;
+	}
+
+	@Override
+	public double getMeanTickMicros() {
+		return tickNanos.mean() / 1000;
+	}
+
+	@Override
+	public long getMaxTickMicros() {
+		return tickNanos.max() / 1000;
+	}
+
+	@Override
+	public long[] getTickNanosHistogram() {
+		return tickNanos.buckets();
+	}
+
+	@Override
+	public long getBarrelsSpawned() {
+		return barrelsSpawned.sum();
+	}
+
+	@Override
+	public long getBarrelsTaken() {
+		return barrelsTaken.sum();
+	}
+
+	@Override
+	public long getSiphons() {
+		return siphons.sum();
+	}
+
+	@Override
+	public long getProgramsLoaded() {
+		return parseNanos.count();
+	}
+
+	@Override
+	public double getMeanParseMicros() {
+		return parseNanos.mean() / 1000;
+	}
+
+	@Override
+	public Map<String, Long> getActions() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		for (RobotMetrics r : robots.values()) {
+			for (int i = 1; i < ACTION_NAMES.length; i++) {
+				map.merge(ACTION_NAMES[i], r.actions[i].sum(), Long::sum);
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getSensorCalls() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		robots.forEach((colour, r) -> map.put(colour, r.sensorCalls.sum()));
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getFuelSpent() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		robots.forEach((colour, r) -> map.put(colour, r.fuelSpent.sum()));
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getBlockedMillis() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		robots.forEach((colour, r) -> map.put(colour, r.blockedNanos.sum() / 1000000));
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getParseMicros() {
+		Map<String, Long> map = new TreeMap<String, Long>();
+		robots.forEach((colour, r) -> map.put(colour, r.parseNanos / 1000));
+		return map;
+	}
+}
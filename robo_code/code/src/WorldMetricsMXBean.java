@@ -0,0 +1,40 @@
+import java.util.Map;
+
+/**
+ * The live metrics of a World, as published over JMX by WorldMetrics.
+ * Times are in microseconds unless named otherwise; maps are keyed by robot
+ * colour or action name.
+ */
+public interface WorldMetricsMXBean {
+
+	long getTicks();
+
+	double getTicksPerSecond();
+
+	double getMeanTickMicros();
+
+	long getMaxTickMicros();
+
+	/** Counts of updateWorld durations, bucket b holding 2^(b-1) to 2^b - 1 ns. */
+	long[] getTickNanosHistogram();
+
+	long getBarrelsSpawned();
+
+	long getBarrelsTaken();
+
+	long getSiphons();
+
+	long getProgramsLoaded();
+
+	double getMeanParseMicros();
+
+	Map<String, Long> getActions();
+
+	Map<String, Long> getSensorCalls();
+
+	Map<String, Long> getFuelSpent();
+
+	Map<String, Long> getBlockedMillis();
+
+	Map<String, Long> getParseMicros();
+}
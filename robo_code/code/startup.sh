@@ -0,0 +1,124 @@
+#!/usr/bin/env bash
+#
+# A launch profile for short-lived JVMs (the autograder and tournament
+# harness start the game, the parser and the trace printer thousands of
+# times), and a benchmark of how long they take to get going.
+#
+#   ./startup.sh train             dump target/robo.jsa from training runs
+#   ./startup.sh run CLASS ARGS... launch CLASS with the profile
+#   ./startup.sh bench [RUNS]      time the first parsed program and the
+#                                  first trace line, with and without it
+#
+# Run from robo_code/code (the game loads its images from assets/) after
+# mvn package. The archive is an AppCDS archive of every class the training
+# runs load, already parsed and verified, so a launch maps them in rather
+# than loading them one by one. It only matches the jar it was dumped from:
+# train again after rebuilding, or the JVM quietly runs without it.
+#
+# The profile also stops the JIT at C1 and uses the serial collector: a run
+# of a few hundred milliseconds is over before C2 code would pay for itself,
+# and on a small machine the compiler threads take time from the run. Long
+# matches (BatchSimulator, ProgramEvolver) are better off without it.
+
+set -e
+cd "$(dirname "$0")"
+
+JAR=target/robo-game-1.0-SNAPSHOT.jar
+ARCHIVE=target/robo.jsa
+WORK=target/startup
+DATA=../../robo_data/data
+PROFILE=(-XX:SharedArchiveFile=$ARCHIVE -Xshare:auto -XX:TieredStopAtLevel=1 -XX:+UseSerialGC -XX:-UsePerfData)
+
+if [ ! -f $JAR ]; then
+	echo "$JAR is missing; run mvn package first" >&2
+	exit 1
+fi
+
+train() {
+	rm -rf $WORK
+	mkdir -p $WORK/frames
+	printf '3 4\n7 2\n10 10\n' > $WORK/fuel.txt
+	local list=$WORK/classes.txt
+	run_training() {
+		java -Xshare:off -XX:DumpLoadedClassList=$WORK/run$1.txt -Djava.awt.headless=true -cp $JAR "${@:2}" \
+			> /dev/null 2>&1 || true
+	}
+	# every program, good and bad, so the error paths are in too
+	run_training 1 Parser $DATA/*.prog
+	run_training 2 'World$RoboGamePrinter' $DATA/s1_full.prog $WORK/fuel.txt
+	run_training 3 'World$RoboGamePrinter' $DATA/s2_full.prog $WORK/fuel.txt
+	# the game itself needs a display, but drawing frames headless loads
+	# the images, ImageIO and the Java2D pipeline it paints with
+	run_training 4 FrameExporter -png $WORK/frames -ticks 5 -frames 2 -record $WORK/match.robl \
+		$DATA/s1_full.prog $DATA/s1_simple.prog
+	# the JDK's own list, so that nothing it would have shared is lost
+	cat "$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")/lib/classlist" $WORK/run*.txt \
+		| grep -v '^#' | awk '!seen[$0]++' > $list
+	java -Xshare:dump -XX:SharedClassListFile=$list -XX:SharedArchiveFile=$ARCHIVE -cp $JAR > $WORK/dump.log 2>&1 || {
+		tail $WORK/dump.log >&2
+		exit 1
+	}
+	# fails, rather than running without it, if the archive can't be mapped
+	java -Xshare:on "${PROFILE[@]}" -cp $JAR Parser $DATA/s0_simple.prog > /dev/null
+	echo "$ARCHIVE: $(grep -c . $list) classes, $(du -k $ARCHIVE | cut -f1) KB"
+}
+
+# Prints how many milliseconds the command took to print a line starting
+# with the given prefix.
+first_line() {
+	local prefix=$1
+	shift
+	local start=${EPOCHREALTIME/./}
+	"$@" 2> /dev/null | while IFS= read -r line; do
+		if [[ $line == "$prefix"* ]]; then
+			echo $(((${EPOCHREALTIME/./} - start) / 1000))
+			cat > /dev/null
+			break
+		fi
+	done
+}
+
+# Prints the median and the minimum of N runs of first_line.
+median() {
+	local runs=$1
+	shift
+	local times=()
+	for ((i = 0; i < runs; i++)); do
+		times+=($(first_line "$@"))
+	done
+	local sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+	echo "${sorted[$((runs / 2))]} ms (min ${sorted[0]} ms)"
+}
+
+bench() {
+	local runs=${1:-11}
+	mkdir -p $WORK
+	printf '3 4\n7 2\n10 10\n' > $WORK/fuel.txt
+	local parse=(Parser $DATA/s1_full.prog)
+	local trace=('World$RoboGamePrinter' $DATA/s1_full.prog $WORK/fuel.txt)
+	echo "median of $runs runs"
+	echo "first parsed program, default:  $(median $runs 'Parsing completed' java -cp $JAR "${parse[@]}")"
+	echo "first parsed program, profile:  $(median $runs 'Parsing completed' java "${PROFILE[@]}" -cp $JAR "${parse[@]}")"
+	echo "first trace line, default:      $(median $runs 'x=' java -cp $JAR "${trace[@]}")"
+	echo "first trace line, profile:      $(median $runs 'x=' java "${PROFILE[@]}" -cp $JAR "${trace[@]}")"
+	if [ ! -f $ARCHIVE ]; then
+		echo "(no $ARCHIVE yet, so the profile ran without one: ./startup.sh train)"
+	fi
+}
+
+case "$1" in
+train)
+	train
+	;;
+run)
+	shift
+	exec java "${PROFILE[@]}" -cp $JAR "$@"
+	;;
+bench)
+	bench "$2"
+	;;
+*)
+	echo "usage: $0 train | run CLASS ARGS... | bench [RUNS]" >&2
+	exit 1
+	;;
+esac